@@ -0,0 +1,95 @@
+package net.tokishu.cubatar.bench;
+
+import net.tokishu.cubatar.module.resolve.PngDecoder;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PngDecoder} против ImageIO на двух наборах: {@code examples} -
+ * готовые рендеры из репозитория (RGBA, 200-550 px), {@code skins} -
+ * процедурные скины 64x64/64x32 и HD 128/256, как их отдаёт
+ * textures.minecraft.net. imageIoToIntArgb - полная цена старого пути:
+ * ImageIO плюс копия в TYPE_INT_ARGB, которую делал каждый рендер.
+ * Одна операция - декодирование всего набора.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngDecodeBenchmark {
+
+    @Param({"examples", "skins"})
+    public String corpus;
+
+    private List<byte[]> files;
+
+    @Setup
+    public void load() throws IOException {
+        files = new ArrayList<>();
+        if (corpus.equals("examples")) {
+            Path dir = Path.of(System.getProperty("cubatar.bench.examples", "examples"));
+            try (DirectoryStream<Path> pngs = Files.newDirectoryStream(dir, "*.png")) {
+                for (Path png : pngs) files.add(Files.readAllBytes(png));
+            }
+        } else {
+            for (long seed = 0; seed < 32; seed++) {
+                BufferedImage skin = ProceduralSkins.skin(seed, seed % 3 == 0, seed % 10 == 0);
+                int scale = seed % 8 == 0 ? 4 : seed % 8 == 1 ? 2 : 1;
+                files.add(encode(scale == 1 ? skin : upscale(skin, scale)));
+            }
+        }
+        if (files.isEmpty()) throw new IllegalStateException("Empty corpus " + corpus);
+    }
+
+    @Benchmark
+    public void imageIo(Blackhole bh) throws IOException {
+        for (byte[] png : files) bh.consume(ImageIO.read(new ByteArrayInputStream(png)));
+    }
+
+    @Benchmark
+    public void imageIoToIntArgb(Blackhole bh) throws IOException {
+        for (byte[] png : files) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+            BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = argb.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            bh.consume(argb);
+        }
+    }
+
+    @Benchmark
+    public void pngDecoder(Blackhole bh) {
+        for (byte[] png : files) bh.consume(PngDecoder.decode(png));
+    }
+
+    private static BufferedImage upscale(BufferedImage skin, int scale) {
+        BufferedImage hd = new BufferedImage(skin.getWidth() * scale, skin.getHeight() * scale, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = hd.createGraphics();
+        g.drawImage(skin, 0, 0, hd.getWidth(), hd.getHeight(), null);
+        g.dispose();
+        return hd;
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
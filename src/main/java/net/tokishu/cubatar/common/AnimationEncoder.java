@@ -0,0 +1,16 @@
+package net.tokishu.cubatar.common;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Кодировщик анимации, который пишет по мере поступления кадров: кадр
+ * сжимается и уходит в поток сразу, не дожидаясь остальных. Кадры - по
+ * порядку, все одного размера; после последнего - {@link #finish}.
+ */
+public interface AnimationEncoder {
+
+    void addFrame(BufferedImage frame) throws IOException;
+
+    void finish() throws IOException;
+}
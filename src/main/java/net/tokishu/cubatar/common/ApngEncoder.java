@@ -0,0 +1,246 @@
+package net.tokishu.cubatar.common;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Анимированный PNG (APNG), кадр за кадром: каждый кадр сжимается и уходит
+ * в поток сразу, как его передали, в памяти - только предыдущий кадр.
+ * Первый кадр - обычная картинка IDAT (её покажет и просмотрщик без
+ * поддержки APNG), остальные - только прямоугольник, в котором они
+ * отличаются от предыдущего (dispose NONE, blend SOURCE: прямоугольник
+ * заменяет пиксели целиком, включая прозрачность). Все кадры одного размера,
+ * RGBA 8 бит, бесконечный повтор.
+ */
+public final class ApngEncoder implements AnimationEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOR_RGBA = 6;
+    private static final int DISPOSE_NONE = 0;
+    private static final int BLEND_SOURCE = 0;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_PAETH = 4;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int frames;
+    private final int delayMs;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final CRC32 crc = new CRC32();
+    private final byte[] deflated = new byte[16 * 1024];
+
+    private int[] previous;
+    private int written;
+    private int sequence;
+
+    /**
+     * @param frames  сколько кадров будет передано - пишется в заголовок
+     * @param delayMs длительность каждого кадра
+     */
+    public ApngEncoder(OutputStream out, int width, int height, int frames, int delayMs) {
+        if (width < 1 || height < 1 || frames < 1) throw new IllegalArgumentException(width + "x" + height + ", " + frames + " frames");
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.delayMs = delayMs;
+    }
+
+    @Override
+    public void addFrame(BufferedImage frame) throws IOException {
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            throw new IllegalArgumentException("Frame " + frame.getWidth() + "x" + frame.getHeight() + ", expected " + width + "x" + height);
+        }
+        if (written == frames) throw new IllegalStateException("All " + frames + " frames are already written");
+        int[] pixels = frame.getRGB(0, 0, width, height, null, 0, width);
+
+        if (written == 0) {
+            out.write(SIGNATURE);
+            writeHeader();
+            frameControl(0, 0, width, height);
+            chunk("IDAT", compress(pixels, 0, 0, width, height), -1);
+        } else {
+            int[] box = changed(previous, pixels);
+            frameControl(box[0], box[1], box[2], box[3]);
+            chunk("fdAT", compress(pixels, box[0], box[1], box[2], box[3]), sequence++);
+        }
+        previous = pixels;
+        written++;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (written != frames) throw new IllegalStateException("Expected " + frames + " frames, got " + written);
+        chunk("IEND", new byte[0], -1);
+        out.flush();
+        deflater.end();
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;
+        ihdr[9] = COLOR_RGBA;
+        chunk("IHDR", ihdr, -1);
+
+        byte[] actl = new byte[8];
+        putInt(actl, 0, frames);
+        putInt(actl, 4, 0); // 0 - повторять бесконечно
+        chunk("acTL", actl, -1);
+    }
+
+    private void frameControl(int x, int y, int w, int h) throws IOException {
+        byte[] fctl = new byte[26];
+        putInt(fctl, 0, sequence++);
+        putInt(fctl, 4, w);
+        putInt(fctl, 8, h);
+        putInt(fctl, 12, x);
+        putInt(fctl, 16, y);
+        fctl[20] = (byte) (delayMs >>> 8);
+        fctl[21] = (byte) delayMs;
+        fctl[22] = (byte) (1000 >>> 8);
+        fctl[23] = (byte) 1000;
+        fctl[24] = DISPOSE_NONE;
+        fctl[25] = BLEND_SOURCE;
+        chunk("fcTL", fctl, -1);
+    }
+
+    /**
+     * {x, y, w, h} - наименьший прямоугольник, вне которого кадры совпадают.
+     * Одинаковые кадры - всё равно 1x1: у APNG не бывает пустого кадра.
+     */
+    private int[] changed(int[] a, int[] b) {
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (a[row + x] != b[row + x]) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+            }
+        }
+        if (maxX < 0) return new int[]{0, 0, 1, 1};
+        return new int[]{minX, minY, maxX - minX + 1, maxY - minY + 1};
+    }
+
+    /**
+     * Строки прямоугольника в RGBA с фильтром на строку (из None/Sub/Up/Paeth
+     * тот, у которого меньше сумма модулей - обычная эвристика libpng), в zlib.
+     */
+    private byte[] compress(int[] pixels, int x0, int y0, int w, int h) {
+        int stride = w * 4;
+        byte[] prior = new byte[stride];
+        byte[] row = new byte[stride];
+        byte[][] filtered = new byte[5][stride + 1];
+        deflater.reset();
+        ByteArrayOutputStream sink = new ByteArrayOutputStream(4096);
+        for (int y = 0; y < h; y++) {
+            int at = (y0 + y) * width + x0;
+            for (int x = 0; x < w; x++) {
+                int argb = pixels[at + x];
+                row[x * 4] = (byte) (argb >> 16);
+                row[x * 4 + 1] = (byte) (argb >> 8);
+                row[x * 4 + 2] = (byte) argb;
+                row[x * 4 + 3] = (byte) (argb >>> 24);
+            }
+            byte[] best = null;
+            long bestCost = Long.MAX_VALUE;
+            for (int filter : new int[]{FILTER_NONE, FILTER_SUB, FILTER_UP, FILTER_PAETH}) {
+                byte[] line = filtered[filter];
+                long cost = filter(filter, row, prior, line);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = line;
+                }
+            }
+            deflate(best, sink, false);
+            byte[] swap = prior;
+            prior = row;
+            row = swap;
+        }
+        deflate(new byte[0], sink, true);
+        return sink.toByteArray();
+    }
+
+    /** Строка line = [filter, отфильтрованные байты]; возвращает сумму модулей как знаковых байт. */
+    private static long filter(int filter, byte[] row, byte[] prior, byte[] line) {
+        line[0] = (byte) filter;
+        long cost = 0;
+        for (int i = 0; i < row.length; i++) {
+            int raw = row[i] & 0xFF;
+            int left = i >= 4 ? row[i - 4] & 0xFF : 0;
+            int up = prior[i] & 0xFF;
+            int upLeft = i >= 4 ? prior[i - 4] & 0xFF : 0;
+            int predicted = switch (filter) {
+                case FILTER_SUB -> left;
+                case FILTER_UP -> up;
+                case FILTER_PAETH -> paeth(left, up, upLeft);
+                default -> 0;
+            };
+            byte value = (byte) (raw - predicted);
+            line[i + 1] = value;
+            cost += Math.abs(value);
+        }
+        return cost;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    private void deflate(byte[] data, ByteArrayOutputStream sink, boolean last) {
+        deflater.setInput(data);
+        if (last) deflater.finish();
+        while (last ? !deflater.finished() : !deflater.needsInput()) {
+            int n = deflater.deflate(deflated);
+            sink.write(deflated, 0, n);
+        }
+    }
+
+    /** Чанк PNG; sequence >= 0 - номер fdAT, идёт перед данными. */
+    private void chunk(String type, byte[] data, int sequence) throws IOException {
+        int length = data.length + (sequence >= 0 ? 4 : 0);
+        byte[] head = new byte[8];
+        putInt(head, 0, length);
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, head, 4, 4);
+        out.write(head);
+        crc.reset();
+        crc.update(name);
+        if (sequence >= 0) {
+            byte[] seq = new byte[4];
+            putInt(seq, 0, sequence);
+            out.write(seq);
+            crc.update(seq);
+        }
+        out.write(data);
+        crc.update(data);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+}
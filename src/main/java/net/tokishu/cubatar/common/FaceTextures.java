@@ -0,0 +1,120 @@
+package net.tokishu.cubatar.common;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Готовые текстуры граней одной текстуры (скина или плаща): вырезанный
+ * UV-прямоугольник, при надобности отражённый и затемнённый. Всё это
+ * зависит только от текстуры и грани, не от угла камеры и не от размера,
+ * а раньше делалось на каждую грань каждого рендера - getSubimage,
+ * flipHorizontal через Graphics2D и darken через getRGB/setRGB.
+ * <p>
+ * Набор граней живёт, пока жива сама картинка: ключ - её идентичность
+ * (weakKeys), а картинки текстур общие для всех запросов, пока их держит
+ * {@code TextureCache}. Вес записи - оценка сверху: каждый тексель входит
+ * максимум в пару вариантов грани. Потолок по байтам -
+ * cubatar.cache.faces.max-bytes: кеш статический, поэтому его выставляет
+ * при старте {@code MetricsConfig} (там же метрики Caffeine), а до этого -
+ * и в тестах без Spring - действует значение по умолчанию.
+ * <p>
+ * Отданные картинки общие - их можно только читать.
+ */
+public final class FaceTextures {
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Значение не ссылается на ключ - иначе weakKeys не отпустил бы текстуру. */
+    private static final Cache<BufferedImage, Map<Face, BufferedImage>> CACHE = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumWeight(DEFAULT_MAX_BYTES)
+            .weigher((BufferedImage texture, Map<Face, BufferedImage> faces) ->
+                    (int) Math.min(Integer.MAX_VALUE, (long) texture.getWidth() * texture.getHeight() * 8))
+            .recordStats()
+            .build();
+
+    /**
+     * roundtrip - полупрозрачные тексели один раз прошли через премультипликацию
+     * SrcOver, как при drawImage с отражением или масштабом на прозрачный холст.
+     */
+    private record Face(int x, int y, int w, int h, boolean mirrored, boolean roundtrip, float shade) {}
+
+    private FaceTextures() {}
+
+    /** Новый потолок кеша в байтах; лишнее вытесняется сразу. */
+    public static void maxBytes(long maxBytes) {
+        CACHE.policy().eviction().orElseThrow().setMaximum(maxBytes);
+    }
+
+    /** Сам кеш - только для метрик Caffeine. */
+    public static Cache<?, ?> cache() {
+        return CACHE;
+    }
+
+    /**
+     * Прямоугольник (x, y, w, h), отражённый по горизонтали при mirrored и
+     * затемнённый в shade раз - ровно то, что давали getSubimage,
+     * flipHorizontal и darken.
+     */
+    public static BufferedImage face(BufferedImage texture, int x, int y, int w, int h, boolean mirrored, float shade) {
+        if (!mirrored && shade >= 1f) return texture.getSubimage(x, y, w, h);
+        return prepared(texture, new Face(x, y, w, h, mirrored, mirrored, shade));
+    }
+
+    /**
+     * Квадрат block x block с (x, y), растянутый ближайшим соседом до
+     * target x target и затемнённый - как darkenImage(extractAndScale(...)).
+     * Затемнённые тексели считаются один раз на текстуру, на размер остаётся
+     * только раскопировать их по индексам.
+     */
+    public static BufferedImage scaled(BufferedImage texture, int x, int y, int block, int target, float shade) {
+        // Java2D при масштабе прогоняет полупрозрачное через премультипликацию до затемнения,
+        // при 1:1 - нет; повторный прогон уже затемнённого его меняет, поэтому варианта два
+        BufferedImage face = prepared(texture, new Face(x, y, block, block, false, target != block, shade));
+        if (target == block) return face;
+
+        int[] src = ((DataBufferInt) face.getRaster().getDataBuffer()).getData();
+        BufferedImage result = new BufferedImage(target, target, BufferedImage.TYPE_INT_ARGB);
+        int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        long step = ((long) block << 32) / target;
+        for (int ty = 0; ty < target; ty++) {
+            int row = (int) (((2L * ty + 1) * step) >>> 33) * block;
+            for (int tx = 0; tx < target; tx++) {
+                dst[ty * target + tx] = src[row + (int) (((2L * tx + 1) * step) >>> 33)];
+            }
+        }
+        return result;
+    }
+
+    /** texture должна быть общей картинкой из кеша текстур, а не копией на запрос - иначе кеш бесполезен. */
+    private static BufferedImage prepared(BufferedImage texture, Face face) {
+        return CACHE.get(texture, t -> new ConcurrentHashMap<>()).computeIfAbsent(face, f -> prepare(texture, f));
+    }
+
+    private static BufferedImage prepare(BufferedImage texture, Face f) {
+        int[] argb = texture.getRGB(f.x(), f.y(), f.w(), f.h(), null, 0, f.w());
+        BufferedImage result = new BufferedImage(f.w(), f.h(), BufferedImage.TYPE_INT_ARGB);
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < f.h(); y++) {
+            for (int x = 0; x < f.w(); x++) {
+                int p = argb[y * f.w() + (f.mirrored() ? f.w() - 1 - x : x)];
+                int a = p >>> 24;
+                if (a == 0) continue;
+                if (a < 255 && f.roundtrip()) p = SrcOver.over(0, p);
+                if (f.shade() < 1f) {
+                    int r = (int) (((p >> 16) & 0xFF) * f.shade());
+                    int g = (int) (((p >> 8) & 0xFF) * f.shade());
+                    int b = (int) ((p & 0xFF) * f.shade());
+                    p = (a << 24) | (r << 16) | (g << 8) | b;
+                }
+                out[y * f.w() + x] = p;
+            }
+        }
+        return result;
+    }
+}
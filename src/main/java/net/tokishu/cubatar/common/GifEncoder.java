@@ -0,0 +1,121 @@
+package net.tokishu.cubatar.common;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Анимированный GIF через ImageIO, кадр за кадром. GIF - запасной формат
+ * для мест без APNG: палитра в 256 цветов на кадр (ImageIO квантует сам) и
+ * однобитная прозрачность, полупрозрачное становится либо прозрачным, либо
+ * непрозрачным. Поэтому кадр обрезается не по разнице с предыдущим, а по
+ * своему видимому содержимому: прозрачный пиксель GIF не может стереть
+ * старый, и место кадра перед следующим очищается (restoreToBackgroundColor).
+ */
+public final class GifEncoder implements AnimationEncoder {
+
+    private static final String FORMAT = "javax_imageio_gif_image_1.0";
+
+    private final ImageWriter writer;
+    private final ImageOutputStream out;
+    private final int width;
+    private final int height;
+    private final int delayCs;
+    private boolean first = true;
+
+    public GifEncoder(OutputStream target, int width, int height, int delayMs) throws IOException {
+        this.writer = ImageIO.getImageWritersByFormatName("gif").next();
+        this.out = ImageIO.createImageOutputStream(target);
+        this.width = width;
+        this.height = height;
+        this.delayCs = Math.max(1, Math.round(delayMs / 10f));
+        writer.setOutput(out);
+        writer.prepareWriteSequence(null);
+    }
+
+    @Override
+    public void addFrame(BufferedImage frame) throws IOException {
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            throw new IllegalArgumentException("Frame " + frame.getWidth() + "x" + frame.getHeight() + ", expected " + width + "x" + height);
+        }
+        int[] box = visible(frame);
+        // Логический экран GIF берётся из первого кадра - его пишем целиком
+        if (first) box = new int[]{0, 0, width, height};
+        BufferedImage crop = frame.getSubimage(box[0], box[1], box[2], box[3]);
+
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(crop), param);
+        describe(metadata, box[0], box[1]);
+        writer.writeToSequence(new IIOImage(crop, null, metadata), param);
+        first = false;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.endWriteSequence();
+        out.flush();
+        out.close();
+        writer.dispose();
+    }
+
+    /** Задержка, очистка после кадра, позиция кадра и (у первого) бесконечный повтор. */
+    private void describe(IIOMetadata metadata, int x, int y) throws IIOInvalidTreeException {
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(FORMAT);
+
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "restoreToBackgroundColor");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("delayTime", Integer.toString(delayCs));
+
+        IIOMetadataNode descriptor = child(root, "ImageDescriptor");
+        descriptor.setAttribute("imageLeftPosition", Integer.toString(x));
+        descriptor.setAttribute("imageTopPosition", Integer.toString(y));
+
+        if (first) {
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[]{1, 0, 0}); // 0 - повторять бесконечно
+            child(root, "ApplicationExtensions").appendChild(loop);
+        }
+        metadata.setFromTree(FORMAT, root);
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode root, String name) {
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeName().equals(name)) return (IIOMetadataNode) node;
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        root.appendChild(node);
+        return node;
+    }
+
+    /** {x, y, w, h} видимых пикселей кадра; пустой кадр - 1x1 в углу. */
+    private int[] visible(BufferedImage frame) {
+        int[] pixels = frame.getRGB(0, 0, width, height, null, 0, width);
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (pixels[y * width + x] >>> 24 != 0) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+            }
+        }
+        if (maxX < 0) return new int[]{0, 0, 1, 1};
+        return new int[]{minX, minY, maxX - minX + 1, maxY - minY + 1};
+    }
+}
@@ -0,0 +1,78 @@
+package net.tokishu.cubatar.common;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/** В чём отдавать статичную картинку. Обе кодировки без потерь. */
+public enum ImageFormat {
+    PNG("image/png", "png"),
+    /** Lossless WebP ({@link WebpEncoder}): на рендерах в 2-4 раза меньше PNG. */
+    WEBP("image/webp", "webp");
+
+    private static final MediaType WEBP_TYPE = MediaType.parseMediaType("image/webp");
+
+    private final String contentType;
+    private final String extension;
+
+    ImageFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public byte[] encode(BufferedImage image) {
+        return switch (this) {
+            case PNG -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    ImageIO.write(image, "PNG", out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error while encoding PNG", e);
+                }
+                yield out.toByteArray();
+            }
+            case WEBP -> WebpEncoder.encode(image);
+        };
+    }
+
+    public static ImageFormat parse(String format) {
+        if (format == null) return PNG;
+        return switch (format.toLowerCase()) {
+            case "png" -> PNG;
+            case "webp" -> WEBP;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown format: " + format);
+        };
+    }
+
+    /**
+     * Формат по заголовку Accept: WebP - только если он назван явно и не с
+     * q=0. {@code image/*} и {@code *}{@code /*} шлют и клиенты без WebP,
+     * так что по ним остаётся PNG.
+     */
+    public static ImageFormat fromAccept(String accept) {
+        if (accept == null || accept.isBlank()) return PNG;
+        try {
+            for (MediaType type : MediaType.parseMediaTypes(accept)) {
+                if (type.equalsTypeAndSubtype(WEBP_TYPE)) return type.getQualityValue() > 0 ? WEBP : PNG;
+            }
+        } catch (InvalidMediaTypeException e) {
+            // Кривой Accept - отдаём то, что понимают все
+        }
+        return PNG;
+    }
+}
@@ -1,19 +1,65 @@
 package net.tokishu.cubatar.common;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
+@Slf4j
 @Component
+@RequiredArgsConstructor
 public class PngResponseWriter {
 
+    private static final String CACHE_CONTROL = "public, max-age=3600";
+
+    private final StageMetrics metrics;
+
+    /**
+     * Когда ETag впервые встретился - это и есть его Last-Modified (время
+     * смены текстуры Mojang не сообщает). Вытесненная запись просто получит
+     * новое время: главный валидатор всё равно ETag.
+     */
+    private final Cache<String, Long> firstSeen = Caffeine.newBuilder()
+            .maximumSize(100_000)
+            .build();
+
+    /**
+     * Формат ответа: явный {@code format=} (неизвестный - 400) или по Accept
+     * ({@link ImageFormat#fromAccept}). Во втором случае ответ зависит от
+     * Accept, и без {@code Vary: Accept} CDN отдал бы закешированный WebP
+     * клиенту, который его не понимает. Вызывать до
+     * {@link #checkNotModified}: Vary нужен и на 304.
+     */
+    public ImageFormat negotiate(String format, HttpServletRequest request, HttpServletResponse response) {
+        if (format != null) return ImageFormat.parse(format);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        return ImageFormat.fromAccept(request.getHeader(HttpHeaders.ACCEPT));
+    }
+
+    /**
+     * Условный GET: ставит ETag, Last-Modified и Cache-Control и, если
+     * If-None-Match (или If-Modified-Since) совпал, сразу отвечает 304.
+     * Вызывать до декодирования и рендера: при true делать больше нечего.
+     */
+    public boolean checkNotModified(String etag, HttpServletRequest request, HttpServletResponse response) {
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        long lastModified = firstSeen.get(etag, k -> System.currentTimeMillis() / 1000 * 1000);
+        return new ServletWebRequest(request, response).checkNotModified(etag, lastModified);
+    }
+
     public void write(BufferedImage image, HttpServletResponse response) {
         response.setContentType("image/png");
-        response.setHeader("Cache-Control", "public, max-age=3600");
+        response.setHeader("Cache-Control", CACHE_CONTROL);
 
         try (OutputStream out = response.getOutputStream()) {
             ImageIO.write(image, "PNG", out);
@@ -22,7 +68,50 @@ public class PngResponseWriter {
             if (isClientAbort(e)) {
                 return;
             }
-            System.err.println("Error while sending image to client: " + e.getMessage());
+            log.warn("Error while sending image to client: {}", e.getMessage());
+        }
+    }
+
+    /** Кодирует картинку в format целиком в памяти - для кешей готовых рендеров. */
+    public byte[] encode(BufferedImage image, ImageFormat format) {
+        long start = System.nanoTime();
+        byte[] encoded = format.encode(image);
+        metrics.record("encode", format.extension(), start);
+        return encoded;
+    }
+
+    /** Отдаёт уже закодированный PNG как есть - без ImageIO, с известной длиной. */
+    public void write(byte[] png, HttpServletResponse response) {
+        write(png, "image/png", response);
+    }
+
+    /** То же для готовых байт другого типа (WebP, анимации). */
+    public void write(byte[] body, String contentType, HttpServletResponse response) {
+        write(body, contentType, CACHE_CONTROL, response);
+    }
+
+    /**
+     * Ответ, который нельзя кешировать ни CDN, ни браузеру ({@code no-store}):
+     * неполный результат, например атлас с пустыми клетками после временной
+     * ошибки Mojang, - иначе дырка провисела бы max-age.
+     */
+    public void writeNoStore(byte[] body, String contentType, HttpServletResponse response) {
+        write(body, contentType, "no-store", response);
+    }
+
+    private void write(byte[] body, String contentType, String cacheControl, HttpServletResponse response) {
+        response.setContentType(contentType);
+        response.setHeader("Cache-Control", cacheControl);
+        response.setContentLength(body.length);
+
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(body);
+            out.flush();
+        } catch (IOException e) {
+            if (isClientAbort(e)) {
+                return;
+            }
+            log.warn("Error while sending image to client: {}", e.getMessage());
         }
     }
 
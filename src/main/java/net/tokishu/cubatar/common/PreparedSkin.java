@@ -0,0 +1,165 @@
+package net.tokishu.cubatar.common;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Скин, разобранный один раз на текстуру, а не на каждый рендер:
+ * квадратный TYPE_INT_ARGB-растр (legacy 64x32 дополнен прозрачной нижней
+ * половиной), признак legacy, эвристика slim-раскладки и битовые маски
+ * областей второго слоя - есть ли в области хоть один видимый тексель и
+ * непрозрачна ли она целиком. Раньше normalizeSkin, detectAlex и проверки
+ * оверлеев гоняли getRGB по одним и тем же колонкам в каждом генераторе.
+ * <p>
+ * Живёт рядом с текстурой в {@code TextureCache} (ключ - хеш текстуры);
+ * растр общий для всех запросов, его можно только читать.
+ */
+public final class PreparedSkin {
+
+    /**
+     * Области второго слоя в вокселях раскладки 64x64. HAT, JACKET, *_SLEEVE
+     * и *_PANTS - вся развёртка коробки (как у iso-рендера), у рукавов slim
+     * она на два вокселя уже; HAT_FRONT/HAT_BACK - грани шлема для плоских рендеров.
+     */
+    public enum Region {
+        HAT(32, 0, 32, 16),
+        HAT_FRONT(40, 8, 8, 8),
+        HAT_BACK(56, 8, 8, 8),
+        JACKET(16, 32, 24, 16),
+        RIGHT_SLEEVE(40, 32, 16, 16),
+        RIGHT_SLEEVE_SLIM(40, 32, 14, 16),
+        LEFT_SLEEVE(48, 48, 16, 16),
+        LEFT_SLEEVE_SLIM(48, 48, 14, 16),
+        RIGHT_PANTS(0, 32, 16, 16),
+        LEFT_PANTS(0, 48, 16, 16);
+
+        private final int x, y, w, h;
+
+        Region(int x, int y, int w, int h) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final boolean legacy;
+    private final boolean slimLayout;
+    private final int visible;
+    private final int opaque;
+
+    private PreparedSkin(BufferedImage image, int[] pixels, boolean legacy) {
+        this.image = image;
+        this.pixels = pixels;
+        this.legacy = legacy;
+
+        float scale = image.getWidth() / 64f;
+        // У classic задние грани рук занимают колонки x 54..56 (y 20..32) и x 46..48 (y 52..64);
+        // slim до них не дотягивается. Обе зоны пусты целиком - скин нарисован под slim
+        this.slimLayout = !legacy && transparent(scale, 54, 20, 2, 12) && transparent(scale, 46, 52, 2, 12);
+
+        int visible = 0, opaque = 0;
+        for (Region region : Region.values()) {
+            int x0 = Math.round(region.x * scale);
+            int y0 = Math.round(region.y * scale);
+            int x1 = Math.min(x0 + Math.round(region.w * scale), size());
+            int y1 = Math.min(y0 + Math.round(region.h * scale), size());
+            boolean any = false, all = true;
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int a = pixels[y * size() + x] >>> 24;
+                    any |= a != 0;
+                    all &= a == 255;
+                }
+            }
+            if (any) visible |= 1 << region.ordinal();
+            if (all) opaque |= 1 << region.ordinal();
+        }
+        this.visible = visible;
+        this.opaque = opaque;
+    }
+
+    /** Разбирает декодированную текстуру; уже квадратный TYPE_INT_ARGB берётся без копии. */
+    public static PreparedSkin of(BufferedImage raw) {
+        int w = raw.getWidth();
+        boolean legacy = raw.getHeight() == 32;
+        int[] shared = w == raw.getHeight() ? sharedPixels(raw) : null;
+        if (shared != null) return new PreparedSkin(raw, shared, legacy);
+
+        BufferedImage normalized = new BufferedImage(w, w, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = normalized.createGraphics();
+        g.drawImage(raw, 0, 0, null);
+        g.dispose();
+        return new PreparedSkin(normalized, ((DataBufferInt) normalized.getRaster().getDataBuffer()).getData(), legacy);
+    }
+
+    /** Массив пикселей, если картинка - плотный TYPE_INT_ARGB без смещений; иначе null. */
+    static int[] sharedPixels(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) return null;
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel model)) return null;
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        boolean dense = model.getScanlineStride() == image.getWidth() && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        return dense ? buffer.getData() : null;
+    }
+
+    private boolean transparent(float scale, int vx, int vy, int vw, int vh) {
+        int x0 = Math.round(vx * scale), y0 = Math.round(vy * scale);
+        int x1 = Math.min(Math.round((vx + vw) * scale), size());
+        int y1 = Math.min(Math.round((vy + vh) * scale), size());
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                if (pixels[y * size() + x] >>> 24 != 0) return false;
+            }
+        }
+        return true;
+    }
+
+    /** Квадратный TYPE_INT_ARGB size x size поверх {@link #pixels()}. */
+    public BufferedImage image() {
+        return image;
+    }
+
+    /** ARGB построчно, шаг строки - {@link #size()}. */
+    public int[] pixels() {
+        return pixels;
+    }
+
+    public int size() {
+        return image.getWidth();
+    }
+
+    /** Исходная текстура 64x32 (до 1.8): без второго слоя, кроме шлема, и без slim. */
+    public boolean legacy() {
+        return legacy;
+    }
+
+    /** Руки нарисованы под slim - для скинов, чью модель профиль Mojang не сообщил. */
+    public boolean slimLayout() {
+        return slimLayout;
+    }
+
+    /** В области есть хоть один не полностью прозрачный тексель. */
+    public boolean hasOverlay(Region region) {
+        return (visible & 1 << region.ordinal()) != 0;
+    }
+
+    /** Все тексели области непрозрачны. */
+    public boolean isOpaque(Region region) {
+        return (opaque & 1 << region.ordinal()) != 0;
+    }
+
+    /**
+     * Сколько байт кучи держит запись - растр. Даже общий с картинкой
+     * текстуры он переживёт её вытеснение из кеша текстур, поэтому считается всегда.
+     */
+    public int weight() {
+        return pixels.length * 4;
+    }
+}
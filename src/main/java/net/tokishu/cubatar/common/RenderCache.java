@@ -0,0 +1,106 @@
+package net.tokishu.cubatar.common;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Кеш закодированных картинок по {@link RenderKey} - PNG и WebP одного
+ * рендера лежат отдельными записями. Большая часть трафика - одни
+ * и те же рендеры с параметрами по умолчанию (/v1/iso/head/{x}), и без кеша
+ * каждый запрос заново гонял рендер и ImageIO. Попадание отдаётся готовыми
+ * байтами; одновременные промахи по одному ключу рендерятся один раз.
+ * Ограничение - по байтам.
+ * <p>
+ * Кеш асинхронный: под замком карты в него кладётся только незавершённый
+ * future, а рендерит и кодирует сам вызывающий поток, уже без замка.
+ * Синхронный {@code Cache.get(key, loader)} держал бы монитор бина
+ * ConcurrentHashMap весь рендер: соседние ключи ждали бы его, а виртуальный
+ * поток, который внутри загрузчика ждёт свои дочерние потоки (загрузка
+ * текстур, кадры анимации), остаётся прикреплён к носителю - при нескольких
+ * таких промахах сразу дочерним потокам становится не на чем выполняться.
+ * Остальные промахи по ключу ждут этот future, тоже без замка; упавший
+ * future Caffeine из кеша убирает сам, и следующий запрос рендерит заново.
+ */
+@Component
+public class RenderCache {
+
+    private final AsyncCache<RenderKey, byte[]> cache;
+    private final PngResponseWriter writer;
+    private final StageMetrics metrics;
+
+    public RenderCache(@Value("${cubatar.cache.renders.max-bytes}") long maxBytes, PngResponseWriter writer,
+                       StageMetrics metrics, MeterRegistry registry) {
+        this.writer = writer;
+        this.metrics = metrics;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((RenderKey key, byte[] encoded) -> encoded.length)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(registry, cache, "renders");
+    }
+
+    /** Картинка в формате key.format() из кеша или отрендеренная и закодированная на месте. */
+    public byte[] get(RenderKey key, Supplier<BufferedImage> render) {
+        return getEncoded(key, () -> {
+            BufferedImage image = metrics.time("render", key.endpoint(), render);
+            return writer.encode(image, key.format());
+        }, false);
+    }
+
+    /** То же для рендеров, которые кодируют себя сами (анимации): render отдаёт готовые байты. */
+    public byte[] getEncoded(RenderKey key, Supplier<byte[]> render) {
+        return getEncoded(key, render, true);
+    }
+
+    /**
+     * Готовые байты или, если по ключу уже рендерят, - дождаться их; null -
+     * в кеше ничего нет. Для вызывающих, которым до рендера нужно ещё что-то
+     * подготовить (скачать текстуры), - чтобы не делать этого на попадании.
+     */
+    public byte[] getIfPresent(RenderKey key) {
+        CompletableFuture<byte[]> future = cache.getIfPresent(key);
+        if (future == null) return null;
+        try {
+            return await(future);
+        } catch (RuntimeException | Error e) {
+            // Чужой рендер упал - пусть вызывающий попробует свой
+            return null;
+        }
+    }
+
+    private byte[] getEncoded(RenderKey key, Supplier<byte[]> render, boolean timed) {
+        CompletableFuture<byte[]> own = new CompletableFuture<>();
+        CompletableFuture<byte[]> future = cache.get(key, (k, executor) -> own);
+        if (future != own) return await(future);
+        try {
+            byte[] encoded = timed ? metrics.time("render", key.endpoint(), render) : render.get();
+            metrics.rendered(key.endpoint(), key.size(), encoded.length);
+            own.complete(encoded);
+            return encoded;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Ждавшие получают то же исключение, что и рендеривший (404 остаётся 404)
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package net.tokishu.cubatar.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Ключ кеша готовых картинок ({@link RenderCache}). Игрок в ключ не входит -
+ * только хеш текстуры: игроки с одинаковым скином делят запись, а смена
+ * скина даёт новый хеш и сама "инвалидирует" старые рендеры.
+ *
+ * @param texture  хеш текстуры скина
+ * @param cape     хеш текстуры плаща, если он участвует в рендере; иначе null
+ * @param endpoint семейство рендера: avatar, body, iso, atlas; skin и cape - сама текстура,
+ *                 перекодированная в WebP (size 0)
+ * @param part     часть/вид внутри семейства (HEAD/BODY/FULL, front/back); null - нет
+ * @param pose     поза (stand/walk); null - у рендера нет поз
+ * @param slim     итоговая модель; null - по эвристике текстуры
+ * @param format   кодировка; null - рендер кодирует себя сам (анимации, формат - в endpoint)
+ */
+public record RenderKey(String texture, String cape, String endpoint, String part,
+                        int size, double yaw, double pitch, String pose, Boolean slim, ImageFormat format) {
+
+    /**
+     * Ревизия рендеров: поднимать при любом изменении картинки на тех же
+     * параметрах, иначе браузеры так и будут получать 304 на старый рендер.
+     */
+    private static final int REVISION = 1;
+
+    /**
+     * Сильный ETag: одинаковый ключ - байт в байт одинаковая картинка. Считается
+     * до декодирования и рендера, поэтому по нему можно ответить 304 сразу.
+     */
+    public String etag() {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((REVISION + ":" + this).getBytes(StandardCharsets.UTF_8));
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
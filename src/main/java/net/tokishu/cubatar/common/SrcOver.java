@@ -0,0 +1,38 @@
+package net.tokishu.cubatar.common;
+
+/**
+ * SrcOver непремультиплицированных ARGB-пикселей с округлениями таблиц
+ * mul8/div8 Java2D. Все растеризаторы в обход Graphics2D (иконки, грани,
+ * таблицы текселей, изометрия) смешивают через него, иначе полупрозрачные
+ * пиксели расходились бы с Java2D-путём на единицу в канале.
+ */
+public final class SrcOver {
+
+    private SrcOver() {
+    }
+
+    /** src поверх dst. {@code over(0, src)} - полупрозрачный пиксель, прошедший через премультипликацию. */
+    public static int over(int dst, int src) {
+        int sa = src >>> 24, da = mul8(255 - sa, dst >>> 24);
+        int outA = sa + da;
+        int r = mul8(sa, (src >> 16) & 0xFF) + mul8(da, (dst >> 16) & 0xFF);
+        int g = mul8(sa, (src >> 8) & 0xFF) + mul8(da, (dst >> 8) & 0xFF);
+        int b = mul8(sa, src & 0xFF) + mul8(da, dst & 0xFF);
+        if (outA < 255) {
+            r = div8(r, outA);
+            g = div8(g, outA);
+            b = div8(b, outA);
+        }
+        return (outA << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int mul8(int a, int b) {
+        return (int) ((a * 0x10101L * b + (1 << 23)) >>> 24);
+    }
+
+    private static int div8(int v, int a) {
+        if (v >= a) return 255;
+        long step = ((0xFFL << 24) + a / 2) / a;
+        return (int) ((v * step + (1 << 23)) >>> 24);
+    }
+}
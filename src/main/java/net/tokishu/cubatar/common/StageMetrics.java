@@ -0,0 +1,77 @@
+package net.tokishu.cubatar.common;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Время по стадиям обработки запроса - чтобы было видно, куда уходит
+ * латентность: mojang (профиль/UUID, kind = uuid|profile), download
+ * (скачивание текстуры, kind = texture|direct; текстура с хешем в URL
+ * декодируется, пока открыт ответ, и её decode попадает и в download), decode
+ * (kind = png - свой {@code PngDecoder}, imageio - всё, что он не взял),
+ * render (kind = эндпоинт из {@link RenderKey}) и encode (kind = png|webp).
+ * <p>
+ * Все таймеры - {@code cubatar.stage} с тегами stage/kind и гистограммой,
+ * так что в Prometheus p50/p99 считаются через histogram_quantile. Плюс
+ * размеры готовых рендеров: запрошенный size и закодированные байты (PNG,
+ * WebP или анимация) по эндпоинтам.
+ */
+@Component
+public class StageMetrics {
+
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DistributionSummary[]> sizes = new ConcurrentHashMap<>();
+
+    public StageMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> T time(String stage, String kind, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, kind, start);
+        }
+    }
+
+    /** Для кода с checked-исключениями: start = {@link System#nanoTime()} в начале стадии. */
+    public void record(String stage, String kind, long start) {
+        timer(stage, kind).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /** Размер свежего рендера: параметр size и вес в том формате, в котором он закеширован и отдан. */
+    public void rendered(String endpoint, int size, int bytes) {
+        DistributionSummary[] summaries = sizes.computeIfAbsent(endpoint, e -> new DistributionSummary[]{
+                DistributionSummary.builder("cubatar.render.size")
+                        .description("Requested render size parameter")
+                        .tag("endpoint", e)
+                        .publishPercentileHistogram()
+                        .register(registry),
+                DistributionSummary.builder("cubatar.render.bytes")
+                        .description("Encoded render size")
+                        .baseUnit("bytes")
+                        .tag("endpoint", e)
+                        .publishPercentileHistogram()
+                        .register(registry)
+        });
+        summaries[0].record(size);
+        summaries[1].record(bytes);
+    }
+
+    private Timer timer(String stage, String kind) {
+        return timers.computeIfAbsent(stage + ':' + kind, k -> Timer.builder("cubatar.stage")
+                .description("Time spent per request-processing stage")
+                .tag("stage", stage)
+                .tag("kind", kind)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -0,0 +1,201 @@
+package net.tokishu.cubatar.common;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Рендер фиксированного ракурса как таблица: для каждого пикселя - список
+ * текселей скина (или плаща), которые в него попадают, в порядке отрисовки
+ * от дальнего к ближнему, с затемнением и числом прогонов через
+ * премультипликацию. Таблица зависит от ракурса, размера, модели и набора
+ * вторых слоёв, но не от пикселей скина; рендер любого скина по ней - один
+ * проход по {@code int[]} без геометрии, матриц и Java2D.
+ * <p>
+ * Пиксель собирается так же, как его рисовал бы painter's algorithm:
+ * ближайший непрозрачный тексель, поверх него SrcOver (с округлениями
+ * Java2D) всех более близких полупрозрачных, от дальних к ближним.
+ * <p>
+ * Хранение - CSR: {@code start[p]..start[p+1]} - записи пикселя p в
+ * {@code entries}, запись упакована в int (см. {@link Builder#add}).
+ * Ближайшая запись каждого пикселя продублирована в плотном {@code nearest}:
+ * обычно она непрозрачна, и рендер читает только его, не прогоняя через
+ * кеш процессора весь CSR.
+ * Таблицы общие и неизменяемые, кешируются по ключу вызывающего с
+ * ограничением по байтам.
+ */
+public final class TexelLut {
+
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int TEXEL_BITS = 24;
+    private static final int TEXEL_MASK = (1 << TEXEL_BITS) - 1;
+    private static final int SHADE_SHIFT = TEXEL_BITS;
+    private static final int MAX_SHADES = 8;
+    private static final int ROUNDTRIP_SHIFT = SHADE_SHIFT + 3;
+    private static final int CAPE = 1 << (ROUNDTRIP_SHIFT + 2);
+    /** Пиксель без записей; старшие биты записи всегда нули, так что с ней не спутать. */
+    private static final int EMPTY = -1;
+
+    private static final Cache<Object, TexelLut> CACHE = Caffeine.newBuilder()
+            .maximumWeight(MAX_BYTES)
+            .weigher((Object key, TexelLut lut) -> lut.weight())
+            .build();
+
+    private final int width;
+    private final int height;
+    private final int[] start;
+    private final int[] entries;
+    private final int[] nearest;
+    /** Затемнённый канал: shaded[shade * 256 + c] = (int) (c * shade), как в Java2D-пути. */
+    private final byte[] shaded;
+
+    private TexelLut(int width, int height, int[] start, int[] entries, float[] shades) {
+        this.width = width;
+        this.height = height;
+        this.start = start;
+        this.entries = entries;
+        this.nearest = new int[width * height];
+        for (int p = 0; p < nearest.length; p++) nearest[p] = start[p] == start[p + 1] ? EMPTY : entries[start[p + 1] - 1];
+        this.shaded = new byte[MAX_SHADES * 256];
+        for (int i = 0; i < MAX_SHADES; i++) {
+            for (int c = 0; c < 256; c++) shaded[i * 256 + c] = (byte) (shades[i] >= 1f ? c : (int) (c * shades[i]));
+        }
+    }
+
+    /** Таблица из кеша или собранная build; key должен описывать всё, от чего она зависит. */
+    public static TexelLut cached(Object key, Supplier<TexelLut> build) {
+        return CACHE.get(key, k -> build.get());
+    }
+
+    /** Пиксели картинки построчно с шагом в её ширину: плотный TYPE_INT_ARGB - без копии. */
+    public static int[] texels(BufferedImage image) {
+        int[] shared = PreparedSkin.sharedPixels(image);
+        return shared != null ? shared : image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * Рендер по таблице. skin и cape - пиксели с шагом в ширину текстуры,
+     * для которой таблица собиралась; cape может быть null, если в таблице
+     * нет текселей плаща.
+     */
+    public BufferedImage render(int[] skin, int[] cape) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        int[] nearest = this.nearest;
+        for (int p = 0; p < out.length; p++) {
+            int entry = nearest[p];
+            if (entry == EMPTY) continue;
+            int argb = (entry & CAPE) != 0 ? cape[entry & TEXEL_MASK] : skin[entry & TEXEL_MASK];
+            out[p] = argb >>> 24 == 255 ? shade(argb, entry) : blend(p, skin, cape);
+        }
+        return result;
+    }
+
+    /** Пиксель, ближайший тексель которого не непрозрачен: разбор всех его записей. */
+    private int blend(int p, int[] skin, int[] cape) {
+        int from = start[p];
+        int to = start[p + 1];
+        // Ближайший непрозрачный закрывает всё, что за ним, - ищем его с конца
+        int color = 0;
+        int k = to - 1;
+        for (; k >= from; k--) {
+            int entry = entries[k];
+            int argb = (entry & CAPE) != 0 ? cape[entry & TEXEL_MASK] : skin[entry & TEXEL_MASK];
+            if (argb >>> 24 == 255) {
+                color = shade(argb, entry);
+                break;
+            }
+        }
+        // Ближе него - только полупрозрачные и пустые
+        for (int j = k + 1; j < to; j++) {
+            int entry = entries[j];
+            int argb = (entry & CAPE) != 0 ? cape[entry & TEXEL_MASK] : skin[entry & TEXEL_MASK];
+            if (argb >>> 24 == 0) continue;
+            for (int r = (entry >>> ROUNDTRIP_SHIFT) & 3; r > 0; r--) argb = SrcOver.over(0, argb);
+            color = SrcOver.over(color, shade(argb, entry));
+        }
+        return color;
+    }
+
+    private int shade(int argb, int entry) {
+        int table = ((entry >>> SHADE_SHIFT) & (MAX_SHADES - 1)) << 8;
+        int r = shaded[table | ((argb >> 16) & 0xFF)] & 0xFF;
+        int g = shaded[table | ((argb >> 8) & 0xFF)] & 0xFF;
+        int b = shaded[table | (argb & 0xFF)] & 0xFF;
+        return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** Сколько байт кучи держит таблица. */
+    public int weight() {
+        return (int) Math.min(Integer.MAX_VALUE, 4L * (start.length + entries.length + nearest.length) + shaded.length + 64);
+    }
+
+    // ── Сборка ───────────────────────────────────────────────────────────
+
+    /** Собирает таблицу из записей, пришедших в порядке отрисовки (от дальних слоёв к ближним). */
+    public static final class Builder {
+
+        private final int width;
+        private final int height;
+        private int[] pixels = new int[1024];
+        private int[] packed = new int[1024];
+        private int size;
+        private final float[] shades = new float[MAX_SHADES];
+        private int shadeCount;
+
+        public Builder(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Пиксель pixel (y * width + x) получает тексель texel (y * ширина
+         * текстуры + x) скина или, при cape, плаща. roundtrips - сколько раз
+         * полупрозрачный тексель прошёл SrcOver на прозрачный холст (отражение,
+         * масштаб в промежуточную картинку), до затемнения shade.
+         */
+        public void add(int pixel, int texel, boolean cape, int roundtrips, float shade) {
+            if (texel < 0 || texel > TEXEL_MASK) throw new IllegalArgumentException("Texel index out of range: " + texel);
+            if (size == pixels.length) {
+                pixels = Arrays.copyOf(pixels, size * 2);
+                packed = Arrays.copyOf(packed, size * 2);
+            }
+            pixels[size] = pixel;
+            packed[size] = texel | shadeIndex(shade) << SHADE_SHIFT | roundtrips << ROUNDTRIP_SHIFT | (cape ? CAPE : 0);
+            size++;
+        }
+
+        private int shadeIndex(float shade) {
+            for (int i = 0; i < shadeCount; i++) {
+                if (shades[i] == shade) return i;
+            }
+            if (shadeCount == MAX_SHADES) throw new IllegalStateException("Too many distinct shades");
+            shades[shadeCount] = shade;
+            return shadeCount++;
+        }
+
+        public TexelLut build() {
+            // Устойчивая сортировка подсчётом по пикселю: порядок отрисовки внутри пикселя сохраняется
+            int[] start = new int[width * height + 1];
+            for (int i = 0; i < size; i++) start[pixels[i] + 1]++;
+            for (int p = 0; p < width * height; p++) start[p + 1] += start[p];
+            int[] next = Arrays.copyOf(start, width * height);
+            int[] entries = new int[size];
+            for (int i = 0; i < size; i++) entries[next[pixels[i]]++] = packed[i];
+            return new TexelLut(width, height, start, entries, Arrays.copyOf(shades, MAX_SHADES));
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package net.tokishu.cubatar.common;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Кодировщик lossless WebP (VP8L) без нативных библиотек - под то, чем
+ * бывают рендеры: пиксель-арт с большими прозрачными полями, повторяющимися
+ * строками и небольшим числом цветов.
+ * <p>
+ * Что используется из формата:
+ * <ul>
+ *   <li>палитра (color indexing), если цветов не больше 256; при 16 и меньше
+ *   индексы пакуются по 2/4/8 в пиксель - у иконок и голов это обычный случай;</li>
+ *   <li>иначе subtract green и кеш цветов;</li>
+ *   <li>LZ77 с 2D-кодами расстояний: совпадение со строкой выше или с
+ *   соседом слева стоит пару бит;</li>
+ *   <li>по одной группе префиксных кодов на всю картинку (без meta prefix codes).</li>
+ * </ul>
+ * Предсказатели (predictor transform) не используются: на плоских заливках
+ * пиксель-арта LZ77 по строке выше выигрывает у них сам. Картинка
+ * восстанавливается точно, включая RGB под нулевой альфой.
+ */
+public final class WebpEncoder {
+
+    private static final int MAX_SIZE = 1 << 14;
+
+    private static final int NUM_LITERALS = 256;
+    private static final int NUM_LENGTH_CODES = 24;
+    private static final int NUM_DISTANCE_CODES = 40;
+    private static final int MAX_LENGTH = 4096;
+    private static final int MIN_LENGTH = 3;
+    private static final int MAX_CODE_LENGTH = 15;
+    private static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+
+    private static final int TRANSFORM_SUBTRACT_GREEN = 2;
+    private static final int TRANSFORM_COLOR_INDEXING = 3;
+
+    private static final int CACHE_BITS = 10;
+
+    private static final int HASH_BITS = 15;
+    private static final int MAX_CHAIN = 16;
+
+    /** Порядок длин в коде длин кодов - из спецификации. */
+    private static final int[] CODE_LENGTH_ORDER = {17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    /** 2D-коды расстояний 1..120: пары (dx, dy), расстояние = dx + dy * ширина. */
+    private static final int[] PLANE = {
+            0, 1, 1, 0, 1, 1, -1, 1, 0, 2, 2, 0, 1, 2, -1, 2, 2, 1, -2, 1, 2, 2, -2, 2, 0, 3, 3, 0, 1, 3, -1, 3,
+            3, 1, -3, 1, 2, 3, -2, 3, 3, 2, -3, 2, 0, 4, 4, 0, 1, 4, -1, 4, 4, 1, -4, 1, 3, 3, -3, 3, 2, 4, -2, 4,
+            4, 2, -4, 2, 0, 5, 3, 4, -3, 4, 4, 3, -4, 3, 5, 0, 1, 5, -1, 5, 5, 1, -5, 1, 2, 5, -2, 5, 5, 2, -5, 2,
+            4, 4, -4, 4, 3, 5, -3, 5, 5, 3, -5, 3, 0, 6, 6, 0, 1, 6, -1, 6, 6, 1, -6, 1, 2, 6, -2, 6, 6, 2, -6, 2,
+            4, 5, -4, 5, 5, 4, -5, 4, 3, 6, -3, 6, 6, 3, -6, 3, 0, 7, 7, 0, 1, 7, -1, 7, 5, 5, -5, 5, 7, 1, -7, 1,
+            4, 6, -4, 6, 6, 4, -6, 4, 2, 7, -2, 7, 7, 2, -7, 2, 3, 7, -3, 7, 7, 3, -7, 3, 5, 6, -5, 6, 6, 5, -6, 5,
+            8, 0, 4, 7, -4, 7, 7, 4, -7, 4, 8, 1, 8, 2, 6, 6, -6, 6, 8, 3, 5, 7, -5, 7, 7, 5, -7, 5, 8, 4, 6, 7,
+            -6, 7, 7, 6, -7, 6, 8, 5, 7, 7, -7, 7, 8, 6, 8, 7};
+
+    private WebpEncoder() {}
+
+    /** Файл WebP (RIFF) с картинкой без потерь. */
+    public static byte[] encode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("WebP is limited to " + MAX_SIZE + "px, got " + width + "x" + height);
+        }
+        int[] shared = PreparedSkin.sharedPixels(image);
+        int[] argb = shared != null ? shared : image.getRGB(0, 0, width, height, null, 0, width);
+
+        BitWriter out = new BitWriter(argb.length / 2 + 64);
+        out.bits(0x2F, 8);
+        out.bits(width - 1, 14);
+        out.bits(height - 1, 14);
+        out.bits(usesAlpha(argb) ? 1 : 0, 1);
+        out.bits(0, 3);
+
+        int[] palette = palette(argb);
+        if (palette != null) {
+            out.bits(1, 1);
+            out.bits(TRANSFORM_COLOR_INDEXING, 2);
+            out.bits(palette.length - 1, 8);
+            int[] delta = new int[palette.length];
+            for (int i = 0; i < palette.length; i++) delta[i] = i == 0 ? palette[0] : subtract(palette[i], palette[i - 1]);
+            writeImage(out, delta, palette.length, false, 0);
+
+            int xBits = palette.length <= 2 ? 3 : palette.length <= 4 ? 2 : palette.length <= 16 ? 1 : 0;
+            int packedWidth = (width + (1 << xBits) - 1) >> xBits;
+            out.bits(0, 1);
+            writeImage(out, pack(argb, width, height, palette, xBits, packedWidth), packedWidth, true, 0);
+        } else {
+            out.bits(1, 1);
+            out.bits(TRANSFORM_SUBTRACT_GREEN, 2);
+            int[] pixels = new int[argb.length];
+            for (int i = 0; i < argb.length; i++) {
+                int p = argb[i];
+                int green = (p >> 8) & 0xFF;
+                pixels[i] = (p & 0xFF00FF00) | ((((p >> 16) - green) & 0xFF) << 16) | ((p - green) & 0xFF);
+            }
+            out.bits(0, 1);
+            writeImage(out, pixels, width, true, CACHE_BITS);
+        }
+        return riff(out.toByteArray());
+    }
+
+    private static boolean usesAlpha(int[] argb) {
+        for (int p : argb) {
+            if (p >>> 24 != 0xFF) return true;
+        }
+        return false;
+    }
+
+    /** Цвета картинки по возрастанию, если их не больше 256; иначе null. */
+    private static int[] palette(int[] argb) {
+        // Открытая адресация на 512 слотов: 0 - свободно, поэтому сам цвет 0 учитываем отдельно
+        int[] slots = new int[512];
+        boolean zero = false;
+        int count = 0;
+        int last = 0;
+        boolean hasLast = false;
+        for (int p : argb) {
+            if (hasLast && p == last) continue;
+            last = p;
+            hasLast = true;
+            if (p == 0) {
+                if (!zero) {
+                    zero = true;
+                    if (++count > 256) return null;
+                }
+                continue;
+            }
+            int slot = (p * 0x9E3779B1) >>> 23;
+            while (slots[slot] != 0 && slots[slot] != p) slot = (slot + 1) & 511;
+            if (slots[slot] == 0) {
+                slots[slot] = p;
+                if (++count > 256) return null;
+            }
+        }
+        int[] palette = new int[count];
+        int n = 0;
+        if (zero) palette[n++] = 0;
+        for (int p : slots) {
+            if (p != 0) palette[n++] = p;
+        }
+        Arrays.sort(palette);
+        return palette;
+    }
+
+    /** Индексы палитры в зелёном канале, по 1 << xBits в пикселе, первый - в младших битах. */
+    private static int[] pack(int[] argb, int width, int height, int[] palette, int xBits, int packedWidth) {
+        int bitsPerIndex = 8 >> xBits;
+        int perPixel = 1 << xBits;
+        int[] packed = new int[packedWidth * height];
+        int last = palette[0];
+        int lastIndex = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int p = argb[y * width + x];
+                if (p != last) {
+                    last = p;
+                    lastIndex = Arrays.binarySearch(palette, p);
+                }
+                packed[y * packedWidth + (x >> xBits)] |= lastIndex << (bitsPerIndex * (x & (perPixel - 1)));
+            }
+        }
+        for (int i = 0; i < packed.length; i++) packed[i] = 0xFF000000 | (packed[i] << 8);
+        return packed;
+    }
+
+    private static int subtract(int a, int b) {
+        int alpha = ((a >>> 24) - (b >>> 24)) & 0xFF;
+        int red = ((a >> 16) - (b >> 16)) & 0xFF;
+        int green = ((a >> 8) - (b >> 8)) & 0xFF;
+        int blue = (a - b) & 0xFF;
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    // ── Энтропийно закодированная картинка ───────────────────────────────
+
+    /**
+     * Картинка: бит кеша цветов, (у главной) бит meta prefix codes, пять
+     * префиксных кодов и поток - литералы, ссылки LZ77 и попадания в кеш.
+     */
+    private static void writeImage(BitWriter out, int[] pixels, int width, boolean main, int cacheBits) {
+        if (cacheBits > 0) {
+            out.bits(1, 1);
+            out.bits(cacheBits, 4);
+        } else {
+            out.bits(0, 1);
+        }
+        if (main) out.bits(0, 1);
+
+        Tokens tokens = tokenize(pixels, width, cacheBits);
+        int greenSize = NUM_LITERALS + NUM_LENGTH_CODES + (cacheBits > 0 ? 1 << cacheBits : 0);
+        int[] green = new int[greenSize];
+        int[] red = new int[NUM_LITERALS];
+        int[] blue = new int[NUM_LITERALS];
+        int[] alpha = new int[NUM_LITERALS];
+        int[] distance = new int[NUM_DISTANCE_CODES];
+        for (int i = 0; i < tokens.size; i++) {
+            int a = tokens.a[i];
+            switch (tokens.kind[i]) {
+                case Tokens.LITERAL -> {
+                    green[(a >> 8) & 0xFF]++;
+                    red[(a >> 16) & 0xFF]++;
+                    blue[a & 0xFF]++;
+                    alpha[a >>> 24]++;
+                }
+                case Tokens.CACHE -> green[NUM_LITERALS + NUM_LENGTH_CODES + a]++;
+                default -> {
+                    green[NUM_LITERALS + prefix(a)]++;
+                    distance[prefix(tokens.b[i])]++;
+                }
+            }
+        }
+
+        Code greenCode = Code.of(green);
+        Code redCode = Code.of(red);
+        Code blueCode = Code.of(blue);
+        Code alphaCode = Code.of(alpha);
+        Code distanceCode = Code.of(distance);
+        for (Code code : new Code[]{greenCode, redCode, blueCode, alphaCode, distanceCode}) code.store(out);
+
+        for (int i = 0; i < tokens.size; i++) {
+            int a = tokens.a[i];
+            switch (tokens.kind[i]) {
+                case Tokens.LITERAL -> {
+                    greenCode.write(out, (a >> 8) & 0xFF);
+                    redCode.write(out, (a >> 16) & 0xFF);
+                    blueCode.write(out, a & 0xFF);
+                    alphaCode.write(out, a >>> 24);
+                }
+                case Tokens.CACHE -> greenCode.write(out, NUM_LITERALS + NUM_LENGTH_CODES + a);
+                default -> {
+                    greenCode.write(out, NUM_LITERALS + prefix(a));
+                    writeExtra(out, a);
+                    int d = tokens.b[i];
+                    distanceCode.write(out, prefix(d));
+                    writeExtra(out, d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Поток токенов: жадный LZ77 - на каждом пикселе пробуем соседа слева,
+     * строку выше и до {@link #MAX_CHAIN} прошлых вхождений той же пары
+     * пикселей; совпадение от {@link #MIN_LENGTH} - ссылка, иначе литерал
+     * или попадание в кеш цветов.
+     */
+    private static Tokens tokenize(int[] pixels, int width, int cacheBits) {
+        int n = pixels.length;
+        Tokens tokens = new Tokens(Math.max(16, n / 4));
+        int[] planeCodes = planeCodes(width);
+        int[] head = new int[1 << HASH_BITS];
+        Arrays.fill(head, -1);
+        int[] chain = new int[n];
+        int[] cache = cacheBits > 0 ? new int[1 << cacheBits] : null;
+        int cacheShift = 32 - cacheBits;
+
+        int i = 0;
+        while (i < n) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            if (i + 1 < n) {
+                int limit = Math.min(MAX_LENGTH, n - i);
+                if (i >= 1) {
+                    bestLength = match(pixels, i, i - 1, limit);
+                    bestDistance = 1;
+                }
+                if (i >= width && bestLength < limit) {
+                    int length = match(pixels, i, i - width, limit);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = width;
+                    }
+                }
+                int hash = hash(pixels[i], pixels[i + 1]);
+                int steps = 0;
+                for (int j = head[hash]; j >= 0 && steps < MAX_CHAIN && bestLength < limit; j = chain[j], steps++) {
+                    if (i - j == 1 || i - j == width) continue;
+                    int length = match(pixels, i, j, limit);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = i - j;
+                    }
+                }
+            }
+
+            int advance;
+            if (bestLength >= MIN_LENGTH) {
+                int code = bestDistance < planeCodes.length && planeCodes[bestDistance] != 0
+                        ? planeCodes[bestDistance]
+                        : bestDistance + 120;
+                tokens.add(Tokens.COPY, bestLength, code);
+                advance = bestLength;
+            } else {
+                int p = pixels[i];
+                if (cache != null) {
+                    int key = (0x1E35A7BD * p) >>> cacheShift;
+                    if (cache[key] == p) tokens.add(Tokens.CACHE, key, 0);
+                    else tokens.add(Tokens.LITERAL, p, 0);
+                } else {
+                    tokens.add(Tokens.LITERAL, p, 0);
+                }
+                advance = 1;
+            }
+            for (int k = i; k < i + advance; k++) {
+                if (cache != null) cache[(0x1E35A7BD * pixels[k]) >>> cacheShift] = pixels[k];
+                if (k + 1 < n) {
+                    int hash = hash(pixels[k], pixels[k + 1]);
+                    chain[k] = head[hash];
+                    head[hash] = k;
+                }
+            }
+            i += advance;
+        }
+        return tokens;
+    }
+
+    private static int match(int[] pixels, int at, int from, int limit) {
+        int length = 0;
+        while (length < limit && pixels[at + length] == pixels[from + length]) length++;
+        return length;
+    }
+
+    private static int hash(int a, int b) {
+        return ((a * 0x9E3779B1) ^ (b * 0x85EBCA6B)) >>> (32 - HASH_BITS);
+    }
+
+    /** Расстояние -> 2D-код (1..120) для этой ширины; 0 - такого кода нет. */
+    private static int[] planeCodes(int width) {
+        int[] codes = new int[8 * width + 9];
+        for (int code = 120; code >= 1; code--) {
+            int distance = PLANE[2 * (code - 1)] + PLANE[2 * (code - 1) + 1] * width;
+            if (distance >= 1) codes[distance] = code;
+        }
+        return codes;
+    }
+
+    /** Префиксный код длины или расстояния (значение от 1). */
+    private static int prefix(int value) {
+        int v = value - 1;
+        if (v < 4) return v;
+        int highest = 31 - Integer.numberOfLeadingZeros(v);
+        return 2 * highest + ((v >> (highest - 1)) & 1);
+    }
+
+    private static void writeExtra(BitWriter out, int value) {
+        int v = value - 1;
+        if (v < 4) return;
+        int extraBits = 31 - Integer.numberOfLeadingZeros(v) - 1;
+        out.bits(v & ((1 << extraBits) - 1), extraBits);
+    }
+
+    private static byte[] riff(byte[] vp8l) {
+        int padded = vp8l.length + (vp8l.length & 1);
+        byte[] file = new byte[20 + padded];
+        ascii(file, 0, "RIFF");
+        littleEndian(file, 4, 12 + padded);
+        ascii(file, 8, "WEBP");
+        ascii(file, 12, "VP8L");
+        littleEndian(file, 16, vp8l.length);
+        System.arraycopy(vp8l, 0, file, 20, vp8l.length);
+        return file;
+    }
+
+    private static void ascii(byte[] b, int at, String s) {
+        for (int i = 0; i < 4; i++) b[at + i] = (byte) s.charAt(i);
+    }
+
+    private static void littleEndian(byte[] b, int at, int v) {
+        b[at] = (byte) v;
+        b[at + 1] = (byte) (v >>> 8);
+        b[at + 2] = (byte) (v >>> 16);
+        b[at + 3] = (byte) (v >>> 24);
+    }
+
+    // ── Токены ───────────────────────────────────────────────────────────
+
+    /** LITERAL: a - ARGB; CACHE: a - индекс в кеше; COPY: a - длина, b - код расстояния. */
+    private static final class Tokens {
+        static final byte LITERAL = 0;
+        static final byte CACHE = 1;
+        static final byte COPY = 2;
+
+        byte[] kind;
+        int[] a;
+        int[] b;
+        int size;
+
+        Tokens(int capacity) {
+            kind = new byte[capacity];
+            a = new int[capacity];
+            b = new int[capacity];
+        }
+
+        void add(byte k, int first, int second) {
+            if (size == kind.length) {
+                kind = Arrays.copyOf(kind, size * 2);
+                a = Arrays.copyOf(a, size * 2);
+                b = Arrays.copyOf(b, size * 2);
+            }
+            kind[size] = k;
+            a[size] = first;
+            b[size] = second;
+            size++;
+        }
+    }
+
+    // ── Префиксные коды ──────────────────────────────────────────────────
+
+    /** Канонический код Хаффмана алфавита: длины для заголовка и коды для потока. */
+    private static final class Code {
+        final int[] lengths;
+        final int[] codes;
+        /** Один используемый символ декодер читает за 0 бит - и пишем его так же. */
+        final boolean single;
+
+        private Code(int[] lengths) {
+            this.lengths = lengths;
+            this.codes = canonical(lengths);
+            int used = 0;
+            for (int length : lengths) {
+                if (length > 0) used++;
+            }
+            this.single = used <= 1;
+        }
+
+        static Code of(int[] frequencies) {
+            return new Code(lengths(frequencies, MAX_CODE_LENGTH));
+        }
+
+        void write(BitWriter out, int symbol) {
+            if (!single) out.bits(codes[symbol], lengths[symbol]);
+        }
+
+        /** Заголовок кода: простой (1-2 символа меньше 256) или полный через код длин. */
+        void store(BitWriter out) {
+            int first = -1, second = -1, used = 0;
+            for (int s = 0; s < lengths.length; s++) {
+                if (lengths[s] == 0) continue;
+                if (used == 0) first = s;
+                else if (used == 1) second = s;
+                used++;
+            }
+            if (used == 0 || (used <= 2 && first < 256 && second < 256)) {
+                out.bits(1, 1);
+                out.bits(Math.max(0, used - 1), 1);
+                int symbol = Math.max(0, first);
+                if (symbol < 2) {
+                    out.bits(0, 1);
+                    out.bits(symbol, 1);
+                } else {
+                    out.bits(1, 1);
+                    out.bits(symbol, 8);
+                }
+                if (used == 2) out.bits(second, 8);
+                return;
+            }
+
+            // Длины - токенами 0..15, 16 (повтор прошлой ненулевой 3-6 раз), 17/18 (нули 3-10 / 11-138)
+            int[] token = new int[lengths.length];
+            int[] extra = new int[lengths.length];
+            int count = 0;
+            int previous = 8;
+            for (int i = 0; i < lengths.length; ) {
+                int value = lengths[i];
+                int run = 1;
+                while (i + run < lengths.length && lengths[i + run] == value) run++;
+                i += run;
+                if (value == 0) {
+                    while (run >= 11) {
+                        int r = Math.min(run, 138);
+                        token[count] = 18;
+                        extra[count++] = r - 11;
+                        run -= r;
+                    }
+                    if (run >= 3) {
+                        token[count] = 17;
+                        extra[count++] = run - 3;
+                        run = 0;
+                    }
+                    while (run-- > 0) token[count++] = 0;
+                } else {
+                    if (value != previous) {
+                        token[count++] = value;
+                        previous = value;
+                        run--;
+                    }
+                    while (run >= 3) {
+                        int r = Math.min(run, 6);
+                        token[count] = 16;
+                        extra[count++] = r - 3;
+                        run -= r;
+                    }
+                    while (run-- > 0) token[count++] = value;
+                }
+            }
+
+            int[] frequencies = new int[19];
+            for (int i = 0; i < count; i++) frequencies[token[i]]++;
+            Code lengthCode = new Code(lengths(frequencies, MAX_CODE_LENGTH_CODE_LENGTH));
+            int stored = 19;
+            while (stored > 4 && lengthCode.lengths[CODE_LENGTH_ORDER[stored - 1]] == 0) stored--;
+
+            out.bits(0, 1);
+            out.bits(stored - 4, 4);
+            for (int i = 0; i < stored; i++) out.bits(lengthCode.lengths[CODE_LENGTH_ORDER[i]], 3);
+            out.bits(0, 1); // max_symbol не задан: длины идут для всего алфавита
+            for (int i = 0; i < count; i++) {
+                lengthCode.write(out, token[i]);
+                switch (token[i]) {
+                    case 16 -> out.bits(extra[i], 2);
+                    case 17 -> out.bits(extra[i], 3);
+                    case 18 -> out.bits(extra[i], 7);
+                    default -> {}
+                }
+            }
+        }
+
+        /**
+         * Длины кодов Хаффмана не длиннее limit. Если дерево вышло глубже,
+         * редкие частоты подтягиваются вверх и дерево строится заново.
+         */
+        static int[] lengths(int[] frequencies, int limit) {
+            int n = frequencies.length;
+            int[] lengths = new int[n];
+            int used = 0, only = 0;
+            for (int s = 0; s < n; s++) {
+                if (frequencies[s] > 0) {
+                    used++;
+                    only = s;
+                }
+            }
+            if (used == 0) return lengths;
+            if (used == 1) {
+                lengths[only] = 1;
+                return lengths;
+            }
+
+            int floor = 1;
+            while (true) {
+                // Узлы 0..n-1 - листья, дальше - внутренние; в очереди (вес << 32 | узел)
+                int[] parent = new int[2 * n];
+                PriorityQueue<Long> queue = new PriorityQueue<>();
+                for (int s = 0; s < n; s++) {
+                    if (frequencies[s] > 0) queue.add((long) Math.max(frequencies[s], floor) << 32 | s);
+                }
+                int next = n;
+                while (queue.size() > 1) {
+                    long a = queue.poll();
+                    long b = queue.poll();
+                    parent[(int) a] = next;
+                    parent[(int) b] = next;
+                    queue.add(((a >>> 32) + (b >>> 32)) << 32 | next);
+                    next++;
+                }
+                int root = next - 1;
+                int deepest = 0;
+                for (int s = 0; s < n; s++) {
+                    if (frequencies[s] == 0) continue;
+                    int depth = 0;
+                    for (int node = s; node != root; node = parent[node]) depth++;
+                    lengths[s] = depth;
+                    deepest = Math.max(deepest, depth);
+                }
+                if (deepest <= limit) return lengths;
+                floor *= 2;
+            }
+        }
+
+        /** Канонические коды по длинам, с обратным порядком бит - VP8L читает код с младшего бита. */
+        static int[] canonical(int[] lengths) {
+            int[] count = new int[MAX_CODE_LENGTH + 1];
+            for (int length : lengths) count[length]++;
+            count[0] = 0;
+            int[] next = new int[MAX_CODE_LENGTH + 2];
+            int code = 0;
+            for (int bits = 1; bits <= MAX_CODE_LENGTH; bits++) {
+                code = (code + count[bits - 1]) << 1;
+                next[bits] = code;
+            }
+            int[] codes = new int[lengths.length];
+            for (int s = 0; s < lengths.length; s++) {
+                int length = lengths[s];
+                if (length == 0) continue;
+                codes[s] = Integer.reverse(next[length]++) >>> (32 - length);
+            }
+            return codes;
+        }
+    }
+
+    // ── Биты ─────────────────────────────────────────────────────────────
+
+    /** Поток бит VP8L: младшие биты значения идут первыми. */
+    private static final class BitWriter {
+        private byte[] buffer;
+        private int size;
+        private long accumulator;
+        private int pending;
+
+        BitWriter(int capacity) {
+            buffer = new byte[Math.max(64, capacity)];
+        }
+
+        void bits(int value, int count) {
+            accumulator |= (value & ((1L << count) - 1)) << pending;
+            pending += count;
+            while (pending >= 8) {
+                if (size == buffer.length) buffer = Arrays.copyOf(buffer, size * 2);
+                buffer[size++] = (byte) accumulator;
+                accumulator >>>= 8;
+                pending -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (pending > 0) bits(0, 8 - pending);
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+}
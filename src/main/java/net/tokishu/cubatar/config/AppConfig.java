@@ -1,35 +1,161 @@
 package net.tokishu.cubatar.config;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import net.tokishu.cubatar.module.resolve.MojangGateway;
+import net.tokishu.cubatar.module.resolve.UpstreamMetrics;
+import net.tokishu.cubatar.module.resolve.UpstreamRateLimiter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
 import tools.jackson.databind.ObjectMapper;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @Configuration
 @EnableCaching
+@EnableScheduling
 public class AppConfig {
 
+    @Value("${cubatar.cache.profiles.refresh-after}")
+    private Duration profileRefreshAfter;
+
+    @Value("${cubatar.cache.profiles.expire-after}")
+    private Duration profileExpireAfter;
+
+    @Value("${cubatar.cache.profiles.jitter}")
+    private Duration profileJitter;
+
+    @Value("${cubatar.cache.profiles.max-size}")
+    private long profileMaxSize;
+
+    @Value("${cubatar.http.connect-timeout}")
+    private Duration httpConnectTimeout;
+
+    @Value("${cubatar.http.read-timeout}")
+    private Duration httpReadTimeout;
+
+    @Value("${cubatar.http.keep-alive}")
+    private Duration httpKeepAlive;
+
     @Bean
     public ObjectMapper objectMapper() {
         return new ObjectMapper();
     }
 
+    /**
+     * Один JDK HttpClient на всё приложение: он сам держит пул keep-alive
+     * соединений по хостам, а по HTTPS договаривается о HTTP/2 (ALPN) и
+     * мультиплексирует запросы к textures.minecraft.net и sessionserver в
+     * одном соединении. connect-timeout - на установку соединения, read-timeout
+     * - предел на весь вызов, чтобы медленный upstream не держал запрос
+     * бесконечно. Запросы к хостам Mojang проходят через бюджет
+     * {@link UpstreamRateLimiter}, все вызовы считает {@link UpstreamMetrics}.
+     */
     @Bean
-    public RestClient restClient() {
-        return RestClient.create();
+    public RestClient restClient(UpstreamRateLimiter limiter, UpstreamMetrics metrics) {
+        // Пул JDK читает таймаут простоя один раз, при создании первого клиента
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(httpKeepAlive.toSeconds()));
+        }
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(httpConnectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(http);
+        factory.setReadTimeout(httpReadTimeout);
+        return RestClient.builder()
+                .requestFactory(factory)
+                // Первый интерцептор - внешний: лимитер ждёт токен, метрики меряют сам вызов
+                .requestInterceptor(limiter)
+                .requestInterceptor(metrics)
+                .build();
     }
 
+    /**
+     * Кеши профилей Mojang - stale-while-revalidate: запись старше
+     * refresh-after отдаётся как есть, а в фоне перезапрашивается; жёстко
+     * протухает она только через expire-after. Так пользователь не ждёт
+     * Mojang на популярных игроках, а записи, набранные одним прогревом,
+     * не истекают разом: и обновление, и жёсткое истечение размазаны jitter'ом.
+     * Если фоновый запрос упал, остаётся старое значение.
+     */
     @Bean
-    public CaffeineCacheManager cacheManager() {
-        CaffeineCacheManager manager = new CaffeineCacheManager("uuids", "skins");
-        manager.setCaffeine(Caffeine.newBuilder()
-                .expireAfterWrite(1, TimeUnit.HOURS) // Кешируем на час
-                .maximumSize(10_000));
+    public CaffeineCacheManager cacheManager(ObjectProvider<MojangGateway> gateway) {
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        manager.setCacheNames(List.of());
+        manager.registerCustomCache("uuids", profileCache(key -> gateway.getObject().fetchUUID((String) key)));
+        manager.registerCustomCache("skins", profileCache(key -> gateway.getObject().fetchSkin((UUID) key)));
         return manager;
     }
-}
\ No newline at end of file
+
+    private LoadingCache<Object, Object> profileCache(Function<Object, Object> fetch) {
+        return Caffeine.newBuilder()
+                .maximumSize(profileMaxSize)
+                // Попадания/промахи/вытеснения uuids и skins Actuator снимает сам
+                .recordStats()
+                // Фоновые обновления - по виртуальному потоку на запись
+                .executor(task -> Thread.ofVirtual().name("profile-refresh").start(task))
+                .refreshAfterWrite(profileRefreshAfter)
+                .expireAfter(new JitteredExpiry(profileExpireAfter, profileJitter))
+                .build(new RefreshAheadLoader(fetch, profileJitter));
+    }
+
+    /**
+     * Загрузчик только для фоновых обновлений. load() всегда null: промахи
+     * обрабатывает сам {@code @Cacheable} (null - "нет записи", и Spring
+     * вызывает метод). Обновление откладывается на случайную долю jitter,
+     * чтобы пачка одновременно набранных записей не шла в Mojang залпом.
+     */
+    private record RefreshAheadLoader(Function<Object, Object> fetch, Duration jitter)
+            implements CacheLoader<Object, Object> {
+
+        @Override
+        public Object load(Object key) {
+            return null;
+        }
+
+        @Override
+        public CompletableFuture<Object> asyncReload(Object key, Object oldValue, Executor executor) {
+            long delay = ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+            return CompletableFuture.supplyAsync(() -> fetch.apply(key),
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor));
+        }
+    }
+
+    /** Жёсткое истечение: expire-after плюс случайная добавка до jitter, заново при каждом обновлении. */
+    private record JitteredExpiry(Duration expireAfter, Duration jitter) implements Expiry<Object, Object> {
+
+        @Override
+        public long expireAfterCreate(Object key, Object value, long currentTime) {
+            return expireAfter.toNanos() + ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1);
+        }
+
+        @Override
+        public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.tokishu.cubatar.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import net.tokishu.cubatar.common.FaceTextures;
+import net.tokishu.cubatar.module.resolve.SingleFlight;
+import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.UpstreamRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Метрики поверх счётчиков, которые компоненты ведут сами: склейка
+ * одновременных вызовов в {@link SingleFlight} и состояние корзин
+ * {@link UpstreamRateLimiter}, плюс статический кеш {@link FaceTextures}. Стадии,
+ * кеши-бины и upstream-вызовы пишутся на месте - см. StageMetrics,
+ * TextureCache/RenderCache и UpstreamMetrics.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder singleFlightMetrics(SkinResolverService resolver) {
+        return registry -> {
+            for (SingleFlight<?, ?> flight : resolver.flights()) {
+                FunctionCounter.builder("cubatar.singleflight.calls", flight, SingleFlight::calls)
+                        .description("Calls entering single-flight")
+                        .tag("flight", flight.name())
+                        .register(registry);
+                FunctionCounter.builder("cubatar.singleflight.collapsed", flight, SingleFlight::collapsed)
+                        .description("Calls served by another caller's in-flight request")
+                        .tag("flight", flight.name())
+                        .register(registry);
+                Gauge.builder("cubatar.singleflight.inflight", flight, SingleFlight::inFlight)
+                        .description("Keys with a call in progress")
+                        .tag("flight", flight.name())
+                        .register(registry);
+            }
+        };
+    }
+
+    /** FaceTextures - не бин: лимит из конфига ему выставляется здесь же, до первых рендеров. */
+    @Bean
+    public MeterBinder faceTextureMetrics(@Value("${cubatar.cache.faces.max-bytes}") long maxBytes) {
+        FaceTextures.maxBytes(maxBytes);
+        return registry -> CaffeineCacheMetrics.monitor(registry, FaceTextures.cache(), "face-textures");
+    }
+
+    @Bean
+    public MeterBinder upstreamLimitMetrics(UpstreamRateLimiter limiter) {
+        return registry -> {
+            for (String host : limiter.hosts()) {
+                Gauge.builder("cubatar.upstream.permits", limiter, l -> l.permits(host))
+                        .description("Tokens currently available for the host")
+                        .tag("host", host)
+                        .register(registry);
+                Gauge.builder("cubatar.upstream.queued", limiter, l -> l.queueDepth(host))
+                        .description("Requests waiting for a token")
+                        .tag("host", host)
+                        .register(registry);
+            }
+        };
+    }
+}
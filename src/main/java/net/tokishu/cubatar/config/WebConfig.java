@@ -1,20 +1,41 @@
 package net.tokishu.cubatar.config;
 
+import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.module.prewarm.web.HotKeyInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 /**
  * Открытый CORS на чтение, как у публичных аватар-сервисов (Crafatar и
  * т.п.) - чтобы скины и рендеры можно было использовать с чужих сайтов в
  * canvas/WebGL (без заголовка cross-origin картинка "заражает" canvas и
- * WebGL отказывается брать её текстурой).
+ * WebGL отказывается брать её текстурой). Пакетные эндпоинты - POST с JSON,
+ * им нужен и preflight на POST.
+ * <p>
+ * Рендер-эндпоинты считаются в {@link HotKeyInterceptor} - по ним прогреваются
+ * кеши при следующем старте.
  */
 @Configuration
+@RequiredArgsConstructor
 public class WebConfig implements WebMvcConfigurer {
 
+    private final HotKeyInterceptor hotKeys;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(hotKeys)
+                .addPathPatterns("/v1/**", "/v2/**")
+                .excludePathPatterns("/v1/status/**", "/v1/batch/**");
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
+        // Первое совпавшее правило побеждает - частное раньше общего
+        registry.addMapping("/v1/batch/**")
+                .allowedOrigins("*")
+                .allowedMethods("POST");
         registry.addMapping("/**")
                 .allowedOrigins("*")
                 .allowedMethods("GET");
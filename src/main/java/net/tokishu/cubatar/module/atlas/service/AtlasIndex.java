@@ -0,0 +1,12 @@
+package net.tokishu.cubatar.module.atlas.service;
+
+import java.util.List;
+
+/**
+ * Раскладка атласа для CSS-спрайтов: сторона клетки, сетка, размеры всей
+ * картинки и позиция каждого игрока (background-position: -x -y).
+ */
+public record AtlasIndex(int tile, int columns, int width, int height, List<Tile> tiles) {
+
+    public record Tile(String input, int x, int y, int w, int h) {}
+}
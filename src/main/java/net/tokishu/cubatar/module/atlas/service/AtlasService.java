@@ -0,0 +1,204 @@
+package net.tokishu.cubatar.module.atlas.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import net.tokishu.cubatar.common.ImageFormat;
+import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
+import net.tokishu.cubatar.module.avatar.util.AvatarGenerator;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer;
+import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntConsumer;
+
+/**
+ * Атлас голов для скорбордов: одна картинка со всеми игроками сеткой плюс
+ * JSON-индекс с координатами клеток - вместо N отдельных {@code <img>}.
+ * <p>
+ * Сетка почти квадратная (ceil(sqrt(n)) колонок), клетки одинаковые, порядок
+ * - порядок players без дубликатов. Раскладка не зависит от скинов, поэтому
+ * индекс считается без единого обращения к Mojang и его можно запрашивать
+ * параллельно с картинкой.
+ * <p>
+ * Игроки резолвятся и рисуются на виртуальных потоках (не больше parallelism
+ * одновременно), каждый - прямо в общий int-растр атласа, в свою клетку:
+ * клетки не пересекаются, так что синхронизация не нужна. Игрок, которого не
+ * удалось резолвить, остаётся прозрачной клеткой. Атлас целиком кешируется
+ * в кеше рендеров, но только если резолвились все - дырку от временной
+ * ошибки Mojang не хочется отдавать час; неполный атлас уходит с
+ * {@code Cache-Control: no-store}, чтобы его не придержал и CDN. Рисуется атлас до обращения к кешу:
+ * в загрузчик кеша уходит только кодирование готовой картинки, а ожидание
+ * потоков клеток остаётся снаружи.
+ */
+@Slf4j
+@Service
+public class AtlasService {
+
+    private static final double ISO_YAW = -45;
+    private static final double ISO_PITCH = 30;
+
+    private final SkinResolverService resolver;
+    private final RenderCache renders;
+    private final PngResponseWriter writer;
+    private final int maxPlayers;
+    private final int maxSize;
+    private final int parallelism;
+
+    public AtlasService(SkinResolverService resolver, RenderCache renders, PngResponseWriter writer,
+                        @Value("${cubatar.atlas.max-players}") int maxPlayers,
+                        @Value("${cubatar.atlas.max-size}") int maxSize,
+                        @Value("${cubatar.batch.parallelism}") int parallelism) {
+        this.resolver = resolver;
+        this.renders = renders;
+        this.writer = writer;
+        this.maxPlayers = maxPlayers;
+        this.maxSize = maxSize;
+        this.parallelism = parallelism;
+    }
+
+    public AtlasIndex index(List<String> players, int size, AtlasStyle style) {
+        return layout(validate(players, size), size, style);
+    }
+
+    public void process(List<String> players, int size, AtlasStyle style, String format,
+                        HttpServletRequest request, HttpServletResponse response) {
+        AtlasIndex index = layout(validate(players, size), size, style);
+        ImageFormat imageFormat = writer.negotiate(format, request, response);
+
+        SkinSource[] sources = new SkinSource[index.tiles().size()];
+        fanOut(sources.length, i -> sources[i] = resolve(index.tiles().get(i).input()));
+
+        if (Arrays.stream(sources).anyMatch(s -> s == null)) {
+            // Неполный атлас не кешируем и нигде дальше: ни у себя, ни в CDN
+            writer.writeNoStore(writer.encode(paint(index, sources, size, style), imageFormat), imageFormat.contentType(), response);
+            return;
+        }
+        RenderKey key = key(sources, size, style, imageFormat);
+        if (writer.checkNotModified(key.etag(), request, response)) return;
+        byte[] body = renders.getIfPresent(key);
+        if (body == null) {
+            // Клетки рисуются на своих потоках - до входа в кеш, не в его загрузчике
+            BufferedImage atlas = paint(index, sources, size, style);
+            body = renders.get(key, () -> atlas);
+        }
+        writer.write(body, imageFormat.contentType(), response);
+    }
+
+    private List<String> validate(List<String> players, int size) {
+        if (players == null || players.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "players must not be empty");
+        }
+        List<String> unique = List.copyOf(new LinkedHashSet<>(players));
+        if (unique.size() > maxPlayers) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many players, max " + maxPlayers);
+        }
+        // Атлас - один растр в памяти: сторона клетки ограничена, иначе 256 игроков по 4096px не влезут никуда
+        if (size < 1 || size > maxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + maxSize);
+        }
+        return unique;
+    }
+
+    private static AtlasIndex layout(List<String> players, int size, AtlasStyle style) {
+        int tile = switch (style) {
+            case FLAT -> AvatarGenerator.iconSize(size);
+            case ISO -> IsometricRenderer.headExtent(size, ISO_YAW, ISO_PITCH);
+        };
+        int columns = (int) Math.ceil(Math.sqrt(players.size()));
+        int rows = (players.size() + columns - 1) / columns;
+
+        List<AtlasIndex.Tile> tiles = new ArrayList<>(players.size());
+        for (int i = 0; i < players.size(); i++) {
+            tiles.add(new AtlasIndex.Tile(players.get(i), (i % columns) * tile, (i / columns) * tile, tile, tile));
+        }
+        return new AtlasIndex(tile, columns, columns * tile, rows * tile, tiles);
+    }
+
+    private SkinSource resolve(String input) {
+        try {
+            return resolver.resolveSource(input);
+        } catch (ResponseStatusException e) {
+            return null;
+        } catch (RuntimeException e) {
+            log.error("Atlas: resolving {} failed", input, e);
+            return null;
+        }
+    }
+
+    /** Ключ атласа - хеши всех текстур по порядку клеток; меняется скин любого игрока - меняется ETag. */
+    private static RenderKey key(SkinSource[] sources, int size, AtlasStyle style, ImageFormat format) {
+        StringBuilder textures = new StringBuilder();
+        for (SkinSource source : sources) {
+            if (!textures.isEmpty()) textures.append(',');
+            textures.append(source.hash());
+        }
+        return new RenderKey(textures.toString(), null, "atlas", style.name().toLowerCase(), size, 0, 0, null, null, format);
+    }
+
+    private BufferedImage paint(AtlasIndex index, SkinSource[] sources, int size, AtlasStyle style) {
+        BufferedImage atlas = new BufferedImage(index.width(), index.height(), BufferedImage.TYPE_INT_ARGB);
+        int[] dst = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+        int stride = index.width();
+
+        fanOut(sources.length, i -> {
+            if (sources[i] == null) return;
+            AtlasIndex.Tile tile = index.tiles().get(i);
+            try {
+                PreparedSkin skin = resolver.load(sources[i]).prepared();
+                switch (style) {
+                    case FLAT -> AvatarGenerator.drawHeadIcon(skin, size, dst, stride, tile.x(), tile.y());
+                    case ISO -> IsometricRenderer.drawHead(skin, size, ISO_YAW, ISO_PITCH, dst, stride,
+                            tile.x(), tile.y(), tile.w(), tile.h());
+                }
+            } catch (ResponseStatusException e) {
+                // Не картинка / текстура пропала - клетка остаётся пустой
+            } catch (RuntimeException e) {
+                log.error("Atlas: rendering {} failed", tile.input(), e);
+            }
+        });
+        return atlas;
+    }
+
+    /**
+     * task(0..n-1) на виртуальных потоках, не больше parallelism одновременно.
+     * Возврат из close() пула - happens-before для всего, что задачи записали.
+     */
+    private void fanOut(int n, IntConsumer task) {
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < n; i++) {
+                int index = i;
+                pool.submit(() -> {
+                    try {
+                        permits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    try {
+                        task.accept(index);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+    }
+}
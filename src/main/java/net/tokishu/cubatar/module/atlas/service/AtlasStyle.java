@@ -0,0 +1,21 @@
+package net.tokishu.cubatar.module.atlas.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/** Чем рисовать голову в клетке атласа. */
+public enum AtlasStyle {
+    /** Плоская иконка, как {@code /v1/avatar}. */
+    FLAT,
+    /** Изометрическая голова, как {@code /v1/iso/head} с углами по умолчанию. */
+    ISO;
+
+    public static AtlasStyle parse(String style) {
+        if (style == null) return FLAT;
+        return switch (style.toLowerCase()) {
+            case "flat" -> FLAT;
+            case "iso" -> ISO;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown style: " + style);
+        };
+    }
+}
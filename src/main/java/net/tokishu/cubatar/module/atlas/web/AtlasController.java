@@ -0,0 +1,46 @@
+package net.tokishu.cubatar.module.atlas.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.module.atlas.service.AtlasIndex;
+import net.tokishu.cubatar.module.atlas.service.AtlasService;
+import net.tokishu.cubatar.module.atlas.service.AtlasStyle;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Спрайт-атлас голов: {@code /image} - одна картинка (PNG или WebP, по
+ * {@code format} или Accept) со всеми игроками, {@code /index} - JSON с
+ * координатами клеток для CSS. Остальные параметры у обоих одинаковые,
+ * players - через запятую.
+ */
+@RestController
+@RequestMapping("/v1/atlas")
+@RequiredArgsConstructor
+public class AtlasController {
+
+    private final AtlasService service;
+
+    @GetMapping("/image")
+    public void getAtlas(
+            @RequestParam List<String> players,
+            @RequestParam(defaultValue = "64") int size,
+            @RequestParam(defaultValue = "flat") String style,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+
+        service.process(players, size, AtlasStyle.parse(style), format, request, response);
+    }
+
+    @GetMapping("/index")
+    public AtlasIndex getIndex(
+            @RequestParam List<String> players,
+            @RequestParam(defaultValue = "64") int size,
+            @RequestParam(defaultValue = "flat") String style) {
+
+        return service.index(players, size, AtlasStyle.parse(style));
+    }
+}
@@ -1,24 +1,44 @@
 package net.tokishu.cubatar.module.avatar.service;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.ImageFormat;
 import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
 import net.tokishu.cubatar.module.avatar.util.AvatarGenerator;
 import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinSource;
 import org.springframework.stereotype.Service;
 
-import java.awt.image.BufferedImage;
-
 @Service
 @RequiredArgsConstructor
 public class AvatarService {
 
     private final SkinResolverService resolver;
+    private final RenderCache renders;
     private final PngResponseWriter writer;
 
-    public void process(String input, int size, HttpServletResponse response) {
-        BufferedImage skin = resolver.resolve(input);
-        BufferedImage image = AvatarGenerator.extractHeadIcon(skin, size);
-        writer.write(image, response);
+    public void process(String input, int size, String format, HttpServletRequest request, HttpServletResponse response) {
+        ImageFormat imageFormat = writer.negotiate(format, request, response);
+        SkinSource source = resolver.resolveSource(input);
+        RenderKey key = key(source, size, imageFormat);
+        if (writer.checkNotModified(key.etag(), request, response)) return;
+        writer.write(render(source, key), imageFormat.contentType(), response);
+    }
+
+    /** Готовый аватар в format - из кеша рендеров или отрендеренный. */
+    public byte[] render(String input, int size, ImageFormat format) {
+        SkinSource source = resolver.resolveSource(input);
+        return render(source, key(source, size, format));
+    }
+
+    private RenderKey key(SkinSource source, int size, ImageFormat format) {
+        return new RenderKey(source.hash(), null, "avatar", null, size, 0, 0, null, null, format);
+    }
+
+    private byte[] render(SkinSource source, RenderKey key) {
+        return renders.get(key, () -> AvatarGenerator.extractHeadIcon(resolver.load(source).prepared(), key.size()));
     }
 }
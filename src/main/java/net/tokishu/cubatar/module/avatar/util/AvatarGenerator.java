@@ -1,6 +1,10 @@
 package net.tokishu.cubatar.module.avatar.util;
 
 import lombok.experimental.UtilityClass;
+import net.tokishu.cubatar.common.FaceTextures;
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.common.PreparedSkin.Region;
+import net.tokishu.cubatar.common.SrcOver;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -12,11 +16,11 @@ VIBECODED class
 @UtilityClass
 public class AvatarGenerator {
 
-    public static BufferedImage extractHeadIcon(BufferedImage rawSkin, int size) {
-        if (rawSkin == null) return null;
+    public static BufferedImage extractHeadIcon(PreparedSkin prepared, int size) {
+        if (prepared == null) return null;
 
-        // 1. Принудительно конвертируем в ARGB (чтобы была прозрачность)
-        BufferedImage skin = normalizeSkin(rawSkin);
+        // Квадратный ARGB (с прозрачностью) - уже в PreparedSkin
+        BufferedImage skin = prepared.image();
 
         int skinWidth = skin.getWidth();
         float scale = skinWidth / 64f;
@@ -32,8 +36,7 @@ public class AvatarGenerator {
         int overlayBackX = Math.round(56 * scale);
         int overlayBackY = Math.round(8 * scale);
 
-        boolean isLegacy = (rawSkin.getHeight() == 32);
-        boolean hasOverlay = shouldRenderOverlay(skin, overlayX, overlayY, blockSize, blockSize, isLegacy);
+        boolean hasOverlay = hasHat(prepared);
 
         int overlaySize = (int) (size * 1.08);
         int resultSize = overlaySize + 4;
@@ -50,10 +53,9 @@ public class AvatarGenerator {
 
         if (hasOverlay) {
             // Задник шапки (для объема)
-            BufferedImage backOverlay = extractAndScale(skin, overlayBackX, overlayBackY, blockSize, blockSize, overlaySize);
+            BufferedImage backOverlay = FaceTextures.scaled(skin, overlayBackX, overlayBackY, blockSize, overlaySize, 0.6f);
             // Рисуем задник, только если он не сплошной квадрат (эвристика)
             if (hasVisiblePixels(backOverlay)) {
-                backOverlay = darkenImage(backOverlay, 0.6f);
                 g.drawImage(backOverlay, centerX - overlaySize / 2, centerY - overlaySize / 2, null);
             }
 
@@ -74,45 +76,87 @@ public class AvatarGenerator {
         return result;
     }
 
-    private static boolean shouldRenderOverlay(BufferedImage skin, int x, int y, int w, int h, boolean isLegacy) {
-        BufferedImage crop = skin.getSubimage(x, y, w, h);
+    /** Сторона квадратной иконки {@link #extractHeadIcon} для заданного size. */
+    public static int iconSize(int size) {
+        return (int) (size * 1.08) + 4;
+    }
 
-        int totalPixels = w * h;
-        int solidPixels = 0;
-        int transparentPixels = 0;
+    /**
+     * То же, что {@link #extractHeadIcon}, но без промежуточных картинок:
+     * пиксели иконки (квадрат со стороной {@link #iconSize}) масштабируются
+     * и пишутся прямо в чужой ARGB-растр dst (stride int'ов на строку) с
+     * левым верхним углом в (dx, dy). Для атласов: десятки голов рисуются
+     * параллельно в один общий растр, каждая в свою клетку.
+     */
+    public static void drawHeadIcon(PreparedSkin skin, int size, int[] dst, int stride, int dx, int dy) {
+        int skinWidth = skin.size();
+        int[] src = skin.pixels();
 
-        for (int i = 0; i < w; i++) {
-            for (int j = 0; j < h; j++) {
-                int alpha = (crop.getRGB(i, j) >> 24) & 0xFF;
-                if (alpha == 0) {
-                    transparentPixels++;
-                } else if (alpha == 255) {
-                    solidPixels++;
-                }
-            }
-        }
+        float scale = skinWidth / 64f;
+        int blockSize = Math.round(8 * scale);
+        int frontX = Math.round(8 * scale), frontY = Math.round(8 * scale);
+        int overlayX = Math.round(40 * scale), overlayY = Math.round(8 * scale);
+        int overlayBackX = Math.round(56 * scale), overlayBackY = Math.round(8 * scale);
 
-        if (solidPixels == 0 && transparentPixels == totalPixels) return false;
+        boolean hasOverlay = hasHat(skin);
 
-        if (isLegacy && solidPixels == totalPixels) {
-            return false;
-        }
+        int overlaySize = (int) (size * 1.08);
+        int center = iconSize(size) / 2;
+        int overlayAt = center - overlaySize / 2;
+        int faceAt = center - size / 2;
 
-        return true;
+        if (hasOverlay && skin.hasOverlay(Region.HAT_BACK)) {
+            blitScaled(src, skinWidth, overlayBackX, overlayBackY, blockSize, overlaySize, 0.6f,
+                    dst, stride, dx + overlayAt, dy + overlayAt);
+        }
+        blitScaled(src, skinWidth, frontX, frontY, blockSize, size, 1f, dst, stride, dx + faceAt, dy + faceAt);
+        if (hasOverlay) {
+            blitScaled(src, skinWidth, overlayX, overlayY, blockSize, overlaySize, 1f,
+                    dst, stride, dx + overlayAt, dy + overlayAt);
+        }
     }
 
-    private static BufferedImage normalizeSkin(BufferedImage original) {
-        int w = original.getWidth();
-        int h = original.getHeight();
-        int targetH = w;
+    /**
+     * Квадрат block x block из src -> target x target в dst: ближайший сосед, затемнение, src-over.
+     * Выборка повторяет Java2D (шаг src/target в фиксированной точке 32.32), смешивание -
+     * {@link SrcOver}, так что результат совпадает с {@link #extractHeadIcon} попиксельно.
+     */
+    private static void blitScaled(int[] src, int srcStride, int sx, int sy, int block, int target, float shade,
+                                   int[] dst, int stride, int dx, int dy) {
+        for (int y = 0; y < target; y++) {
+            int srcRow = (sy + nearest(y, block, target)) * srcStride + sx;
+            int dstRow = (dy + y) * stride + dx;
+            for (int x = 0; x < target; x++) {
+                int argb = src[srcRow + nearest(x, block, target)];
+                int a = argb >>> 24;
+                if (a == 0) continue;
+                // extractAndScale кладёт масштабированный квадрат в промежуточную картинку,
+                // полупрозрачный пиксель при этом один раз проходит через премультипликацию
+                if (a != 255 && target != block) argb = SrcOver.over(0, argb);
+                if (shade < 1f) {
+                    int r = (int) (((argb >> 16) & 0xFF) * shade);
+                    int g = (int) (((argb >> 8) & 0xFF) * shade);
+                    int b = (int) ((argb & 0xFF) * shade);
+                    argb = (a << 24) | (r << 16) | (g << 8) | b;
+                }
+                dst[dstRow + x] = a == 255 ? argb : SrcOver.over(dst[dstRow + x], argb);
+            }
+        }
+    }
 
-        if (w == h && original.getType() == BufferedImage.TYPE_INT_ARGB) return original;
+    private static int nearest(int i, int block, int target) {
+        long step = ((long) block << 32) / target;
+        return (int) (((2L * i + 1) * step) >>> 33);
+    }
 
-        BufferedImage normalized = new BufferedImage(w, targetH, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = normalized.createGraphics();
-        g.drawImage(original, 0, 0, null);
-        g.dispose();
-        return normalized;
+    /**
+     * Шапка рисуется, если на передней грани шлема есть хоть что-то. У
+     * legacy-скинов сплошь непрозрачная "шапка" - обычно мусор из старых
+     * редакторов, а не шлем, её пропускаем.
+     */
+    private static boolean hasHat(PreparedSkin skin) {
+        if (!skin.hasOverlay(Region.HAT_FRONT)) return false;
+        return !(skin.legacy() && skin.isOpaque(Region.HAT_FRONT));
     }
 
     private static BufferedImage extractAndScale(BufferedImage skin, int x, int y, int w, int h, int targetSize) {
@@ -127,24 +171,6 @@ public class AvatarGenerator {
         return scaled;
     }
 
-    private static BufferedImage darkenImage(BufferedImage img, float factor) {
-        BufferedImage res = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        for (int x = 0; x < img.getWidth(); x++) {
-            for (int y = 0; y < img.getHeight(); y++) {
-                int argb = img.getRGB(x, y);
-                int a = (argb >> 24) & 0xFF;
-                if (a == 0) continue;
-
-                int r = (int)(((argb >> 16) & 0xFF) * factor);
-                int g = (int)(((argb >> 8) & 0xFF) * factor);
-                int b = (int)((argb & 0xFF) * factor);
-
-                res.setRGB(x, y, (a << 24) | (r << 16) | (g << 8) | b);
-            }
-        }
-        return res;
-    }
-
     private static boolean hasVisiblePixels(BufferedImage img) {
         for (int x = 0; x < img.getWidth(); x++) {
             for (int y = 0; y < img.getHeight(); y++) {
@@ -1,5 +1,6 @@
 package net.tokishu.cubatar.module.avatar.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.module.avatar.service.AvatarService;
@@ -16,8 +17,10 @@ public class AvatarController {
     public void getPlayerHead(
             @PathVariable String input,
             @RequestParam(defaultValue = "64") int size,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, response);
+        service.process(input, size, format, request, response);
     }
 }
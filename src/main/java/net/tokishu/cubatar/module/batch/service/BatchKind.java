@@ -0,0 +1,21 @@
+package net.tokishu.cubatar.module.batch.service;
+
+/** Что рендерить пачкой - повторяет одиночные эндпоинты. */
+public enum BatchKind {
+    /** {@code /v1/avatar} */
+    AVATAR("avatar"),
+    /** {@code /v1/iso/head} */
+    ISO_HEAD("iso-head"),
+    /** {@code /v1/body} */
+    BODY("body");
+
+    private final String slug;
+
+    BatchKind(String slug) {
+        this.slug = slug;
+    }
+
+    public String slug() {
+        return slug;
+    }
+}
@@ -0,0 +1,12 @@
+package net.tokishu.cubatar.module.batch.service;
+
+import java.util.List;
+
+/**
+ * Тело пакетного запроса: список input (ник/UUID/base64-URL) и общие для
+ * всех параметры рендера. null - значение по умолчанию соответствующего
+ * одиночного эндпоинта; format (png|webp) - по умолчанию png: ответ - zip,
+ * и Accept о картинках внутри ничего не говорит.
+ */
+public record BatchRequest(List<String> inputs, Integer size, Double yaw, Double pitch,
+                           Boolean back, String model, String format) {}
@@ -0,0 +1,169 @@
+package net.tokishu.cubatar.module.batch.service;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import net.tokishu.cubatar.common.ImageFormat;
+import net.tokishu.cubatar.common.SkinModel;
+import net.tokishu.cubatar.module.avatar.service.AvatarService;
+import net.tokishu.cubatar.module.body.service.BodyService;
+import net.tokishu.cubatar.module.iso.service.IsoRenderService;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Part;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Пакетный рендер: страница лидерборда вместо 50-200 отдельных запросов
+ * /v1/avatar шлёт один. Каждый input резолвится и рендерится на своём
+ * виртуальном потоке через те же сервисы и кеши, что и одиночные
+ * эндпоинты; одновременно в работе не больше parallelism штук.
+ * <p>
+ * Ответ - zip, который пишется потоком по мере готовности: {@code <input>.png}
+ * (или {@code .webp} при format=webp) на каждый успешный рендер и в конце {@code manifest.json} со статусом
+ * каждого input. Ошибка одного игрока (нет такого, не картинка) попадает в
+ * манифест и не роняет остальные.
+ */
+@Slf4j
+@Service
+public class BatchService {
+
+    private final AvatarService avatars;
+    private final IsoRenderService iso;
+    private final BodyService bodies;
+    private final ObjectMapper mapper;
+    private final int maxInputs;
+    private final int parallelism;
+
+    public BatchService(AvatarService avatars, IsoRenderService iso, BodyService bodies, ObjectMapper mapper,
+                        @Value("${cubatar.batch.max-inputs}") int maxInputs,
+                        @Value("${cubatar.batch.parallelism}") int parallelism) {
+        this.avatars = avatars;
+        this.iso = iso;
+        this.bodies = bodies;
+        this.mapper = mapper;
+        this.maxInputs = maxInputs;
+        this.parallelism = parallelism;
+    }
+
+    public void process(BatchKind kind, BatchRequest request, HttpServletResponse response) {
+        List<String> inputs = validate(request);
+        ImageFormat format = ImageFormat.parse(request.format());
+
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"cubatar-" + kind.slug() + ".zip\"");
+
+        BlockingQueue<Item> done = new LinkedBlockingQueue<>();
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String input : inputs) {
+                pool.submit(() -> done.add(renderItem(kind, request, format, input, permits)));
+            }
+
+            try (OutputStream out = response.getOutputStream(); ZipOutputStream zip = new ZipOutputStream(out)) {
+                List<Map<String, Object>> manifest = new ArrayList<>();
+                for (int i = 0; i < inputs.size(); i++) {
+                    Item item = done.take();
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("input", item.input());
+                    entry.put("status", item.status());
+                    if (item.image() != null) {
+                        String file = item.input() + "." + format.extension();
+                        putStored(zip, file, item.image());
+                        entry.put("file", file);
+                    } else {
+                        entry.put("error", item.error());
+                    }
+                    manifest.add(entry);
+                }
+                putStored(zip, "manifest.json", mapper.writeValueAsBytes(manifest));
+            } catch (IOException e) {
+                // Клиент ушёл - дорендеривать некому
+                pool.shutdownNow();
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private List<String> validate(BatchRequest request) {
+        if (request == null || request.inputs() == null || request.inputs().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "inputs must not be empty");
+        }
+        // Дубликаты рендерятся один раз - и имена файлов в архиве не конфликтуют
+        List<String> inputs = List.copyOf(new LinkedHashSet<>(request.inputs()));
+        if (inputs.size() > maxInputs) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many inputs, max " + maxInputs);
+        }
+        return inputs;
+    }
+
+    private Item renderItem(BatchKind kind, BatchRequest request, ImageFormat format, String input, Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Item(input, HttpStatus.SERVICE_UNAVAILABLE.value(), null, "Interrupted");
+        }
+        try {
+            return new Item(input, HttpStatus.OK.value(), render(kind, request, format, input), null);
+        } catch (ResponseStatusException e) {
+            String message = e.getReason() != null ? e.getReason() : e.getStatusCode().toString();
+            return new Item(input, e.getStatusCode().value(), null, message);
+        } catch (RuntimeException | Error e) {
+            // И Error (OOM на HD-скине, StackOverflowError): задача без Item оставила бы done.take() ждать вечно
+            log.error("Batch render of {} failed", input, e);
+            return new Item(input, HttpStatus.INTERNAL_SERVER_ERROR.value(), null, "Internal server error");
+        } finally {
+            permits.release();
+        }
+    }
+
+    private byte[] render(BatchKind kind, BatchRequest r, ImageFormat format, String input) {
+        return switch (kind) {
+            case AVATAR -> avatars.render(input, or(r.size(), 64), format);
+            case ISO_HEAD -> iso.render(input, or(r.size(), 128), or(r.yaw(), -45.0), or(r.pitch(), 30.0),
+                    Part.HEAD, false, null, false, format);
+            case BODY -> bodies.render(input, or(r.size(), 128), or(r.back(), false),
+                    SkinModel.parse(r.model() != null ? r.model() : "auto"), format);
+        };
+    }
+
+    private static <T> T or(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+
+    /** PNG и WebP уже сжаты - кладём без повторного deflate (STORED требует CRC и размер заранее). */
+    private static void putStored(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private record Item(String input, int status, byte[] image, String error) {}
+}
@@ -0,0 +1,36 @@
+package net.tokishu.cubatar.module.batch.web;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.module.batch.service.BatchKind;
+import net.tokishu.cubatar.module.batch.service.BatchRequest;
+import net.tokishu.cubatar.module.batch.service.BatchService;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Пакетные версии /v1/avatar, /v1/iso/head и /v1/body: один POST со
+ * списком input и общими параметрами вместо сотни отдельных GET.
+ * Ответ - zip с PNG (или WebP) на каждого игрока и manifest.json со статусами.
+ */
+@RestController
+@RequestMapping("/v1/batch")
+@RequiredArgsConstructor
+public class BatchController {
+
+    private final BatchService service;
+
+    @PostMapping("/avatar")
+    public void avatars(@RequestBody BatchRequest request, HttpServletResponse response) {
+        service.process(BatchKind.AVATAR, request, response);
+    }
+
+    @PostMapping("/iso/head")
+    public void isoHeads(@RequestBody BatchRequest request, HttpServletResponse response) {
+        service.process(BatchKind.ISO_HEAD, request, response);
+    }
+
+    @PostMapping("/body")
+    public void bodies(@RequestBody BatchRequest request, HttpServletResponse response) {
+        service.process(BatchKind.BODY, request, response);
+    }
+}
@@ -1,29 +1,60 @@
 package net.tokishu.cubatar.module.body.service;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.ImageFormat;
 import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
 import net.tokishu.cubatar.common.SkinModel;
 import net.tokishu.cubatar.module.body.util.FullBodyGenerator;
-import net.tokishu.cubatar.module.resolve.ResolvedSkin;
 import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinSource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.awt.image.BufferedImage;
-
 @Service
 @RequiredArgsConstructor
 public class BodyService {
 
     private final SkinResolverService resolver;
+    private final RenderCache renders;
     private final PngResponseWriter writer;
 
-    public void process(String input, int size, boolean back, Boolean slimOverride, HttpServletResponse response) {
-        ResolvedSkin skin = resolver.resolveWithModel(input);
-        Boolean slim = SkinModel.resolve(slimOverride, skin.slim());
-        BufferedImage image = back
-                ? FullBodyGenerator.generateBackView(skin.image(), size, slim)
-                : FullBodyGenerator.generateFrontView(skin.image(), size, slim);
-        writer.write(image, response);
+    /** До какого size тело рисуется по таблице текселей ({@link FullBodyGenerator#generateLut}); 0 - никогда. */
+    @Value("${cubatar.render.lut-max-size}")
+    private int lutMaxSize;
+
+    public void process(String input, int size, boolean back, Boolean slimOverride, String format,
+                        HttpServletRequest request, HttpServletResponse response) {
+        ImageFormat imageFormat = writer.negotiate(format, request, response);
+        SkinSource source = resolver.resolveSource(input);
+        RenderKey key = key(source, size, back, slimOverride, imageFormat);
+        if (writer.checkNotModified(key.etag(), request, response)) return;
+        writer.write(render(source, key), imageFormat.contentType(), response);
+    }
+
+    /** Готовое тело в format - из кеша рендеров или отрендеренное. */
+    public byte[] render(String input, int size, boolean back, Boolean slimOverride, ImageFormat format) {
+        SkinSource source = resolver.resolveSource(input);
+        return render(source, key(source, size, back, slimOverride, format));
+    }
+
+    private RenderKey key(SkinSource source, int size, boolean back, Boolean slimOverride, ImageFormat format) {
+        Boolean slim = SkinModel.resolve(slimOverride, source.slim());
+        return new RenderKey(source.hash(), null, "body", back ? "back" : "front", size, 0, 0, null, slim, format);
+    }
+
+    private byte[] render(SkinSource source, RenderKey key) {
+        return renders.get(key, () -> {
+            PreparedSkin skin = resolver.load(source).prepared();
+            boolean back = "back".equals(key.part());
+            if (key.size() <= lutMaxSize) return FullBodyGenerator.generateLut(skin, key.size(), back, key.slim());
+            return back
+                    ? FullBodyGenerator.generateBackView(skin, key.size(), key.slim())
+                    : FullBodyGenerator.generateFrontView(skin, key.size(), key.slim());
+        });
     }
 }
@@ -1,6 +1,10 @@
 package net.tokishu.cubatar.module.body.util;
 
 import lombok.experimental.UtilityClass;
+import net.tokishu.cubatar.common.FaceTextures;
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.common.PreparedSkin.Region;
+import net.tokishu.cubatar.common.TexelLut;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -38,8 +42,8 @@ public class FullBodyGenerator {
     private static final int HEAD_DEPTH = 8;
     private static final int LIMB_DEPTH = 4;
 
-    public static BufferedImage generateFrontView(BufferedImage rawSkin, int headSize, Boolean slim) {
-        return generate(rawSkin, headSize, false, slim);
+    public static BufferedImage generateFrontView(PreparedSkin skin, int headSize, Boolean slim) {
+        return generate(skin, headSize, false, slim);
     }
 
     /**
@@ -52,19 +56,67 @@ public class FullBodyGenerator {
      * (затемнённый, снизу) и видимый верхний слой меняются местами — сзади
      * подложкой становится передняя грань шлема, а видимым слоем — задняя.
      */
-    public static BufferedImage generateBackView(BufferedImage rawSkin, int headSize, Boolean slim) {
-        return generate(rawSkin, headSize, true, slim);
+    public static BufferedImage generateBackView(PreparedSkin skin, int headSize, Boolean slim) {
+        return generate(skin, headSize, true, slim);
     }
 
-    private static BufferedImage generate(BufferedImage rawSkin, int headSize, boolean back, Boolean slim) {
-        if (rawSkin == null) return null;
+    /**
+     * То же, что {@link #generateFrontView}/{@link #generateBackView}, но по
+     * {@link TexelLut}: раскладка слоёв записывается один раз на размер,
+     * сторону, модель, legacy и наличие шлема, а каждый рендер - только
+     * выборка текселей по таблице, без промежуточных картинок и Graphics2D.
+     */
+    public static BufferedImage generateLut(PreparedSkin prepared, int headSize, boolean back, Boolean slim) {
+        if (prepared == null) return null;
+
+        boolean isLegacy = prepared.legacy();
+        boolean isAlex   = !isLegacy && (slim != null ? slim : prepared.slimLayout());
+        boolean hasHat   = !isLegacy && prepared.hasOverlay(back ? Region.HAT_BACK : Region.HAT_FRONT);
+        int skinSize = prepared.size();
+
+        TexelLut lut = TexelLut.cached(new LutKey(headSize, back, isAlex, isLegacy, hasHat, skinSize), () -> {
+            LutSurface surface = new LutSurface(skinSize);
+            layout(surface, skinSize, headSize, back, isLegacy, isAlex, hasHat);
+            return surface.lut.build();
+        });
+        return lut.render(prepared.pixels(), null);
+    }
 
-        BufferedImage skin = normalizeSkin(rawSkin);
-        boolean isLegacy = rawSkin.getHeight() == 32;
-        boolean isAlex   = !isLegacy && (slim != null ? slim : detectAlex(skin));
+    private static BufferedImage generate(PreparedSkin prepared, int headSize, boolean back, Boolean slim) {
+        if (prepared == null) return null;
 
-        float scale = skin.getWidth() / 64f;
+        BufferedImage skin = prepared.image();
+        boolean isLegacy = prepared.legacy();
+        boolean isAlex   = !isLegacy && (slim != null ? slim : prepared.slimLayout());
+        boolean hasHat   = !isLegacy && prepared.hasOverlay(back ? Region.HAT_BACK : Region.HAT_FRONT);
+
+        Java2dSurface surface = new Java2dSurface(skin);
+        layout(surface, skin.getWidth(), headSize, back, isLegacy, isAlex, hasHat);
+        return surface.finish();
+    }
 
+    /** Всё, от чего зависит раскладка {@link #generateLut}, - кроме пикселей скина. */
+    private record LutKey(int headSize, boolean back, boolean alex, boolean legacy, boolean hat, int skinSize) {}
+
+    /**
+     * Куда ложатся слои раскладки: Graphics2D ({@link Java2dSurface}) или
+     * таблица текселей ({@link LutSurface}). Раскладка одна - так обе дают
+     * одну и ту же картинку.
+     */
+    private interface Surface {
+        void begin(int w, int h);
+
+        /**
+         * Прямоугольник скина (sx, sy, sw, sh) в пикселях, растянутый
+         * ближайшим соседом в (dx, dy, dw, dh): shade < 1 - затемнён после
+         * масштаба, flip - отражён по горизонтали после масштаба.
+         */
+        void draw(int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh, float shade, boolean flip);
+    }
+
+    private static void layout(Surface surface, int skinWidth, int headSize, boolean back,
+                               boolean isLegacy, boolean isAlex, boolean hasHat) {
+        float scale = skinWidth / 64f;
         int armW  = isAlex ? Math.round(headSize * 3f / 8f) : Math.round(headSize * 4f / 8f);
         int bodyW = headSize;
         int partH = Math.round(headSize * 12f / 8f);
@@ -80,10 +132,7 @@ public class FullBodyGenerator {
         int totalW = marginX + armW + bodyW + armW + marginX;
         int totalH = hatOffset + headSize + partH + marginB;
 
-        BufferedImage result = new BufferedImage(totalW, totalH, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = result.createGraphics();
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,  RenderingHints.VALUE_ANTIALIAS_OFF);
+        surface.begin(totalW, totalH);
 
         int headX = marginX + armW;
         int headY = hatOffset;
@@ -113,22 +162,12 @@ public class FullBodyGenerator {
         int hatTopUvX       = back ? HAT_BACK_X : HAT_FRONT_X;
 
         // ── Слой 1: подложка шлема затемнённая (самый нижний) ─────────────────
-        BufferedImage hatTopImg = null;
-        if (!isLegacy) {
+        // hasHat уже false у legacy: у них нет второго слоя
+        if (hasHat) {
             int hatBx = Math.round(hatBackdropUvX * scale);
             int hatBy = Math.round(HAT_FRONT_Y * scale);
-            int hatFx = Math.round(hatTopUvX * scale);
-            int hatFy = Math.round(HAT_FRONT_Y * scale);
-            boolean hasHat = shouldRenderOverlay(skin, hatFx, hatFy, blockSize, blockSize, false);
-            if (hasHat) {
-                // подложка шлема — затемнённая, для объёма
-                BufferedImage hatBackdrop = extractAndScale(skin, hatBx, hatBy, blockSize, blockSize, hatSize);
-                if (hasVisiblePixels(hatBackdrop)) {
-                    g.drawImage(darkenImage(hatBackdrop, 0.6f), headX - hatOffset, 0, null);
-                }
-                // видимый верхний слой шлема сохраняем для последнего слоя
-                hatTopImg = extractAndScale(skin, hatFx, hatFy, blockSize, blockSize, hatSize);
-            }
+            // подложка шлема — затемнённая, для объёма
+            surface.draw(hatBx, hatBy, blockSize, blockSize, headX - hatOffset, 0, hatSize, hatSize, 0.6f, false);
         }
 
         // ── Слой 2: тело (первый слой) ────────────────────────────────────────
@@ -142,42 +181,38 @@ public class FullBodyGenerator {
             int by = Math.round(BODY_FRONT_Y * scale);
             int bw = Math.round(BODY_W * scale);
             int bh = Math.round(BODY_H * scale);
-            BufferedImage body = extractAndScaleRect(skin, bx, by, bw, bh, bodyW, partH);
-            g.drawImage(body, bodyX, bodyY, null);
+            surface.draw(bx, by, bw, bh, bodyX, bodyY, bodyW, partH, 1f, false);
         }
 
         // ── Слой 3: руки (первый слой) ────────────────────────────────────────
         {
             int rx = Math.round(rArmUvX * scale);
             int ry = Math.round(RARM_FRONT_Y * scale);
-            BufferedImage rArm = extractAndScaleRect(skin, rx, ry, srcArmW, srcArmH, armW, partH);
-            g.drawImage(rArm, rArmX, armsY, null);
+            surface.draw(rx, ry, srcArmW, srcArmH, rArmX, armsY, armW, partH, 1f, false);
         }
 
         if (!isLegacy) {
             int lx = Math.round(lArmUvX * scale);
             int ly = Math.round(LARM_FRONT_Y * scale);
-            BufferedImage lArm = extractAndScaleRect(skin, lx, ly, srcArmW, srcArmH, armW, partH);
-            g.drawImage(lArm, lArmX, armsY, null);
+            surface.draw(lx, ly, srcArmW, srcArmH, lArmX, armsY, armW, partH, 1f, false);
         } else {
             int rx = Math.round(rArmUvX * scale);
             int ry = Math.round(RARM_FRONT_Y * scale);
-            BufferedImage rArm = extractAndScaleRect(skin, rx, ry, srcArmW, srcArmH, armW, partH);
-            g.drawImage(flipHorizontal(rArm), lArmX, armsY, null);
+            surface.draw(rx, ry, srcArmW, srcArmH, lArmX, armsY, armW, partH, 1f, true);
         }
 
         // ── Слой 4: второй слой (куртка, рукава) — раздут и центрирован поверх базы ──
         if (!isLegacy) {
             // Куртка поверх тела
-            drawInflatedOverlay(g, skin, scale,
+            drawInflatedOverlay(surface, scale,
                     jacketUvX, JACKET_FRONT_Y, BODY_W, BODY_H,
                     bodyX, bodyY, bodyW, partH);
 
             // Рукава поверх рук
-            drawInflatedOverlay(g, skin, scale,
+            drawInflatedOverlay(surface, scale,
                     rSleeveUvX, RSLEEVE_FRONT_Y, armVoxW, ARM_H,
                     rArmX, armsY, armW, partH);
-            drawInflatedOverlay(g, skin, scale,
+            drawInflatedOverlay(surface, scale,
                     lSleeveUvX, LSLEEVE_FRONT_Y, armVoxW, ARM_H,
                     lArmX, armsY, armW, partH);
         }
@@ -186,57 +221,15 @@ public class FullBodyGenerator {
         {
             int fx = Math.round(headUvX * scale);
             int fy = Math.round(HEAD_FRONT_Y * scale);
-            BufferedImage face = extractAndScale(skin, fx, fy, blockSize, blockSize, headSize);
-            g.drawImage(face, headX, headY, null);
+            surface.draw(fx, fy, blockSize, blockSize, headX, headY, headSize, headSize, 1f, false);
         }
 
         // ── Слой 6: видимый верхний слой шлема — перекрывает всё ───────────
-        if (hatTopImg != null) {
-            g.drawImage(hatTopImg, headX - hatOffset, 0, null);
-        }
-
-        g.dispose();
-        return result;
-    }
-
-    /**
-     * Эвристика на случай, когда модель не пришла из профиля Mojang (скин по
-     * прямому URL): у classic-раскладки задняя грань правой руки занимает
-     * колонки x 54..56 (y 20..32), левой - x 46..48 (y 52..64); у slim руки
-     * на воксель уже и до этих колонок не дотягиваются. Если обе зоны
-     * полностью прозрачны - считаем скин slim.
-     */
-    private static boolean detectAlex(BufferedImage skin) {
-        float scale = skin.getWidth() / 64f;
-        return regionTransparent(skin, scale, 54, 20, 2, 12)
-                && regionTransparent(skin, scale, 46, 52, 2, 12);
-    }
-
-    private static boolean regionTransparent(BufferedImage skin, float scale, int vx, int vy, int vw, int vh) {
-        int x0 = Math.round(vx * scale), y0 = Math.round(vy * scale);
-        int x1 = Math.min(Math.round((vx + vw) * scale), skin.getWidth());
-        int y1 = Math.min(Math.round((vy + vh) * scale), skin.getHeight());
-        for (int x = x0; x < x1; x++) {
-            for (int y = y0; y < y1; y++) {
-                if (((skin.getRGB(x, y) >> 24) & 0xFF) != 0) return false;
-            }
+        if (hasHat) {
+            int hatFx = Math.round(hatTopUvX * scale);
+            int hatFy = Math.round(HAT_FRONT_Y * scale);
+            surface.draw(hatFx, hatFy, blockSize, blockSize, headX - hatOffset, 0, hatSize, hatSize, 1f, false);
         }
-        return true;
-    }
-
-    private static BufferedImage normalizeSkin(BufferedImage original) {
-        int w = original.getWidth();
-        int h = original.getHeight();
-        if (w == h && original.getType() == BufferedImage.TYPE_INT_ARGB) return original;
-        BufferedImage normalized = new BufferedImage(w, w, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = normalized.createGraphics();
-        g.drawImage(original, 0, 0, null);
-        g.dispose();
-        return normalized;
-    }
-
-    private static BufferedImage extractAndScale(BufferedImage skin, int x, int y, int w, int h, int targetSize) {
-        return extractAndScaleRect(skin, x, y, w, h, targetSize, targetSize);
     }
 
     private static BufferedImage extractAndScaleRect(BufferedImage skin, int x, int y, int srcW, int srcH,
@@ -261,7 +254,7 @@ public class FullBodyGenerator {
      * и для тонкой руки (4 вокселя) и для тела (8 вокселей) пропорции верны.
      * Координаты и размеры источника указываются в вокселях скина 64x64.
      */
-    private static void drawInflatedOverlay(Graphics2D g, BufferedImage skin, float scale,
+    private static void drawInflatedOverlay(Surface surface, float scale,
                                             int srcVoxX, int srcVoxY, int srcVoxW, int srcVoxH,
                                             int baseX, int baseY, int baseW, int baseH) {
         int padX = Math.round(OVERLAY_INFLATE * baseW / srcVoxW);
@@ -269,50 +262,98 @@ public class FullBodyGenerator {
         int overlayW = baseW + 2 * padX;
         int overlayH = baseH + 2 * padY;
 
-        BufferedImage overlay = extractAndScaleRect(skin,
-                Math.round(srcVoxX * scale), Math.round(srcVoxY * scale),
+        surface.draw(Math.round(srcVoxX * scale), Math.round(srcVoxY * scale),
                 Math.round(srcVoxW * scale), Math.round(srcVoxH * scale),
-                overlayW, overlayH);
-        g.drawImage(overlay, baseX - padX, baseY - padY, null);
+                baseX - padX, baseY - padY, overlayW, overlayH, 1f, false);
     }
 
-    private static BufferedImage flipHorizontal(BufferedImage img) {
-        int w = img.getWidth(), h = img.getHeight();
-        BufferedImage flipped = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = flipped.createGraphics();
-        g.drawImage(img, w, 0, -w, h, null);
-        g.dispose();
-        return flipped;
-    }
+    /** Слои - drawImage промежуточных картинок, как рисовался рендер всегда. */
+    private static final class Java2dSurface implements Surface {
+
+        private final BufferedImage skin;
+        private BufferedImage result;
+        private Graphics2D g;
 
-    private static boolean shouldRenderOverlay(BufferedImage skin, int x, int y, int w, int h, boolean isLegacy) {
-        int total = w * h, solid = 0, transparent = 0;
-        for (int i = 0; i < w; i++) {
-            for (int j = 0; j < h; j++) {
-                int alpha = (skin.getRGB(x + i, y + j) >> 24) & 0xFF;
-                if (alpha == 0) transparent++;
-                else if (alpha == 255) solid++;
+        Java2dSurface(BufferedImage skin) {
+            this.skin = skin;
+        }
+
+        @Override
+        public void begin(int w, int h) {
+            result = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            g = result.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,  RenderingHints.VALUE_ANTIALIAS_OFF);
+        }
+
+        @Override
+        public void draw(int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh, float shade, boolean flip) {
+            if (shade < 1f) {
+                // Затемнена только подложка шлема - квадрат, её готовит FaceTextures
+                BufferedImage backdrop = FaceTextures.scaled(skin, sx, sy, sw, dw, shade);
+                if (hasVisiblePixels(backdrop)) g.drawImage(backdrop, dx, dy, null);
+                return;
             }
+            BufferedImage part = extractAndScaleRect(skin, sx, sy, sw, sh, dw, dh);
+            g.drawImage(flip ? flipHorizontal(part) : part, dx, dy, null);
+        }
+
+        BufferedImage finish() {
+            g.dispose();
+            return result;
         }
-        if (solid == 0 && transparent == total) return false;
-        if (isLegacy && solid == total) return false;
-        return true;
     }
 
-    private static BufferedImage darkenImage(BufferedImage img, float factor) {
-        BufferedImage res = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        for (int x = 0; x < img.getWidth(); x++) {
-            for (int y = 0; y < img.getHeight(); y++) {
-                int argb = img.getRGB(x, y);
-                int a = (argb >> 24) & 0xFF;
-                if (a == 0) continue;
-                int r = (int)(((argb >> 16) & 0xFF) * factor);
-                int g = (int)(((argb >> 8)  & 0xFF) * factor);
-                int b = (int)((argb & 0xFF) * factor);
-                res.setRGB(x, y, (a << 24) | (r << 16) | (g << 8) | b);
+    /**
+     * Слои - записи {@link TexelLut}: тот же выбор текселя, что у
+     * extractAndScaleRect (обрезка по краю скина, ближайший сосед Java2D в
+     * 32.32), и те же прогоны полупрозрачного через SrcOver на прозрачный
+     * холст - при масштабе и при отражении.
+     */
+    private static final class LutSurface implements Surface {
+
+        private final int skinSize;
+        private TexelLut.Builder lut;
+        private int width;
+        private int height;
+
+        LutSurface(int skinSize) {
+            this.skinSize = skinSize;
+        }
+
+        @Override
+        public void begin(int w, int h) {
+            lut = new TexelLut.Builder(w, h);
+            width = w;
+            height = h;
+        }
+
+        @Override
+        public void draw(int sx, int sy, int sw, int sh, int dx, int dy, int dw, int dh, float shade, boolean flip) {
+            sw = Math.min(sw, skinSize - sx);
+            sh = Math.min(sh, skinSize - sy);
+            if (sw <= 0 || sh <= 0) return;
+            boolean scaled = sw != dw || sh != dh;
+            int roundtrips = (scaled ? 1 : 0) + (flip ? 1 : 0);
+            long stepX = ((long) sw << 32) / dw;
+            long stepY = ((long) sh << 32) / dh;
+            for (int y = Math.max(0, -dy); y < dh && dy + y < height; y++) {
+                int row = (sy + (int) (((2L * y + 1) * stepY) >>> 33)) * skinSize + sx;
+                for (int x = Math.max(0, -dx); x < dw && dx + x < width; x++) {
+                    int u = flip ? dw - 1 - x : x;
+                    lut.add((dy + y) * width + dx + x, row + (int) (((2L * u + 1) * stepX) >>> 33), false, roundtrips, shade);
+                }
             }
         }
-        return res;
+    }
+
+    private static BufferedImage flipHorizontal(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        BufferedImage flipped = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = flipped.createGraphics();
+        g.drawImage(img, w, 0, -w, h, null);
+        g.dispose();
+        return flipped;
     }
 
     private static boolean hasVisiblePixels(BufferedImage img) {
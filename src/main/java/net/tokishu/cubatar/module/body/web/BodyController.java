@@ -1,5 +1,6 @@
 package net.tokishu.cubatar.module.body.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.common.SkinModel;
@@ -19,8 +20,10 @@ public class BodyController {
             @RequestParam(defaultValue = "128") int size,
             @RequestParam(defaultValue = "false") boolean back,
             @RequestParam(defaultValue = "auto") String model,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, back, SkinModel.parse(model), response);
+        service.process(input, size, back, SkinModel.parse(model), format, request, response);
     }
 }
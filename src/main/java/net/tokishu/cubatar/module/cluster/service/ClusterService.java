@@ -0,0 +1,174 @@
+package net.tokishu.cubatar.module.cluster.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.tokishu.cubatar.module.resolve.SkinTexture;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Режим кластера: узлы из статического списка peers делят игроков и
+ * текстуры по {@link HashRing}. Промах кеша по чужому ключу сначала идёт к
+ * узлу-владельцу ({@code /internal/cluster/...}), и только владелец ходит в
+ * Mojang - каждый ник, профиль и текстура качаются примерно один раз на
+ * весь кластер, а не по разу на реплику за балансировщиком.
+ * <p>
+ * Запросы от пиров помечены заголовком {@link #FORWARDED_HEADER}, и на их
+ * обработке ничего дальше не пересылается: при разъехавшихся списках peers
+ * запрос не ходит по кругу, а просто резолвится на месте. Если владелец
+ * недоступен или ответил 5xx, узел идёт наверх сам - кластер деградирует до
+ * независимых реплик, а не отказывает. 4xx владельца окончателен (игрока
+ * нет - его нет и для нас).
+ * <p>
+ * Выключенный режим ({@code cubatar.cluster.enabled=false}) - всё локально.
+ */
+@Slf4j
+@Service
+public class ClusterService {
+
+    public static final String FORWARDED_HEADER = "X-Cubatar-Forwarded";
+
+    /** Поток обрабатывает запрос пира - ничего не пересылать. */
+    private static final ThreadLocal<Boolean> FORWARDED = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final String self;
+    private final HashRing ring;
+    private final RestClient client;
+    private final MeterRegistry registry;
+
+    public ClusterService(@Value("${cubatar.cluster.enabled}") boolean enabled,
+                          @Value("${cubatar.cluster.self}") String self,
+                          @Value("${cubatar.cluster.peers}") List<String> peers,
+                          @Value("${cubatar.cluster.virtual-nodes}") int virtualNodes,
+                          @Value("${cubatar.cluster.connect-timeout}") Duration connectTimeout,
+                          @Value("${cubatar.cluster.read-timeout}") Duration readTimeout,
+                          MeterRegistry registry) {
+        this.enabled = enabled;
+        this.self = normalize(self);
+        this.registry = registry;
+
+        Set<String> nodes = new LinkedHashSet<>();
+        for (String peer : peers) {
+            if (!peer.isBlank()) nodes.add(normalize(peer));
+        }
+        if (enabled && nodes.add(this.self)) {
+            log.warn("Cluster self {} is missing from peers, ring built with it added", this.self);
+        }
+        this.ring = nodes.isEmpty() ? null : new HashRing(nodes, virtualNodes);
+
+        HttpClient http = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(http);
+        factory.setReadTimeout(readTimeout);
+        this.client = RestClient.builder()
+                .requestFactory(factory)
+                .defaultHeader(FORWARDED_HEADER, this.self)
+                .build();
+
+        if (enabled) log.info("Cluster mode: {} is one of {}", this.self, nodes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Значение ключа: у владельца, если это другой узел, иначе (или если
+     * владелец не ответил) - local. remote получает базовый URL владельца.
+     */
+    public <T> T viaOwner(String key, Function<String, T> remote, Supplier<T> local) {
+        String owner = remoteOwner(key);
+        if (owner == null) return local.get();
+        try {
+            T value = remote.apply(owner);
+            registry.counter("cubatar.cluster.forwards", "outcome", "ok").increment();
+            return value;
+        } catch (PeerUnavailableException e) {
+            registry.counter("cubatar.cluster.forwards", "outcome", "fallback").increment();
+            log.debug("Peer {} failed for {}, resolving locally: {}", owner, key, e.getMessage());
+            return local.get();
+        }
+    }
+
+    /** Выполняет call как обработку запроса пира: всё, что внутри, резолвится на этом узле. */
+    public <T> T local(Supplier<T> call) {
+        Boolean outer = FORWARDED.get();
+        FORWARDED.set(Boolean.TRUE);
+        try {
+            return call.get();
+        } finally {
+            if (outer == null) FORWARDED.remove();
+        }
+    }
+
+    /** UUID по нику у владельца. */
+    public UUID uuid(String owner, String username) {
+        String id = get(owner, "/internal/cluster/uuid/{name}", String.class, "Player not found", username);
+        if (id == null) throw new PeerUnavailableException("empty body");
+        return UUID.fromString(id.trim());
+    }
+
+    /** Профиль у владельца; null - у игрока нет скина. */
+    public SkinTexture profile(String owner, UUID uuid) {
+        return get(owner, "/internal/cluster/profile/{uuid}", SkinTexture.class, "Skin not found", uuid);
+    }
+
+    /** Сырые байты текстуры textures.minecraft.net по хешу - из кеша владельца. */
+    public byte[] texture(String owner, String hash) {
+        byte[] bytes = get(owner, "/internal/cluster/texture/{hash}", byte[].class, "Texture not found", hash);
+        if (bytes == null) throw new PeerUnavailableException("empty body");
+        return bytes;
+    }
+
+    private <T> T get(String owner, String path, Class<T> type, String notFound, Object variable) {
+        try {
+            return client.get()
+                    .uri(owner + path, variable)
+                    .retrieve()
+                    .body(type);
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode().isSameCodeAs(HttpStatus.NOT_FOUND)) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, notFound);
+            }
+            throw new ResponseStatusException(e.getStatusCode(), e.getStatusText());
+        } catch (RestClientException e) {
+            // 5xx, таймаут, узел лежит - идём наверх сами
+            throw new PeerUnavailableException(e.getMessage());
+        }
+    }
+
+    private String remoteOwner(String key) {
+        if (!enabled || ring == null || FORWARDED.get() != null) return null;
+        String owner = ring.owner(key);
+        return owner.equals(self) ? null : owner;
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    private static final class PeerUnavailableException extends RuntimeException {
+
+        PeerUnavailableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.tokishu.cubatar.module.cluster.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Кольцо консистентного хеширования: у каждого узла virtualNodes точек на
+ * кольце, ключ принадлежит первой точке по часовой стрелке от своего хеша.
+ * Точки узла размазаны по всему кольцу, так что нагрузка делится почти
+ * поровну, а при добавлении или уходе узла переезжает только его доля
+ * ключей - остальные кеши остаются тёплыми.
+ * <p>
+ * Хеш - первые 8 байт MD5: кольцо должно совпадать на всех узлах, поэтому
+ * никаких String.hashCode() и случайных сидов.
+ */
+public final class HashRing {
+
+    private final long[] points;
+    private final String[] owners;
+    private final List<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("Hash ring needs at least one node");
+        // TreeMap - точки сразу по порядку; совпадение 64-битных хешей двух точек не страшно
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) ring.put(hash(node + "#" + i), node);
+        }
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+        this.nodes = List.copyOf(nodes);
+    }
+
+    /** Узел-владелец ключа. */
+    public String owner(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) h = h << 8 | (digest[i] & 0xFF);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
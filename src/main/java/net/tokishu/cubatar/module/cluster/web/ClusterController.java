@@ -0,0 +1,70 @@
+package net.tokishu.cubatar.module.cluster.web;
+
+import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.module.cluster.service.ClusterService;
+import net.tokishu.cubatar.module.resolve.MojangGateway;
+import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinTexture;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.UUID;
+
+/**
+ * Ответы узла-владельца пирам (см. {@link ClusterService}): ник, профиль и
+ * текстура из локальных кешей, на промахе - из Mojang. Без заголовка
+ * {@link ClusterService#FORWARDED_HEADER} - 400: это не публичный API.
+ * Существует только с включённым cubatar.cluster.enabled.
+ */
+@RestController
+@RequestMapping("/internal/cluster")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "cubatar.cluster.enabled", havingValue = "true")
+public class ClusterController {
+
+    private static final String MOJANG_TEXTURE_URL = "http://textures.minecraft.net/texture/";
+
+    private final ClusterService cluster;
+    private final MojangGateway gateway;
+    private final SkinResolverService resolver;
+
+    @GetMapping(value = "/uuid/{name}", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String getUUID(@PathVariable String name,
+                          @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String from) {
+        requirePeer(from);
+        return cluster.local(() -> gateway.getUUIDFromUsername(name).toString());
+    }
+
+    @GetMapping("/profile/{uuid}")
+    public ResponseEntity<SkinTexture> getProfile(@PathVariable String uuid,
+                                                  @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String from) {
+        requirePeer(from);
+        UUID id;
+        try {
+            id = UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bad request");
+        }
+        SkinTexture texture = cluster.local(() -> gateway.getSkinFromUUID(id));
+        return texture != null ? ResponseEntity.ok(texture) : ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/texture/{hash}")
+    public ResponseEntity<byte[]> getTexture(@PathVariable String hash,
+                                             @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String from) {
+        requirePeer(from);
+        if (!hash.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bad request");
+        }
+        byte[] bytes = cluster.local(() -> resolver.fetchTexture(MOJANG_TEXTURE_URL + hash).bytes());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(bytes);
+    }
+
+    private static void requirePeer(String from) {
+        if (from == null || from.isBlank()) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a cluster peer");
+    }
+}
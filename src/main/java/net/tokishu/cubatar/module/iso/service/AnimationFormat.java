@@ -0,0 +1,47 @@
+package net.tokishu.cubatar.module.iso.service;
+
+import net.tokishu.cubatar.common.AnimationEncoder;
+import net.tokishu.cubatar.common.ApngEncoder;
+import net.tokishu.cubatar.common.GifEncoder;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Во что кодировать анимацию. */
+public enum AnimationFormat {
+    /**
+     * APNG - без потерь и с полупрозрачностью. Отдаётся как image/png: так
+     * его понимают все браузеры, а без поддержки APNG виден первый кадр.
+     */
+    APNG("image/png"),
+    /** GIF - для мест без APNG: 256 цветов на кадр, прозрачность однобитная. */
+    GIF("image/gif");
+
+    private final String contentType;
+
+    AnimationFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public AnimationEncoder encoder(OutputStream out, int width, int height, int frames, int delayMs) throws IOException {
+        return switch (this) {
+            case APNG -> new ApngEncoder(out, width, height, frames, delayMs);
+            case GIF -> new GifEncoder(out, width, height, delayMs);
+        };
+    }
+
+    public static AnimationFormat parse(String format) {
+        if (format == null) return APNG;
+        return switch (format.toLowerCase()) {
+            case "apng", "png" -> APNG;
+            case "gif" -> GIF;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown format: " + format);
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package net.tokishu.cubatar.module.iso.service;
+
+/** Ракурс iso-рендера из конфига: строка "yaw/pitch" в градусах. */
+public record IsoAngle(double yaw, double pitch) {
+
+    public static IsoAngle parse(String angle) {
+        String[] parts = angle.trim().split("/");
+        if (parts.length != 2) throw new IllegalArgumentException("Expected yaw/pitch, got '" + angle + "'");
+        return new IsoAngle(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]));
+    }
+}
@@ -0,0 +1,167 @@
+package net.tokishu.cubatar.module.iso.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import net.tokishu.cubatar.common.AnimationEncoder;
+import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
+import net.tokishu.cubatar.common.SkinModel;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Animation;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Backend;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Part;
+import net.tokishu.cubatar.module.resolve.LoadedSkin;
+import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinSource;
+import net.tokishu.cubatar.module.resolve.TextureCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Анимированные рендеры в полный рост: {@code animate=spin} - оборот
+ * вокруг вертикали, {@code animate=walk} - цикл шага. Вместо WebGL-страницы
+ * /view для встраивания хватает одной картинки.
+ * <p>
+ * Кадры рисуются параллельно на виртуальных потоках (не больше parallelism
+ * одновременно, в порядке кадров) по общей на всю анимацию геометрии
+ * ({@link IsometricRenderer#renderFrame}), а кодировщик забирает их по
+ * порядку, как только кадр готов: сжатие первых кадров идёт, пока рисуются
+ * последние. Готовый файл кешируется в кеше рендеров, как и PNG.
+ * Ожидание кадров в загрузчике кеша безопасно: {@link RenderCache} вызывает
+ * его на потоке запроса вне замка карты, так что прикреплённого к носителю
+ * потока, ждущего дочерние, не бывает.
+ */
+@Service
+public class IsoAnimationService {
+
+    /** Полный оборот SPIN и полный цикл шага WALK. */
+    private static final int SPIN_MS = 2400;
+    private static final int WALK_MS = 800;
+    /** Браузеры задержки меньше 20 мс считают за 100 мс - быстрее не бывает. */
+    private static final int MIN_DELAY_MS = 20;
+
+    private final SkinResolverService resolver;
+    private final RenderCache renders;
+    private final PngResponseWriter writer;
+    private final Backend backend;
+    private final int maxFrames;
+    private final int maxSize;
+    private final int parallelism;
+
+    public IsoAnimationService(SkinResolverService resolver, RenderCache renders, PngResponseWriter writer,
+                               @Value("${cubatar.render.backend}") Backend backend,
+                               @Value("${cubatar.animation.max-frames}") int maxFrames,
+                               @Value("${cubatar.animation.max-size}") int maxSize,
+                               @Value("${cubatar.animation.parallelism}") int parallelism) {
+        this.resolver = resolver;
+        this.renders = renders;
+        this.writer = writer;
+        this.backend = backend;
+        this.maxFrames = maxFrames;
+        this.maxSize = maxSize;
+        this.parallelism = parallelism;
+    }
+
+    public void process(String input, int size, double yaw, double pitch, Animation animation, int frames,
+                        boolean walking, Boolean slimOverride, boolean cape, AnimationFormat format,
+                        HttpServletRequest request, HttpServletResponse response) {
+        validate(size, frames);
+        SkinSource source = resolver.resolveSource(input);
+        String capeUrl = cape ? source.capeUrl() : null;
+        // Поза у WALK меняется по кадрам, у SPIN - та, что запрошена
+        String pose = animation.name().toLowerCase() + (animation == Animation.SPIN && walking ? "-walk" : "") + "/" + frames;
+        RenderKey key = new RenderKey(source.hash(), capeUrl == null ? null : TextureCache.keyOf(capeUrl),
+                "iso-" + format.name().toLowerCase(), Part.FULL.name(), size, yaw, pitch, pose,
+                SkinModel.resolve(slimOverride, source.slim()), null);
+        if (writer.checkNotModified(key.etag(), request, response)) return;
+
+        byte[] body = renders.getIfPresent(key);
+        if (body == null) {
+            // Текстуры - до входа в кеш; кадры рисуются уже в его загрузчике, без замка
+            LoadedSkin loaded = resolver.loadWithCape(source, key.cape() != null);
+            body = renders.getEncoded(key, () -> animate(loaded, key, animation, frames,
+                    animation == Animation.SPIN && walking, format));
+        }
+        writer.write(body, format.contentType(), response);
+    }
+
+    public static Animation parseAnimation(String animate) {
+        return switch (animate.toLowerCase()) {
+            case "spin" -> Animation.SPIN;
+            case "walk" -> Animation.WALK;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown animation: " + animate);
+        };
+    }
+
+    private void validate(int size, int frames) {
+        if (size < 1 || size > maxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be between 1 and " + maxSize);
+        }
+        if (frames < 2 || frames > maxFrames) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "frames must be between 2 and " + maxFrames);
+        }
+    }
+
+    private byte[] animate(LoadedSkin loaded, RenderKey key, Animation animation, int frames, boolean walking,
+                           AnimationFormat format) {
+        PreparedSkin skin = loaded.skin().prepared();
+        BufferedImage cape = loaded.cape() != null ? loaded.cape().image() : null;
+        int period = animation == Animation.SPIN ? SPIN_MS : WALK_MS;
+        int delay = Math.max(MIN_DELAY_MS, Math.round((float) period / frames));
+
+        // Честный семафор: кадры стартуют по порядку, и кодировщику не приходится ждать первые
+        Semaphore permits = new Semaphore(parallelism, true);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<BufferedImage>> pending = new ArrayList<>(frames);
+            for (int i = 0; i < frames; i++) {
+                int frame = i;
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        return IsometricRenderer.renderFrame(skin, cape, key.size(), key.yaw(), key.pitch(), Part.FULL,
+                                walking, key.slim(), animation, frame, frames, backend);
+                    } finally {
+                        permits.release();
+                    }
+                }, pool));
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            AnimationEncoder encoder = null;
+            for (CompletableFuture<BufferedImage> future : pending) {
+                BufferedImage frame = join(future);
+                if (encoder == null) encoder = format.encoder(out, frame.getWidth(), frame.getHeight(), frames, delay);
+                encoder.addFrame(frame);
+            }
+            encoder.finish();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error while encoding animation", e);
+        }
+    }
+
+    private static BufferedImage join(CompletableFuture<BufferedImage> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package net.tokishu.cubatar.module.iso.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Собирает планы iso-рендеров для углов по умолчанию до того, как узел
+ * станет готов: первые запросы к /v1/iso и /v2/avatar не платят за
+ * геометрию. Углы - "yaw/pitch" из {@code cubatar.render.precompile-angles}.
+ */
+@Slf4j
+@Component
+public class IsoPlanPrecompiler implements ApplicationRunner {
+
+    private final List<String> angles;
+    private final List<Integer> sizes;
+
+    public IsoPlanPrecompiler(@Value("${cubatar.render.precompile-angles}") List<String> angles,
+                              @Value("${cubatar.render.precompile-sizes}") List<Integer> sizes) {
+        this.angles = angles;
+        this.sizes = sizes;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        int plans = 0;
+        for (String angle : angles) {
+            IsoAngle parsed = IsoAngle.parse(angle);
+            for (int size : sizes) {
+                plans += IsometricRenderer.precompile(parsed.yaw(), parsed.pitch(), size);
+            }
+        }
+        log.info("Precompiled {} iso render plans in {} ms", plans,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
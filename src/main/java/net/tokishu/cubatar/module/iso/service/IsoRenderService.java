@@ -1,33 +1,104 @@
 package net.tokishu.cubatar.module.iso.service;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.ImageFormat;
 import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
 import net.tokishu.cubatar.common.SkinModel;
 import net.tokishu.cubatar.module.iso.util.IsometricRenderer;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Backend;
 import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Part;
-import net.tokishu.cubatar.module.resolve.ResolvedSkin;
+import net.tokishu.cubatar.module.resolve.LoadedSkin;
 import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinSource;
+import net.tokishu.cubatar.module.resolve.TextureCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
-@RequiredArgsConstructor
 public class IsoRenderService {
 
     private final SkinResolverService resolver;
+    private final RenderCache renders;
     private final PngResponseWriter writer;
+    private final Backend backend;
+    /** Ракурсы, которые рисуются по таблице текселей (см. {@link IsometricRenderer#renderLut}). */
+    private final Set<IsoAngle> lutAngles;
+    private final int lutMaxSize;
+
+    public IsoRenderService(SkinResolverService resolver, RenderCache renders, PngResponseWriter writer,
+                            @Value("${cubatar.render.backend}") Backend backend,
+                            @Value("${cubatar.render.lut-angles}") List<String> lutAngles,
+                            @Value("${cubatar.render.lut-max-size}") int lutMaxSize) {
+        this.resolver = resolver;
+        this.renders = renders;
+        this.writer = writer;
+        this.backend = backend;
+        this.lutAngles = lutAngles.stream().map(IsoAngle::parse).collect(Collectors.toUnmodifiableSet());
+        this.lutMaxSize = lutMaxSize;
+    }
 
     public void process(String input, int size, double yaw, double pitch,
-                        Part part, boolean walking, Boolean slimOverride, boolean cape,
-                        HttpServletResponse response) {
-        ResolvedSkin skin = resolver.resolveWithModel(input);
-        Boolean slim = SkinModel.resolve(slimOverride, skin.slim());
-        BufferedImage capeImage = cape && part != Part.HEAD && skin.capeUrl() != null
-                ? resolver.fetchTexture(skin.capeUrl())
-                : null;
-        BufferedImage image = IsometricRenderer.render(skin.image(), capeImage, size, yaw, pitch, part, walking, slim);
-        writer.write(image, response);
+                        Part part, boolean walking, Boolean slimOverride, boolean cape, String format,
+                        HttpServletRequest request, HttpServletResponse response) {
+        ImageFormat imageFormat = writer.negotiate(format, request, response);
+        SkinSource source = resolver.resolveSource(input);
+        RenderKey key = key(source, size, yaw, pitch, part, walking, slimOverride, cape, imageFormat);
+        if (writer.checkNotModified(key.etag(), request, response)) return;
+        writer.write(render(source, key), imageFormat.contentType(), response);
+    }
+
+    /** Готовая картинка в format - из кеша рендеров или отрендеренная. */
+    public byte[] render(String input, int size, double yaw, double pitch,
+                         Part part, boolean walking, Boolean slimOverride, boolean cape, ImageFormat format) {
+        SkinSource source = resolver.resolveSource(input);
+        return render(source, key(source, size, yaw, pitch, part, walking, slimOverride, cape, format));
+    }
+
+    /**
+     * Ключ с нормализованными параметрами: голове не важны поза, модель и
+     * плащ (у неё нет конечностей), так что /v1/iso/head с любыми из них -
+     * одна запись кеша и один ETag.
+     */
+    private RenderKey key(SkinSource source, int size, double yaw, double pitch,
+                          Part part, boolean walking, Boolean slimOverride, boolean cape, ImageFormat format) {
+        boolean head = part == Part.HEAD;
+        String capeUrl = cape && !head ? source.capeUrl() : null;
+        return new RenderKey(source.hash(), capeUrl == null ? null : TextureCache.keyOf(capeUrl),
+                "iso", part.name(), size, yaw, pitch,
+                head ? null : walking ? "walk" : "stand",
+                head ? null : SkinModel.resolve(slimOverride, source.slim()), format);
+    }
+
+    /**
+     * Скин и плащ качаются (параллельно) и декодируются только при промахе
+     * кеша рендеров - и до входа в него: загрузка ждёт свои виртуальные
+     * потоки, и в загрузчике кеша ей делать нечего.
+     */
+    private byte[] render(SkinSource source, RenderKey key) {
+        byte[] cached = renders.getIfPresent(key);
+        if (cached != null) return cached;
+        LoadedSkin loaded = resolver.loadWithCape(source, key.cape() != null);
+        return renders.get(key, () -> draw(loaded, key));
+    }
+
+    private BufferedImage draw(LoadedSkin loaded, RenderKey key) {
+        BufferedImage capeImage = loaded.cape() != null ? loaded.cape().image() : null;
+        Part part = Part.valueOf(key.part());
+        boolean walking = "walk".equals(key.pose());
+        // Частые ракурсы - по таблице текселей; картинка та же, что у backend
+        if (key.size() <= lutMaxSize && lutAngles.contains(new IsoAngle(key.yaw(), key.pitch()))) {
+            return IsometricRenderer.renderLut(loaded.skin().prepared(), capeImage, key.size(), key.yaw(), key.pitch(),
+                    part, walking, key.slim());
+        }
+        return IsometricRenderer.render(loaded.skin().prepared(), capeImage, key.size(), key.yaw(), key.pitch(),
+                part, walking, key.slim(), backend);
     }
 }
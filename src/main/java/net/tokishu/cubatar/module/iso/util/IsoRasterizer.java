@@ -0,0 +1,441 @@
+package net.tokishu.cubatar.module.iso.util;
+
+import net.tokishu.cubatar.common.SrcOver;
+import net.tokishu.cubatar.common.TexelLut;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Бэкенд {@link IsometricRenderer.Backend#RASTER}: грани-параллелограммы
+ * растеризуются прямо в {@code int[]} результата, без обрезанных и
+ * затемнённых копий текстур, без Graphics2D и без сортировки Quad'ов через
+ * boxed Comparator. Видимость решает буфер глубины на пиксель, затемнение
+ * считается на лету.
+ * <p>
+ * Результат обязан совпадать с Java2D-бэкендом до пикселя, поэтому здесь
+ * повторена его арифметика: какой путь DrawImage выбирает для матрицы
+ * (копия со сдвигом на ближайший пиксель или общий transform-цикл),
+ * обратная матрица по формулам {@code AffineTransform.createInverse},
+ * обход центров пикселей в фиксированной точке 32.32 с теми же границами
+ * строк, что у TransformHelper, и SrcOver с таблицами mul8/div8 ({@link SrcOver}).
+ * <p>
+ * Глубина пикселя - место грани в порядке глубины центров, тот же ключ,
+ * что у painter's-сортировки, а не интерполированный z: раздутые вторые
+ * слои пересекают базовые коробки, и честный z-тест показывал бы на швах
+ * торчащие кромки, которых в текущих рендерах нет. Зато грани идут от
+ * ближней к дальней: непрозрачный пиксель пишется один раз, всё, что за
+ * ним, отбрасывается тестом до выборки текстуры. Полупрозрачные тексели
+ * (SrcOver зависит от порядка) смешиваются вторым проходом, от дальних к
+ * ближним, только поверх пикселей, чья непрозрачная грань дальше их.
+ * <p>
+ * Тот же обход умеет вместо отрисовки записать, какой тексель какой грани
+ * попадает в какой пиксель, - {@link #record} собирает из этого
+ * {@link TexelLut} для фиксированных ракурсов.
+ * <p>
+ * Не потокобезопасен: экземпляр - набор рабочих буферов, который берётся
+ * из пула на один рендер ({@link #acquire()} / {@link #release}). Пул, а не
+ * ThreadLocal: запросы идут в виртуальных потоках, у каждого свой
+ * ThreadLocal, и буферы не переживали бы запрос.
+ */
+final class IsoRasterizer {
+
+    /** 1.0 в фиксированной точке 32.32 TransformHelper. */
+    private static final double FIXED_ONE = 4294967296.0;
+
+    /** Допуск DrawImage, при котором матрица считается прямоугольной / целочисленной. */
+    private static final double MAX_TX_ERROR = .0001;
+
+    private static final int INTS = 5;    // offset, stride, w, h, mirrored
+    private static final int DOUBLES = 7;  // m00 m10 m01 m11 m02 m12, depth
+
+    private static final ArrayBlockingQueue<IsoRasterizer> POOL =
+            new ArrayBlockingQueue<>(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private int width;
+    private int height;
+    private int[] target;
+    /** Где в target пиксель (0, 0) холста и сколько int'ов в строке target. */
+    private int targetOffset;
+    private int targetStride;
+    /** Номер (в порядке глубины) грани, чей непрозрачный тексель лежит в пикселе; -1 - никакой. */
+    private int[] depth = new int[0];
+
+    private int faces;
+    private int[][] texels = new int[32][];
+    private int[] ints = new int[32 * INTS];
+    private float[] shades = new float[32];
+    private double[] doubles = new double[32 * DOUBLES];
+    private int[] order = new int[32];
+    private int[] rank = new int[32];
+    private boolean[] translucent = new boolean[32];
+    /** Грань из текстуры плаща - для записи в {@link TexelLut}. */
+    private boolean[] cape = new boolean[32];
+    /** Куда пишет {@link #record}; null - обычная отрисовка. */
+    private TexelLut.Builder recording;
+    private final double[] inverse = new double[6];
+
+    // Последняя текстура: у рендера их одна-две (скин и плащ)
+    private BufferedImage lastImage;
+    private int[] lastPixels;
+    private int lastOffset;
+    private int lastStride;
+
+    private IsoRasterizer() {}
+
+    static IsoRasterizer acquire() {
+        IsoRasterizer raster = POOL.poll();
+        return raster != null ? raster : new IsoRasterizer();
+    }
+
+    static void release(IsoRasterizer raster) {
+        // Скины не должны жить в пуле дольше рендера
+        Arrays.fill(raster.texels, 0, raster.faces, null);
+        raster.lastImage = null;
+        raster.lastPixels = null;
+        raster.target = null;
+        POOL.offer(raster);
+    }
+
+    /** Новый кадр: прозрачный холст w x h и пустой буфер глубины. */
+    BufferedImage begin(int w, int h) {
+        BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        begin(w, h, ((DataBufferInt) result.getRaster().getDataBuffer()).getData(), 0, w);
+        return result;
+    }
+
+    /**
+     * Новый кадр прямо в чужой ARGB-растр dst: холст w x h начинается с
+     * dst[offset], строки через stride int'ов. Эти пиксели dst должны быть
+     * прозрачными - как у свежего холста из {@link #begin(int, int)}.
+     */
+    void begin(int w, int h, int[] dst, int offset, int stride) {
+        width = w;
+        height = h;
+        target = dst;
+        targetOffset = offset;
+        targetStride = stride;
+        if (depth.length < w * h) depth = new int[w * h];
+        Arrays.fill(depth, 0, w * h, -1);
+        faces = 0;
+    }
+
+    /** Новая запись таблицы w x h: грани копятся так же, как для {@link #begin}, холста нет. */
+    void beginRecording(int w, int h) {
+        width = w;
+        height = h;
+        target = null;
+        faces = 0;
+    }
+
+    /**
+     * Грань для {@link #record}: как {@link #face}, но вместо картинки -
+     * ширина текстуры (скина или, при cape, плаща), индексы текселей
+     * считаются по ней.
+     */
+    void face(boolean cape, int texWidth, int sx, int sy, int sw, int sh, boolean mirrored, float shade,
+              double m00, double m10, double m01, double m11, double m02, double m12, double centerDepth) {
+        add(null, sy * texWidth + sx, texWidth, cape, sw, sh, mirrored, shade, m00, m10, m01, m11, m02, m12, centerDepth);
+    }
+
+    /**
+     * Грань: прямоугольник (sx, sy, sw, sh) текстуры tex, натянутый матрицей
+     * m** как у {@code drawImage(img, transform)}; mirrored - текстура
+     * отражается по горизонтали, shade - множитель RGB, centerDepth -
+     * глубина центра грани (больше - ближе к камере).
+     */
+    void face(BufferedImage tex, int sx, int sy, int sw, int sh, boolean mirrored, float shade,
+              double m00, double m10, double m01, double m11, double m02, double m12, double centerDepth) {
+        if (tex != lastImage) bind(tex);
+        add(lastPixels, lastOffset + sy * lastStride + sx, lastStride, false, sw, sh, mirrored, shade,
+                m00, m10, m01, m11, m02, m12, centerDepth);
+    }
+
+    private void add(int[] pixels, int offset, int stride, boolean fromCape, int sw, int sh, boolean mirrored, float shade,
+                     double m00, double m10, double m01, double m11, double m02, double m12, double centerDepth) {
+        if (faces == order.length) grow();
+
+        int i = faces * INTS;
+        ints[i] = offset;
+        ints[i + 1] = stride;
+        ints[i + 2] = sw;
+        ints[i + 3] = sh;
+        ints[i + 4] = mirrored ? 1 : 0;
+        int d = faces * DOUBLES;
+        doubles[d] = m00;
+        doubles[d + 1] = m10;
+        doubles[d + 2] = m01;
+        doubles[d + 3] = m11;
+        doubles[d + 4] = m02;
+        doubles[d + 5] = m12;
+        doubles[d + 6] = centerDepth;
+        texels[faces] = pixels;
+        cape[faces] = fromCape;
+        shades[faces] = shade;
+        faces++;
+    }
+
+    /** Растеризует накопленные грани в холст из {@link #begin(int, int, int[], int, int)}. */
+    void finish() {
+        sort();
+        for (int i = faces - 1; i >= 0; i--) draw(order[i], false);
+        for (int i = 0; i < faces; i++) {
+            if (translucent[order[i]]) draw(order[i], true);
+        }
+    }
+
+    /**
+     * Записывает накопленные с {@link #beginRecording} грани в out - от
+     * дальней к ближней, каждый пиксель каждой грани, без теста глубины:
+     * что закроет непрозрачный тексель, решает уже таблица по пикселям скина.
+     */
+    void record(TexelLut.Builder out) {
+        sort();
+        recording = out;
+        try {
+            for (int i = 0; i < faces; i++) draw(order[i], false);
+        } finally {
+            recording = null;
+        }
+    }
+
+    /** Порядок граней по глубине центров: вставками и устойчиво, как List.sort у Java2D-бэкенда - граней десятки. */
+    private void sort() {
+        for (int i = 0; i < faces; i++) {
+            double key = doubles[i * DOUBLES + 6];
+            int j = i;
+            while (j > 0 && Double.compare(doubles[order[j - 1] * DOUBLES + 6], key) > 0) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        for (int i = 0; i < faces; i++) {
+            rank[order[i]] = i;
+            translucent[i] = false;
+        }
+    }
+
+    private void bind(BufferedImage tex) {
+        lastImage = tex;
+        WritableRaster raster = tex.getRaster();
+        if (tex.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model) {
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            lastPixels = buffer.getData();
+            lastStride = model.getScanlineStride();
+            lastOffset = buffer.getOffset() - raster.getSampleModelTranslateY() * lastStride
+                    - raster.getSampleModelTranslateX();
+        } else {
+            // Плащ из ImageIO бывает любого типа; getRGB даёт тот же неумноженный ARGB
+            lastPixels = tex.getRGB(0, 0, tex.getWidth(), tex.getHeight(), null, 0, tex.getWidth());
+            lastStride = tex.getWidth();
+            lastOffset = 0;
+        }
+    }
+
+    private void grow() {
+        int n = order.length * 2;
+        texels = Arrays.copyOf(texels, n);
+        ints = Arrays.copyOf(ints, n * INTS);
+        shades = Arrays.copyOf(shades, n);
+        doubles = Arrays.copyOf(doubles, n * DOUBLES);
+        order = Arrays.copyOf(order, n);
+        rank = Arrays.copyOf(rank, n);
+        translucent = Arrays.copyOf(translucent, n);
+        cape = Arrays.copyOf(cape, n);
+    }
+
+    // ── Одна грань ───────────────────────────────────────────────────────
+
+    /**
+     * Первый проход (blend=false, от ближних граней) пишет непрозрачные
+     * тексели в ещё не занятые пиксели и помечает грань, если у неё есть
+     * полупрозрачные, не закрытые ближними; второй смешивает их.
+     */
+    private void draw(int f, boolean blend) {
+        int i = f * INTS;
+        int sw = ints[i + 2];
+        int sh = ints[i + 3];
+        int d = f * DOUBLES;
+        double m00 = doubles[d], m10 = doubles[d + 1], m01 = doubles[d + 2];
+        double m11 = doubles[d + 3], m02 = doubles[d + 4], m12 = doubles[d + 5];
+
+        // Тот же выбор пути, что в DrawImage.transformImage: сдвиг и масштаб 1:1
+        // рисуются копией со сдвигом на ближайший пиксель, остальное - transform-циклом
+        if (m01 == 0 && m10 == 0 && m00 == 1 && m11 == 1) {
+            copy(f, blend, (int) Math.floor(m02 + 0.5), (int) Math.floor(m12 + 0.5));
+            return;
+        }
+        double c2 = m00 * sw + m01 * sh + m02;
+        double c3 = m10 * sw + m11 * sh + m12;
+        double c4 = m01 * sh + m02;
+        double c5 = m11 * sh + m12;
+        boolean rectilinear = m01 == 0 && m10 == 0 && m00 > 0 && m11 > 0
+                || Math.abs(m02 - c4) < MAX_TX_ERROR && Math.abs(c3 - c5) < MAX_TX_ERROR;
+        if (rectilinear && Math.abs(c2 - m02 - sw) < MAX_TX_ERROR && Math.abs(c3 - m12 - sh) < MAX_TX_ERROR) {
+            copy(f, blend, (int) Math.floor(m02 + 0.5), (int) Math.floor(m12 + 0.5));
+            return;
+        }
+        transform(f, blend, m00, m10, m01, m11, m02, m12, c2, c3, c4, c5);
+    }
+
+    /** renderImageXform + TransformHelper: центры пикселей через обратную матрицу, 32.32. */
+    private void transform(int f, boolean blend, double m00, double m10, double m01, double m11,
+                           double m02, double m12, double c2, double c3, double c4, double c5) {
+        int sw = ints[f * INTS + 2];
+        int sh = ints[f * INTS + 3];
+
+        // Границы на устройстве - по четырём углам, в порядке UL, UR, LL, LR
+        double x1 = m02, x2 = m02, y1 = m12, y2 = m12;
+        double ux = m00 * sw + m02, uy = m10 * sw + m12;
+        if (x1 > ux) x1 = ux; else if (x2 < ux) x2 = ux;
+        if (y1 > uy) y1 = uy; else if (y2 < uy) y2 = uy;
+        if (x1 > c4) x1 = c4; else if (x2 < c4) x2 = c4;
+        if (y1 > c5) y1 = c5; else if (y2 < c5) y2 = c5;
+        if (x1 > c2) x1 = c2; else if (x2 < c2) x2 = c2;
+        if (y1 > c3) y1 = c3; else if (y2 < c3) y2 = c3;
+        int bx1 = Math.max((int) Math.floor(x1), 0);
+        int by1 = Math.max((int) Math.floor(y1), 0);
+        int bx2 = Math.min((int) Math.ceil(x2), width);
+        int by2 = Math.min((int) Math.ceil(y2), height);
+        if (bx2 <= bx1 || by2 <= by1) return;
+        if (!invert(m00, m10, m01, m11, m02, m12)) return;
+
+        double i00 = inverse[0], i10 = inverse[1], i01 = inverse[2], i11 = inverse[3];
+        double ox = bx1 + 0.5, oy = by1 + 0.5;
+        long xbase = (long) ((ox * i00 + oy * i01 + inverse[4]) * FIXED_ONE);
+        long ybase = (long) ((ox * i10 + oy * i11 + inverse[5]) * FIXED_ONE);
+        long dxdx = (long) (i00 * FIXED_ONE), dydx = (long) (i10 * FIXED_ONE);
+        long dxdy = (long) (i01 * FIXED_ONE), dydy = (long) (i11 * FIXED_ONE);
+
+        long n = bx2 - bx1;
+        long xLimit = (long) sw << 32, yLimit = (long) sh << 32;
+
+        for (int dy = by1; dy < by2; dy++, xbase += dxdy, ybase += dydy) {
+            // Край строки TransformHelper ищет перебором: первый и последний пиксель, чей центр
+            // попал в текстуру. В 32.32 координата по строке линейна без округлений, так что
+            // попадание - отрезок, и его концы считаются делением
+            long e1 = Math.max(Math.max(low(xbase, dxdx, xLimit), low(ybase, dydx, yLimit)), 0);
+            long e2 = Math.min(Math.min(high(xbase, dxdx, xLimit), high(ybase, dydx, yLimit)), n);
+            if (e1 >= e2) continue;
+            span(f, blend, dy * width + bx1 + (int) e1, (int) (e2 - e1),
+                    xbase + e1 * dxdx, ybase + e1 * dydx, dxdx, dydx);
+        }
+    }
+
+    /** renderImageCopy: текстура 1:1 в целочисленной позиции. */
+    private void copy(int f, boolean blend, int left, int top) {
+        int sw = ints[f * INTS + 2];
+        int sh = ints[f * INTS + 3];
+        int x0 = Math.max(left, 0), x1 = Math.min(left + sw, width);
+        int y0 = Math.max(top, 0), y1 = Math.min(top + sh, height);
+        if (x0 >= x1) return;
+        for (int dy = y0; dy < y1; dy++) {
+            span(f, blend, dy * width + x0, x1 - x0, (long) (x0 - left) << 32, (long) (dy - top) << 32, 1L << 32, 0);
+        }
+    }
+
+    /** Первый k >= 0, с которого 0 <= v + k*step < limit. */
+    private static long low(long v, long step, long limit) {
+        if (step > 0) return v >= 0 ? 0 : Math.ceilDiv(-v, step);
+        if (step < 0) return v < limit ? 0 : Math.ceilDiv(v - limit + 1, -step);
+        return v >= 0 && v < limit ? 0 : Long.MAX_VALUE;
+    }
+
+    /** Последний k, при котором 0 <= v + k*step < limit, плюс один; 0 - таких нет. */
+    private static long high(long v, long step, long limit) {
+        if (step > 0) return v < limit ? Math.floorDiv(limit - 1 - v, step) + 1 : 0;
+        if (step < 0) return v >= 0 ? Math.floorDiv(v, -step) + 1 : 0;
+        return v >= 0 && v < limit ? Long.MAX_VALUE : 0;
+    }
+
+    /**
+     * count пикселей строки с at; x, y - позиция в текстуре (32.32), dxdx, dydx -
+     * её шаг на пиксель. Всё, что относится к грани, поднято из цикла.
+     */
+    private void span(int f, boolean blend, int at, int count, long x, long y, long dxdx, long dydx) {
+        int[] src = texels[f];
+        int[] target = this.target;
+        int[] depth = this.depth;
+        int i = f * INTS;
+        int base = ints[i], stride = ints[i + 1], last = ints[i + 2] - 1;
+        boolean mirrored = ints[i + 4] != 0;
+        float shade = shades[f];
+        int r = rank[f];
+
+        if (recording != null) {
+            for (int end = at + count; at < end; at++, x += dxdx, y += dydx) {
+                int u = (int) (x >> 32);
+                recording.add(at, base + (int) (y >> 32) * stride + (mirrored ? last - u : u), cape[f], mirrored ? 1 : 0, shade);
+            }
+            return;
+        }
+
+        // at - пиксель холста (он же индекс в depth), t - тот же пиксель в target
+        int row = at / width;
+        int t = targetOffset + row * targetStride + at - row * width;
+        for (int end = at + count; at < end; at++, t++, x += dxdx, y += dydx) {
+            // Пиксель уже занят ближней непрозрачной гранью - текстура не нужна
+            if (depth[at] > r) continue;
+            int u = (int) (x >> 32);
+            int argb = src[base + (int) (y >> 32) * stride + (mirrored ? last - u : u)];
+            int a = argb >>> 24;
+            if (a == 255) {
+                if (blend) continue;
+                target[t] = shade < 1f ? shade(argb, shade) : argb;
+                depth[at] = r;
+            } else if (a != 0) {
+                if (!blend) {
+                    translucent[f] = true;
+                    continue;
+                }
+                // Отражённая грань Java2D-бэкенда (FaceTextures) прошла SrcOver на прозрачный холст - те же округления
+                if (mirrored) argb = SrcOver.over(0, argb);
+                target[t] = SrcOver.over(target[t], shade < 1f ? shade(argb, shade) : argb);
+            }
+        }
+    }
+
+    private static int shade(int argb, float shade) {
+        int r = (int) (((argb >> 16) & 0xFF) * shade);
+        int g = (int) (((argb >> 8) & 0xFF) * shade);
+        int b = (int) ((argb & 0xFF) * shade);
+        return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    /** AffineTransform.createInverse по состояниям матрицы - ради тех же округлений. */
+    private boolean invert(double m00, double m10, double m01, double m11, double m02, double m12) {
+        double[] t = inverse;
+        if (m01 == 0 && m10 == 0) {
+            if (m00 == 0 || m11 == 0) return false;
+            t[0] = 1.0 / m00;
+            t[1] = 0;
+            t[2] = 0;
+            t[3] = 1.0 / m11;
+            t[4] = -m02 / m00;
+            t[5] = -m12 / m11;
+        } else if (m00 == 0 && m11 == 0) {
+            t[0] = 0;
+            t[1] = 1.0 / m01;
+            t[2] = 1.0 / m10;
+            t[3] = 0;
+            t[4] = -m12 / m10;
+            t[5] = -m02 / m01;
+        } else {
+            double det = m00 * m11 - m01 * m10;
+            if (Math.abs(det) <= Double.MIN_VALUE) return false;
+            t[0] = m11 / det;
+            t[1] = -m10 / det;
+            t[2] = -m01 / det;
+            t[3] = m00 / det;
+            t[4] = (m01 * m12 - m11 * m02) / det;
+            t[5] = (m10 * m02 - m00 * m12) / det;
+        }
+        return true;
+    }
+}
@@ -1,13 +1,23 @@
 package net.tokishu.cubatar.module.iso.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.experimental.UtilityClass;
+import net.tokishu.cubatar.common.FaceTextures;
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.common.PreparedSkin.Region;
+import net.tokishu.cubatar.common.TexelLut;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Псевдо-3D рендер модели игрока: набор коробок в воксельных координатах
@@ -27,6 +37,24 @@ import java.util.List;
  * Поза: у конечности есть шарнир (pivot) - горизонтальная ось, вокруг
  * которой коробка качается до глобальных поворотов, как rotationPoint у
  * моделей в игре.
+ * <p>
+ * Геометрия общая, отрисовка - одним из {@link Backend}: Graphics2D по
+ * готовым Quad'ам или {@link IsoRasterizer} прямо в {@code int[]} с
+ * z-буфером; картинки у них совпадают до пикселя.
+ * <p>
+ * От пикселей скина геометрия не зависит - только от части модели, позы,
+ * slim/legacy, набора вторых слоёв, плаща, углов и размера. Поэтому она
+ * собирается один раз в {@link Plan} (холст, видимые грани с проекцией и
+ * UV-прямоугольниками в вокселях) и кешируется; рендер - это найти план и
+ * натянуть на его грани текстуры.
+ * <p>
+ * Для частых фиксированных ракурсов есть {@link #renderLut}: по плану один
+ * раз записывается {@link TexelLut}, и рендер - это выборка текселей по
+ * таблице, без матриц и без растеризации.
+ * <p>
+ * Анимации ({@link Animation}) - те же планы, по одному на кадр, но с общим
+ * холстом на все кадры: модель в них не "прыгает", а кадры можно рисовать
+ * независимо и параллельно ({@link #renderFrame}).
  */
 @UtilityClass
 public class IsometricRenderer {
@@ -34,6 +62,16 @@ public class IsometricRenderer {
     /** Какую часть модели рендерить. */
     public enum Part {HEAD, BODY, FULL}
 
+    /**
+     * Чем рисовать грани: JAVA2D - drawImage с AffineTransform по
+     * painter's-сортировке, RASTER - {@link IsoRasterizer} без копий текстур
+     * и без Graphics2D.
+     */
+    public enum Backend {JAVA2D, RASTER}
+
+    /** Анимация: SPIN - полный оборот вокруг вертикали от yaw, WALK - цикл шага на месте. */
+    public enum Animation {SPIN, WALK}
+
     /** Раздутие коробки второго слоя в вокселях с каждой стороны - как в игре. */
     private static final double HAT_INFLATE = 0.5;
     private static final double LAYER_INFLATE = 0.25;
@@ -50,12 +88,32 @@ public class IsometricRenderer {
     private static final double CAPE_TILT = Math.toRadians(12);
     private static final double CAPE_TILT_WALK = Math.toRadians(32);
 
+    /** Планов немного (углы в запросах повторяются), а весят они единицы килобайт. */
+    private static final int MAX_PLANS = 2048;
+
+    private static final Cache<PlanKey, Plan> PLANS = Caffeine.newBuilder()
+            .maximumSize(MAX_PLANS)
+            .build();
+
+    /** Анимация - десятки планов сразу, их держим меньше. */
+    private static final int MAX_ANIMATIONS = 128;
+
+    private static final Cache<AnimationKey, Plan[]> ANIMATIONS = Caffeine.newBuilder()
+            .maximumSize(MAX_ANIMATIONS)
+            .build();
+
     // ── Публичное API ────────────────────────────────────────────────────
 
     /** Рендер без плаща - см. полную сигнатуру ниже. */
-    public static BufferedImage render(BufferedImage rawSkin, int size, double yawDeg, double pitchDeg,
+    public static BufferedImage render(PreparedSkin skin, int size, double yawDeg, double pitchDeg,
+                                       Part part, boolean walking, Boolean slim) {
+        return render(skin, null, size, yawDeg, pitchDeg, part, walking, slim);
+    }
+
+    /** Рендер Java2D-бэкендом - см. полную сигнатуру ниже. */
+    public static BufferedImage render(PreparedSkin skin, BufferedImage cape, int size, double yawDeg, double pitchDeg,
                                        Part part, boolean walking, Boolean slim) {
-        return render(rawSkin, null, size, yawDeg, pitchDeg, part, walking, slim);
+        return render(skin, cape, size, yawDeg, pitchDeg, part, walking, slim, Backend.JAVA2D);
     }
 
     /**
@@ -64,52 +122,203 @@ public class IsometricRenderer {
      * @param walking поза ходьбы: правая рука и левая нога вперёд, как в игре
      * @param slim    модель из профиля Mojang; null - неизвестна, определяем
      *                эвристикой по прозрачности
+     * @param backend чем рисовать; результат от него не зависит
      */
-    public static BufferedImage render(BufferedImage rawSkin, BufferedImage cape, int size, double yawDeg, double pitchDeg,
-                                       Part part, boolean walking, Boolean slim) {
-        if (rawSkin == null) return null;
-
-        BufferedImage skin = normalizeSkin(rawSkin);
-        boolean isLegacy = rawSkin.getHeight() == 32;
-        boolean isAlex = !isLegacy && (slim != null ? slim : detectAlex(skin));
-        float scale = skin.getWidth() / 64f;
-        double ppv = size / 8.0; // пикселей на воксель
-
-        double yaw = Math.toRadians(yawDeg);
-        double pitch = Math.toRadians(pitchDeg);
+    public static BufferedImage render(PreparedSkin prepared, BufferedImage cape, int size, double yawDeg, double pitchDeg,
+                                       Part part, boolean walking, Boolean slim, Backend backend) {
+        if (prepared == null) return null;
+
+        boolean isLegacy = prepared.legacy();
+        boolean isAlex = !isLegacy && (slim != null ? slim : prepared.slimLayout());
+        Plan plan = plan(planKey(part, walking, isAlex, isLegacy, overlays(part, isAlex, isLegacy, prepared),
+                cape != null, yawDeg, pitchDeg, size));
+
+        return backend == Backend.RASTER
+                ? rasterize(plan, prepared.image(), cape)
+                : paint(plan, prepared.image(), cape);
+    }
 
-        List<Box> boxes = buildBoxes(part, walking, isAlex, isLegacy, skin, scale, cape);
+    /**
+     * То же, что {@link #render}, но по {@link TexelLut} - таблице "пиксель ->
+     * тексели", записанной растеризатором один раз на план, размер скина и
+     * размер плаща. Для ракурсов, которые запрашивают постоянно: первый
+     * рендер платит за запись, остальные - только за выборку.
+     */
+    public static BufferedImage renderLut(PreparedSkin prepared, BufferedImage cape, int size, double yawDeg,
+                                          double pitchDeg, Part part, boolean walking, Boolean slim) {
+        if (prepared == null) return null;
+
+        boolean isLegacy = prepared.legacy();
+        boolean isAlex = !isLegacy && (slim != null ? slim : prepared.slimLayout());
+        PlanKey key = planKey(part, walking, isAlex, isLegacy, overlays(part, isAlex, isLegacy, prepared),
+                cape != null, yawDeg, pitchDeg, size);
+        int skinSize = prepared.size();
+        int capeW = key.cape() ? cape.getWidth() : 0;
+        int capeH = key.cape() ? cape.getHeight() : 0;
+        TexelLut lut = TexelLut.cached(new LutKey(key, skinSize, capeW, capeH),
+                () -> record(plan(key), skinSize, capeW, capeH));
+        return lut.render(prepared.pixels(), key.cape() ? TexelLut.texels(cape) : null);
+    }
 
-        // Плащ (16 вокселей) свисает ниже пояса, поэтому в рендере "по пояс"
-        // он не участвует в расчёте холста - иначе кадр вытягивался бы вниз
-        // пустотой. Всё, что вышло за холст, отсекает сам Graphics2D.
-        List<Box> boundsBoxes = part == Part.BODY
-                ? boxes.stream().filter(b -> !isCape(b)).toList()
-                : boxes;
-        Canvas canvas = boundingCanvas(boundsBoxes, yaw, pitch, ppv);
+    /**
+     * Кадр frame из frames анимации. Первый кадр - поза и ракурс как у
+     * {@link #render} с теми же параметрами (у WALK - середина шага, ноги
+     * вместе), но холст у всех кадров общий - объединение их габаритов.
+     * Кадры не зависят друг от друга: геометрия всей анимации собирается
+     * один раз, дальше каждый кадр только натягивает текстуры.
+     *
+     * @param walking поза ходьбы для SPIN; у WALK она и так меняется по кадрам
+     */
+    public static BufferedImage renderFrame(PreparedSkin prepared, BufferedImage cape, int size, double yawDeg,
+                                            double pitchDeg, Part part, boolean walking, Boolean slim,
+                                            Animation animation, int frame, int frames, Backend backend) {
+        if (prepared == null) return null;
+        if (frame < 0 || frame >= frames) throw new IllegalArgumentException("Frame " + frame + " of " + frames);
+
+        boolean isLegacy = prepared.legacy();
+        boolean isAlex = !isLegacy && (slim != null ? slim : prepared.slimLayout());
+        PlanKey first = planKey(part, walking && animation == Animation.SPIN, isAlex, isLegacy,
+                overlays(part, isAlex, isLegacy, prepared), cape != null, yawDeg, pitchDeg, size);
+        Plan plan = ANIMATIONS.get(new AnimationKey(first, animation, frames), IsometricRenderer::compileAnimation)[frame];
+
+        return backend == Backend.RASTER
+                ? rasterize(plan, prepared.image(), cape)
+                : paint(plan, prepared.image(), cape);
+    }
 
-        List<Quad> quads = new ArrayList<>();
-        for (Box b : boxes) {
-            for (FaceSpec f : FACE_SPECS) {
-                double nz = f.normal().rotateX(b.swing()).rotateY(yaw).rotateX(pitch).z();
-                if (Math.abs(nz) < 1e-6) continue;        // ребром к камере - вырожденная матрица
-                if (!b.doubleSided() && nz < 0) continue; // непрозрачная база: изнанку не рисуем
-                addFaceQuad(quads, skin, scale, b, f, yaw, pitch, ppv, canvas.ox(), canvas.oy());
+    /**
+     * Собирает заранее планы для этих углов и размера - все части и позы,
+     * обе модели, legacy, с плащом и без, со всеми вторыми слоями и без
+     * них. Остальные наборы слоёв соберутся при первом запросе.
+     *
+     * @return сколько планов в наборе
+     */
+    public static int precompile(double yawDeg, double pitchDeg, int size) {
+        Set<PlanKey> keys = new LinkedHashSet<>();
+        for (Part part : Part.values()) {
+            for (boolean walking : new boolean[]{false, true}) {
+                for (boolean cape : new boolean[]{false, true}) {
+                    int all = allOverlays(part);
+                    for (boolean isAlex : new boolean[]{false, true}) {
+                        keys.add(planKey(part, walking, isAlex, false, 0, cape, yawDeg, pitchDeg, size));
+                        keys.add(planKey(part, walking, isAlex, false, all, cape, yawDeg, pitchDeg, size));
+                    }
+                    keys.add(planKey(part, walking, false, true, 0, cape, yawDeg, pitchDeg, size));
+                }
             }
         }
-        quads.sort(Comparator.comparingDouble(Quad::depth));
+        // planKey сводит неважное для части (позу, модель и плащ головы) к одному ключу
+        keys.forEach(IsometricRenderer::plan);
+        return keys.size();
+    }
 
-        BufferedImage result = new BufferedImage(canvas.w(), canvas.h(), BufferedImage.TYPE_INT_ARGB);
+    private static BufferedImage paint(Plan plan, BufferedImage skin, BufferedImage cape) {
+        BufferedImage result = new BufferedImage(plan.canvas().w(), plan.canvas().h(), BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = result.createGraphics();
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
-        for (Quad q : quads) {
-            g.drawImage(q.image(), q.transform(), null);
+        for (PlanFace f : plan.painted()) {
+            BufferedImage src = f.cape() ? cape : skin;
+            UvRect crop = faceCrop(src.getWidth(), src.getHeight(), f.uv());
+            if (crop == null) continue;
+            BufferedImage tex = FaceTextures.face(src, crop.x(), crop.y(), crop.w(), crop.h(), f.mirrored(), f.shade());
+            g.drawImage(tex, new AffineTransform(f.ux() / crop.w(), f.uy() / crop.w(),
+                    f.vx() / crop.h(), f.vy() / crop.h(), f.x(), f.y()), null);
         }
         g.dispose();
         return result;
     }
 
+    /** Таблица плана для скина skinSize x skinSize и плаща capeW x capeH. */
+    private static TexelLut record(Plan plan, int skinSize, int capeW, int capeH) {
+        IsoRasterizer raster = IsoRasterizer.acquire();
+        try {
+            raster.beginRecording(plan.canvas().w(), plan.canvas().h());
+            for (PlanFace f : plan.faces()) {
+                int texW = f.cape() ? capeW : skinSize;
+                UvRect crop = faceCrop(texW, f.cape() ? capeH : skinSize, f.uv());
+                if (crop == null) continue;
+                raster.face(f.cape(), texW, crop.x(), crop.y(), crop.w(), crop.h(), f.mirrored(), f.shade(),
+                        f.ux() / crop.w(), f.uy() / crop.w(), f.vx() / crop.h(), f.vy() / crop.h(),
+                        f.x(), f.y(), f.depth());
+            }
+            TexelLut.Builder lut = new TexelLut.Builder(plan.canvas().w(), plan.canvas().h());
+            raster.record(lut);
+            return lut.build();
+        } finally {
+            IsoRasterizer.release(raster);
+        }
+    }
+
+    /** То же, что {@link #paint}, но грань уходит в растеризатор как есть: без копии текстуры. */
+    private static BufferedImage rasterize(Plan plan, BufferedImage skin, BufferedImage cape) {
+        BufferedImage result = new BufferedImage(plan.canvas().w(), plan.canvas().h(), BufferedImage.TYPE_INT_ARGB);
+        rasterize(plan, skin, cape, ((DataBufferInt) result.getRaster().getDataBuffer()).getData(), 0, plan.canvas().w());
+        return result;
+    }
+
+    /** {@link #rasterize} в чужой растр: холст плана с dst[offset], stride int'ов на строку. */
+    private static void rasterize(Plan plan, BufferedImage skin, BufferedImage cape, int[] dst, int offset, int stride) {
+        IsoRasterizer raster = IsoRasterizer.acquire();
+        try {
+            raster.begin(plan.canvas().w(), plan.canvas().h(), dst, offset, stride);
+            for (PlanFace f : plan.faces()) {
+                BufferedImage src = f.cape() ? cape : skin;
+                UvRect crop = faceCrop(src.getWidth(), src.getHeight(), f.uv());
+                if (crop == null) continue;
+                raster.face(src, crop.x(), crop.y(), crop.w(), crop.h(), f.mirrored(), f.shade(),
+                        f.ux() / crop.w(), f.uy() / crop.w(), f.vx() / crop.h(), f.vy() / crop.h(),
+                        f.x(), f.y(), f.depth());
+            }
+            raster.finish();
+        } finally {
+            IsoRasterizer.release(raster);
+        }
+    }
+
+    /**
+     * То же, что {@link #render} для HEAD без плаща, но без промежуточной
+     * картинки: растеризатор пишет прямо в чужой ARGB-растр dst (stride
+     * int'ов на строку), холст - по центру прямоугольника (x, y, w, h).
+     * Для атласов: головы рисуются параллельно в один общий растр, каждая в
+     * свою клетку со стороной не меньше {@link #headExtent}; пиксели клетки
+     * должны быть прозрачными.
+     */
+    public static void drawHead(PreparedSkin prepared, int size, double yawDeg, double pitchDeg,
+                                int[] dst, int stride, int x, int y, int w, int h) {
+        boolean isLegacy = prepared.legacy();
+        boolean isAlex = !isLegacy && prepared.slimLayout();
+        Plan plan = plan(planKey(Part.HEAD, false, isAlex, isLegacy, overlays(Part.HEAD, isAlex, isLegacy, prepared),
+                false, yawDeg, pitchDeg, size));
+        int cw = plan.canvas().w(), ch = plan.canvas().h();
+        if (cw > w || ch > h) throw new IllegalArgumentException("Head " + cw + "x" + ch + " does not fit " + w + "x" + h);
+        rasterize(plan, prepared.image(), null, dst, (y + (h - ch) / 2) * stride + x + (w - cw) / 2, stride);
+    }
+
+    /**
+     * Сторона квадрата, в который гарантированно помещается рендер HEAD при
+     * этих углах - голова вместе со шлемом, как её считает boundingCanvas.
+     * Нужна, чтобы разложить клетки атласа до того, как отрендерена первая голова.
+     */
+    public static int headExtent(int size, double yawDeg, double pitchDeg) {
+        double yaw = Math.toRadians(yawDeg);
+        double pitch = Math.toRadians(pitchDeg);
+        double ppv = size / 8.0;
+        double half = 4 + HAT_INFLATE;
+        double maxX = 0, maxY = 0;
+        for (double sx = -1; sx <= 1; sx += 2) {
+            for (double sy = -1; sy <= 1; sy += 2) {
+                for (double sz = -1; sz <= 1; sz += 2) {
+                    Vec3 c = new Vec3(sx * half, sy * half, sz * half).rotateY(yaw).rotateX(pitch);
+                    maxX = Math.max(maxX, Math.abs(c.x()) * ppv);
+                    maxY = Math.max(maxY, Math.abs(c.y()) * ppv);
+                }
+            }
+        }
+        // Куб симметричен относительно центра: ширина холста = 2*max|x|, плюс рамка в 1px
+        return (int) Math.ceil(2 * Math.max(maxX, maxY)) + 2;
+    }
+
     // ── Модель: коробки и поза ───────────────────────────────────────────
 
     /**
@@ -119,13 +328,14 @@ public class IsometricRenderer {
      * конечности - зеркальные копии правых, вторых слоёв кроме шлема нет
      * (и его тоже: у legacy другая раскладка хвоста текстуры).
      */
-    private static List<Box> buildBoxes(Part part, boolean walking, boolean isAlex, boolean isLegacy,
-                                        BufferedImage skin, float scale, BufferedImage cape) {
+    private static List<Box> buildBoxes(Part part, boolean walking, double swing, boolean isAlex, boolean isLegacy,
+                                        int overlays, boolean cape) {
         int armW = isAlex ? 3 : 4;
         double armCx = 4 + armW / 2.0;
-        // Мах конечностей: правая рука и левая нога вперёд (+Z), их пары - назад
-        double armSwing = walking ? -WALK_ARM_SWING : 0;
-        double legSwing = walking ? WALK_LEG_SWING : 0;
+        // Мах конечностей: правая рука и левая нога вперёд (+Z), их пары - назад;
+        // swing - доля полного маха (1 у статичной позы, -1..1 по кадрам цикла шага)
+        double armSwing = walking ? -WALK_ARM_SWING * swing : 0;
+        double legSwing = walking ? WALK_LEG_SWING * swing : 0;
 
         List<Box> boxes = new ArrayList<>();
         boxes.add(new Box(new Vec3(0, 4, 0), 8, 8, 8, 0, 0, 0, false, false));                 // голова
@@ -142,51 +352,72 @@ public class IsometricRenderer {
                     ? new Box(new Vec3(2, -18, 0), 4, 12, 4, 0, 16, 0, true, false, LEG_PIVOT_Y, -legSwing)
                     : new Box(new Vec3(2, -18, 0), 4, 12, 4, 16, 48, 0, false, false, LEG_PIVOT_Y, -legSwing));
         }
-        if (cape != null && part != Part.HEAD) {
+        if (cape && part != Part.HEAD) {
             // Плащ - коробка 10x16x1 со своей текстурой (64x32), висит на линии
             // плеч (y=0) вплотную к спине и качается вокруг неё как конечность;
             // flipZ - внешний дизайн из первого UV-блока смотрит назад
-            boxes.add(new Box(new Vec3(0, -8, -2.5), 10, 16, 1, 0, 0,
-                    cape, cape.getWidth() / 64f,
+            boxes.add(new Box(new Vec3(0, -8, -2.5), 10, 16, 1, 0, 0, true,
                     0, false, false, true, 0, walking ? CAPE_TILT_WALK : CAPE_TILT));
         }
 
-        if (!isLegacy) {
-            addOverlayIfPresent(boxes, skin, scale, new Box(new Vec3(0, 4, 0), 8, 8, 8, 32, 0, HAT_INFLATE, false, true));
-            if (part != Part.HEAD) {
-                addOverlayIfPresent(boxes, skin, scale, new Box(new Vec3(0, -6, 0), 8, 12, 4, 16, 32, LAYER_INFLATE, false, true));
-                addOverlayIfPresent(boxes, skin, scale, new Box(new Vec3(-armCx, -6, 0), armW, 12, 4, 40, 32, LAYER_INFLATE, false, true, ARM_PIVOT_Y, armSwing));
-                addOverlayIfPresent(boxes, skin, scale, new Box(new Vec3(armCx, -6, 0), armW, 12, 4, 48, 48, LAYER_INFLATE, false, true, ARM_PIVOT_Y, -armSwing));
-            }
-            if (part == Part.FULL) {
-                addOverlayIfPresent(boxes, skin, scale, new Box(new Vec3(-2, -18, 0), 4, 12, 4, 0, 32, LAYER_INFLATE, false, true, LEG_PIVOT_Y, legSwing));
-                addOverlayIfPresent(boxes, skin, scale, new Box(new Vec3(2, -18, 0), 4, 12, 4, 0, 48, LAYER_INFLATE, false, true, LEG_PIVOT_Y, -legSwing));
-            }
+        // Вторые слои - только те, что отобраны overlays (см. там же про legacy)
+        if (has(overlays, Region.HAT)) {
+            boxes.add(new Box(new Vec3(0, 4, 0), 8, 8, 8, 32, 0, HAT_INFLATE, false, true));
+        }
+        if (has(overlays, Region.JACKET)) {
+            boxes.add(new Box(new Vec3(0, -6, 0), 8, 12, 4, 16, 32, LAYER_INFLATE, false, true));
+        }
+        if (has(overlays, Region.RIGHT_SLEEVE)) {
+            boxes.add(new Box(new Vec3(-armCx, -6, 0), armW, 12, 4, 40, 32, LAYER_INFLATE, false, true, ARM_PIVOT_Y, armSwing));
+        }
+        if (has(overlays, Region.LEFT_SLEEVE)) {
+            boxes.add(new Box(new Vec3(armCx, -6, 0), armW, 12, 4, 48, 48, LAYER_INFLATE, false, true, ARM_PIVOT_Y, -armSwing));
+        }
+        if (has(overlays, Region.RIGHT_PANTS)) {
+            boxes.add(new Box(new Vec3(-2, -18, 0), 4, 12, 4, 0, 32, LAYER_INFLATE, false, true, LEG_PIVOT_Y, legSwing));
+        }
+        if (has(overlays, Region.LEFT_PANTS)) {
+            boxes.add(new Box(new Vec3(2, -18, 0), 4, 12, 4, 0, 48, LAYER_INFLATE, false, true, LEG_PIVOT_Y, -legSwing));
         }
         return boxes;
     }
 
-    /** Плащ - единственная коробка со своей текстурой. */
-    private static boolean isCape(Box b) {
-        return b.tex() != null;
-    }
-
-    /** Добавляет коробку второго слоя, только если в её UV-области есть хоть один непрозрачный пиксель. */
-    private static void addOverlayIfPresent(List<Box> boxes, BufferedImage skin, float scale, Box overlay) {
-        int x0 = Math.round(overlay.uvX() * scale);
-        int y0 = Math.round(overlay.uvY() * scale);
-        int w = Math.round(2 * (overlay.w() + overlay.d()) * scale);
-        int h = Math.round((overlay.d() + overlay.h()) * scale);
-        int x1 = Math.min(x0 + w, skin.getWidth());
-        int y1 = Math.min(y0 + h, skin.getHeight());
-        for (int x = x0; x < x1; x++) {
-            for (int y = y0; y < y1; y++) {
-                if (((skin.getRGB(x, y) >> 24) & 0xFF) > 0) {
-                    boxes.add(overlay);
-                    return;
-                }
-            }
+    /**
+     * Какие коробки второго слоя рисовать - битами {@link Region}: только
+     * те, что есть у части модели и в чьей развёртке есть хоть один
+     * непрозрачный пиксель. У slim рукава уже, их и проверяем по узкой
+     * развёртке, но бит один - RIGHT_SLEEVE/LEFT_SLEEVE. У legacy слоёв нет.
+     */
+    private static int overlays(Part part, boolean isAlex, boolean isLegacy, PreparedSkin skin) {
+        if (isLegacy) return 0;
+        int mask = 0;
+        if (skin.hasOverlay(Region.HAT)) mask |= bit(Region.HAT);
+        if (part != Part.HEAD) {
+            if (skin.hasOverlay(Region.JACKET)) mask |= bit(Region.JACKET);
+            if (skin.hasOverlay(isAlex ? Region.RIGHT_SLEEVE_SLIM : Region.RIGHT_SLEEVE)) mask |= bit(Region.RIGHT_SLEEVE);
+            if (skin.hasOverlay(isAlex ? Region.LEFT_SLEEVE_SLIM : Region.LEFT_SLEEVE)) mask |= bit(Region.LEFT_SLEEVE);
+        }
+        if (part == Part.FULL) {
+            if (skin.hasOverlay(Region.RIGHT_PANTS)) mask |= bit(Region.RIGHT_PANTS);
+            if (skin.hasOverlay(Region.LEFT_PANTS)) mask |= bit(Region.LEFT_PANTS);
         }
+        return mask;
+    }
+
+    /** Все вторые слои части модели - набор для {@link #precompile}. */
+    private static int allOverlays(Part part) {
+        int mask = bit(Region.HAT);
+        if (part != Part.HEAD) mask |= bit(Region.JACKET) | bit(Region.RIGHT_SLEEVE) | bit(Region.LEFT_SLEEVE);
+        if (part == Part.FULL) mask |= bit(Region.RIGHT_PANTS) | bit(Region.LEFT_PANTS);
+        return mask;
+    }
+
+    private static int bit(Region region) {
+        return 1 << region.ordinal();
+    }
+
+    private static boolean has(int overlays, Region region) {
+        return (overlays & bit(region)) != 0;
     }
 
     // ── Геометрия ────────────────────────────────────────────────────────
@@ -230,24 +461,22 @@ public class IsometricRenderer {
      * стороны при рендере. mirrored - для legacy-скинов: конечность рисуется
      * зеркальной копией правой. doubleSided - рисовать и отвёрнутые от камеры
      * грани (вторые слои). swing/pivotY - поза, см. javadoc класса.
-     * tex/texScale - собственная текстура коробки (плащ); null - используется
-     * скин и его масштаб. flipZ - коробка "носится" наружной стороной в -Z:
+     * cape - коробка плаща: UV берутся из текстуры плаща, а не скина. flipZ - коробка "носится" наружной стороной в -Z:
      * блок FRONT её раскладки показывается на грани BACK и наоборот (плащ -
      * его внешний дизайн лежит в первом блоке UV, но смотрит назад).
      */
-    private record Box(Vec3 center, int w, int h, int d, int uvX, int uvY,
-                       BufferedImage tex, float texScale,
+    private record Box(Vec3 center, int w, int h, int d, int uvX, int uvY, boolean cape,
                        double inflate, boolean mirrored, boolean doubleSided, boolean flipZ,
                        double pivotY, double swing) {
 
         Box(Vec3 center, int w, int h, int d, int uvX, int uvY,
             double inflate, boolean mirrored, boolean doubleSided) {
-            this(center, w, h, d, uvX, uvY, null, 0, inflate, mirrored, doubleSided, false, 0, 0);
+            this(center, w, h, d, uvX, uvY, false, inflate, mirrored, doubleSided, false, 0, 0);
         }
 
         Box(Vec3 center, int w, int h, int d, int uvX, int uvY,
             double inflate, boolean mirrored, boolean doubleSided, double pivotY, double swing) {
-            this(center, w, h, d, uvX, uvY, null, 0, inflate, mirrored, doubleSided, false, pivotY, swing);
+            this(center, w, h, d, uvX, uvY, false, inflate, mirrored, doubleSided, false, pivotY, swing);
         }
 
         /** Применяет позу: качает точку вокруг шарнира {y=pivotY, z=0}. */
@@ -283,7 +512,128 @@ public class IsometricRenderer {
         }) / 2.0 + b.inflate();
     }
 
-    // ── Проекция и отрисовка ─────────────────────────────────────────────
+    // ── План: проекция без текстур ───────────────────────────────────────
+
+    /**
+     * Всё, от чего зависит геометрия рендера. Для головы поза, модель и
+     * плащ ничего не меняют и сведены к одному значению - см. {@link #planKey}.
+     */
+    private record PlanKey(Part part, boolean walking, double swing, boolean alex, boolean legacy, int overlays,
+                           boolean cape, double yaw, double pitch, int size) {}
+
+    /** Анимация целиком: её первый кадр, вид и число кадров. */
+    private record AnimationKey(PlanKey first, Animation animation, int frames) {}
+
+    /** Таблица {@link #renderLut}: индексы текселей зависят ещё и от размеров текстур. */
+    private record LutKey(PlanKey plan, int skinSize, int capeW, int capeH) {}
+
+    /**
+     * Собранная геометрия: холст и видимые грани. faces - в порядке коробок
+     * (для растеризатора с z-буфером), painted - те же грани, устойчиво
+     * отсортированные по глубине для painter's algorithm.
+     */
+    private record Plan(Canvas canvas, PlanFace[] faces, PlanFace[] painted) {}
+
+    /**
+     * Грань плана: UV-прямоугольник в вокселях раскладки (в пиксели текстуры
+     * переводится на рендере - HD-скины и обычные делят один план), угол
+     * (x, y) на холсте, рёбра (ux, uy) и (vx, vy) вдоль всей ширины и высоты
+     * грани и глубина центра.
+     */
+    private record PlanFace(boolean cape, UvRect uv, boolean mirrored, float shade,
+                            double x, double y, double ux, double uy, double vx, double vy, double depth) {}
+
+    private static PlanKey planKey(Part part, boolean walking, boolean isAlex, boolean isLegacy, int overlays,
+                                   boolean cape, double yawDeg, double pitchDeg, int size) {
+        boolean head = part == Part.HEAD;
+        return new PlanKey(part, walking && !head, walking && !head ? 1 : 0, isAlex && !head, isLegacy, overlays,
+                cape && !head, yawDeg, pitchDeg, size);
+    }
+
+    private static Plan plan(PlanKey key) {
+        return PLANS.get(key, IsometricRenderer::compile);
+    }
+
+    private static Plan compile(PlanKey key) {
+        return compile(key, null);
+    }
+
+    /**
+     * Кадры анимации - планы с общим холстом: SPIN поворачивает yaw на
+     * 360/frames за кадр, WALK проходит полный цикл маха (синусом, от
+     * середины шага) при неподвижной камере.
+     */
+    private static Plan[] compileAnimation(AnimationKey animation) {
+        PlanKey first = animation.first();
+        boolean head = first.part() == Part.HEAD;
+        PlanKey[] keys = new PlanKey[animation.frames()];
+        for (int i = 0; i < keys.length; i++) {
+            double turn = (double) i / keys.length;
+            keys[i] = switch (animation.animation()) {
+                case SPIN -> new PlanKey(first.part(), first.walking(), first.swing(), first.alex(), first.legacy(),
+                        first.overlays(), first.cape(), first.yaw() + 360 * turn, first.pitch(), first.size());
+                case WALK -> new PlanKey(first.part(), !head, head ? 0 : Math.sin(2 * Math.PI * turn), first.alex(),
+                        first.legacy(), first.overlays(), first.cape(), first.yaw(), first.pitch(), first.size());
+            };
+        }
+
+        double ppv = first.size() / 8.0;
+        double[] bounds = emptyBounds();
+        for (PlanKey key : keys) {
+            extendBounds(bounds, boundsBoxes(key, boxes(key)), Math.toRadians(key.yaw()), Math.toRadians(key.pitch()), ppv);
+        }
+        Canvas canvas = canvas(bounds);
+
+        Plan[] plans = new Plan[keys.length];
+        for (int i = 0; i < keys.length; i++) plans[i] = compile(keys[i], canvas);
+        return plans;
+    }
+
+    /** План по ключу; fixed - готовый холст (общий для кадров анимации), null - по габаритам самого плана. */
+    private static Plan compile(PlanKey key, Canvas fixed) {
+        double ppv = key.size() / 8.0; // пикселей на воксель
+        double yaw = Math.toRadians(key.yaw());
+        double pitch = Math.toRadians(key.pitch());
+
+        List<Box> boxes = boxes(key);
+        Canvas canvas = fixed != null ? fixed : boundingCanvas(boundsBoxes(key, boxes), yaw, pitch, ppv);
+
+        List<PlanFace> faces = new ArrayList<>();
+        for (Box b : boxes) {
+            for (FaceSpec f : FACE_SPECS) {
+                if (!visible(b, f, yaw, pitch)) continue;
+                Vec3 p00 = projectCorner(b, f, -1, -1, yaw, pitch, ppv, canvas.ox(), canvas.oy());
+                Vec3 p10 = projectCorner(b, f, +1, -1, yaw, pitch, ppv, canvas.ox(), canvas.oy());
+                Vec3 p01 = projectCorner(b, f, -1, +1, yaw, pitch, ppv, canvas.ox(), canvas.oy());
+                Vec3 p11 = projectCorner(b, f, +1, +1, yaw, pitch, ppv, canvas.ox(), canvas.oy());
+                faces.add(new PlanFace(b.cape(), faceUv(b, f.side()), b.mirrored(), f.shade(),
+                        p00.x(), p00.y(), p10.x() - p00.x(), p10.y() - p00.y(), p01.x() - p00.x(), p01.y() - p00.y(),
+                        (p00.z() + p10.z() + p01.z() + p11.z()) / 4));
+            }
+        }
+        PlanFace[] ordered = faces.toArray(PlanFace[]::new);
+        PlanFace[] painted = ordered.clone();
+        Arrays.sort(painted, Comparator.comparingDouble(PlanFace::depth));
+        return new Plan(canvas, ordered, painted);
+    }
+
+    private static List<Box> boxes(PlanKey key) {
+        return buildBoxes(key.part(), key.walking(), key.swing(), key.alex(), key.legacy(), key.overlays(), key.cape());
+    }
+
+    /**
+     * Коробки, по которым считается холст. Плащ (16 вокселей) свисает ниже
+     * пояса, поэтому в рендере "по пояс" он не участвует в расчёте холста -
+     * иначе кадр вытягивался бы вниз пустотой. Всё, что вышло за холст,
+     * отсекается при отрисовке.
+     */
+    private static List<Box> boundsBoxes(PlanKey key, List<Box> boxes) {
+        return key.part() == Part.BODY
+                ? boxes.stream().filter(b -> !b.cape()).toList()
+                : boxes;
+    }
+
+    // ── Проекция ─────────────────────────────────────────────────────────
 
     private record Canvas(int w, int h, double ox, double oy) {}
 
@@ -292,8 +642,19 @@ public class IsometricRenderer {
      * несимметрична по Y, поэтому считаются честные min/max, а не max|.|
      */
     private static Canvas boundingCanvas(List<Box> boxes, double yaw, double pitch, double ppv) {
-        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
-        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double[] bounds = emptyBounds();
+        extendBounds(bounds, boxes, yaw, pitch, ppv);
+        return canvas(bounds);
+    }
+
+    /** Габариты проекции {minX, maxX, minY, maxY} в пикселях, пока пустые. */
+    private static double[] emptyBounds() {
+        return new double[]{Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+    }
+
+    private static void extendBounds(double[] bounds, List<Box> boxes, double yaw, double pitch, double ppv) {
+        double minX = bounds[0], maxX = bounds[1];
+        double minY = bounds[2], maxY = bounds[3];
         for (Box b : boxes) {
             double hw = b.w() / 2.0 + b.inflate();
             double hh = b.h() / 2.0 + b.inflate();
@@ -310,26 +671,23 @@ public class IsometricRenderer {
                 }
             }
         }
+        bounds[0] = minX;
+        bounds[1] = maxX;
+        bounds[2] = minY;
+        bounds[3] = maxY;
+    }
+
+    private static Canvas canvas(double[] bounds) {
+        double minX = bounds[0], maxX = bounds[1];
+        double minY = bounds[2], maxY = bounds[3];
         return new Canvas((int) Math.ceil(maxX - minX) + 2, (int) Math.ceil(maxY - minY) + 2,
                 1 - minX, 1 - minY);
     }
 
-    /** Текстурированная грань, готовая к отрисовке; depth - для painter's-сортировки. */
-    private record Quad(BufferedImage image, AffineTransform transform, double depth) {}
-
-    private static void addFaceQuad(List<Quad> out, BufferedImage skin, float scale, Box b, FaceSpec f,
-                                    double yaw, double pitch, double ppv, double ox, double oy) {
-        BufferedImage tex = faceTexture(skin, scale, b, f);
-        if (tex == null) return;
-
-        Vec3 p00 = projectCorner(b, f, -1, -1, yaw, pitch, ppv, ox, oy);
-        Vec3 p10 = projectCorner(b, f, +1, -1, yaw, pitch, ppv, ox, oy);
-        Vec3 p01 = projectCorner(b, f, -1, +1, yaw, pitch, ppv, ox, oy);
-        Vec3 p11 = projectCorner(b, f, +1, +1, yaw, pitch, ppv, ox, oy);
-
-        AffineTransform t = toTransform(p00, p10, p01, tex.getWidth(), tex.getHeight());
-        double depth = (p00.z() + p10.z() + p01.z() + p11.z()) / 4;
-        out.add(new Quad(tex, t, depth));
+    private static boolean visible(Box b, FaceSpec f, double yaw, double pitch) {
+        double nz = f.normal().rotateX(b.swing()).rotateY(yaw).rotateX(pitch).z();
+        if (Math.abs(nz) < 1e-6) return false; // ребром к камере - вырожденная матрица
+        return b.doubleSided() || nz > 0;      // непрозрачная база: изнанку не рисуем
     }
 
     private static Vec3 projectCorner(Box b, FaceSpec f, double au, double bv,
@@ -342,14 +700,6 @@ public class IsometricRenderer {
         return new Vec3(r.x() * ppv + ox, -r.y() * ppv + oy, r.z());
     }
 
-    private static AffineTransform toTransform(Vec3 d00, Vec3 d10, Vec3 d01, int srcW, int srcH) {
-        double m00 = (d10.x() - d00.x()) / srcW;
-        double m10 = (d10.y() - d00.y()) / srcW;
-        double m01 = (d01.x() - d00.x()) / srcH;
-        double m11 = (d01.y() - d00.y()) / srcH;
-        return new AffineTransform(m00, m10, m01, m11, d00.x(), d00.y());
-    }
-
     // ── Текстуры ─────────────────────────────────────────────────────────
 
     private record UvRect(int x, int y, int w, int h) {}
@@ -358,7 +708,7 @@ public class IsometricRenderer {
      * UV-прямоугольник грани по стандартной раскладке коробки скина: слева
      * направо LEFT(d), FRONT(w), RIGHT(d), BACK(w); над FRONT - TOP, над
      * RIGHT - BOTTOM. Для зеркальной коробки LEFT и RIGHT меняются местами
-     * (сама картинка дополнительно отражается в {@link #faceTexture}).
+     * (сама картинка дополнительно отражается в {@link FaceTextures#face}).
      */
     private static UvRect faceUv(Box b, Side side) {
         Side src = side;
@@ -389,84 +739,14 @@ public class IsometricRenderer {
         };
     }
 
-    private static BufferedImage faceTexture(BufferedImage skin, float scale, Box b, FaceSpec f) {
-        BufferedImage src = b.tex() != null ? b.tex() : skin;
-        float s = b.tex() != null ? b.texScale() : scale;
-
-        UvRect uv = faceUv(b, f.side());
+    /** UV-прямоугольник грани в пикселях текстуры w x h (64 вокселя в ширину); null - вылезает за текстуру. */
+    private static UvRect faceCrop(int w, int h, UvRect uv) {
+        float s = w / 64f;
         int sx = Math.round(uv.x() * s);
         int sy = Math.round(uv.y() * s);
         int sw = Math.round(uv.w() * s);
         int sh = Math.round(uv.h() * s);
-        if (sx + sw > src.getWidth() || sy + sh > src.getHeight()) return null;
-
-        BufferedImage crop = src.getSubimage(sx, sy, sw, sh);
-        if (b.mirrored()) crop = flipHorizontal(crop);
-        return f.shade() >= 1f ? crop : darken(crop, f.shade());
-    }
-
-    // ── Утилиты скина ────────────────────────────────────────────────────
-
-    /**
-     * Эвристика на случай, когда модель не пришла из профиля Mojang (скин по
-     * прямому URL): у classic-раскладки задняя грань правой руки занимает
-     * колонки x 54..56 (y 20..32), левой - x 46..48 (y 52..64); у slim руки
-     * на воксель уже и до этих колонок не дотягиваются. Если обе зоны
-     * полностью прозрачны - считаем скин slim. Смотрим обе зоны и весь их
-     * столбец, а не один пиксель: редакторы порой оставляют мусор в
-     * неиспользуемых областях.
-     */
-    private static boolean detectAlex(BufferedImage skin) {
-        float scale = skin.getWidth() / 64f;
-        return regionTransparent(skin, scale, 54, 20, 2, 12)
-                && regionTransparent(skin, scale, 46, 52, 2, 12);
-    }
-
-    private static boolean regionTransparent(BufferedImage skin, float scale, int vx, int vy, int vw, int vh) {
-        int x0 = Math.round(vx * scale), y0 = Math.round(vy * scale);
-        int x1 = Math.min(Math.round((vx + vw) * scale), skin.getWidth());
-        int y1 = Math.min(Math.round((vy + vh) * scale), skin.getHeight());
-        for (int x = x0; x < x1; x++) {
-            for (int y = y0; y < y1; y++) {
-                if (((skin.getRGB(x, y) >> 24) & 0xFF) != 0) return false;
-            }
-        }
-        return true;
-    }
-
-    private static BufferedImage normalizeSkin(BufferedImage original) {
-        int w = original.getWidth();
-        int h = original.getHeight();
-        if (w == h && original.getType() == BufferedImage.TYPE_INT_ARGB) return original;
-        BufferedImage normalized = new BufferedImage(w, w, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = normalized.createGraphics();
-        g.drawImage(original, 0, 0, null);
-        g.dispose();
-        return normalized;
-    }
-
-    private static BufferedImage flipHorizontal(BufferedImage img) {
-        int w = img.getWidth(), h = img.getHeight();
-        BufferedImage flipped = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = flipped.createGraphics();
-        g.drawImage(img, w, 0, -w, h, null);
-        g.dispose();
-        return flipped;
-    }
-
-    private static BufferedImage darken(BufferedImage img, float factor) {
-        BufferedImage res = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        for (int x = 0; x < img.getWidth(); x++) {
-            for (int y = 0; y < img.getHeight(); y++) {
-                int argb = img.getRGB(x, y);
-                int a = (argb >> 24) & 0xFF;
-                if (a == 0) continue;
-                int r = (int) (((argb >> 16) & 0xFF) * factor);
-                int gr = (int) (((argb >> 8) & 0xFF) * factor);
-                int b = (int) ((argb & 0xFF) * factor);
-                res.setRGB(x, y, (a << 24) | (r << 16) | (gr << 8) | b);
-            }
-        }
-        return res;
+        if (sx + sw > w || sy + sh > h) return null;
+        return new UvRect(sx, sy, sw, sh);
     }
 }
@@ -1,5 +1,6 @@
 package net.tokishu.cubatar.module.iso.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.common.SkinModel;
@@ -26,8 +27,10 @@ public class IsoBodyV2Controller {
             @RequestParam(defaultValue = "false") boolean back,
             @RequestParam(defaultValue = "auto") String model,
             @RequestParam(defaultValue = "true") boolean cape,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, back ? 180 : 0, 0, Part.BODY, false, SkinModel.parse(model), cape, response);
+        service.process(input, size, back ? 180 : 0, 0, Part.BODY, false, SkinModel.parse(model), cape, format, request, response);
     }
 }
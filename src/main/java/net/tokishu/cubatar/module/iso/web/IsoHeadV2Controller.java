@@ -1,5 +1,6 @@
 package net.tokishu.cubatar.module.iso.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.module.iso.service.IsoRenderService;
@@ -24,8 +25,10 @@ public class IsoHeadV2Controller {
             @RequestParam(defaultValue = "64") int size,
             @RequestParam(defaultValue = "0") double yaw,
             @RequestParam(defaultValue = "0") double pitch,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, yaw, pitch, Part.HEAD, false, null, false, response);
+        service.process(input, size, yaw, pitch, Part.HEAD, false, null, false, format, request, response);
     }
 }
@@ -1,8 +1,11 @@
 package net.tokishu.cubatar.module.iso.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.common.SkinModel;
+import net.tokishu.cubatar.module.iso.service.AnimationFormat;
+import net.tokishu.cubatar.module.iso.service.IsoAnimationService;
 import net.tokishu.cubatar.module.iso.service.IsoRenderService;
 import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Part;
 import org.springframework.web.bind.annotation.*;
@@ -13,6 +16,11 @@ import org.springframework.web.bind.annotation.*;
  * У body/full дополнительно pose=walk (поза ходьбы) и model=slim|classic
  * (явная модель поверх авто-определения). {@code /v1/iso/{input}} без саба
  * остаётся алиасом head (см. {@link IsoHeadController}).
+ * <p>
+ * Статичные картинки - PNG или WebP: по {@code format=png|webp}, а без
+ * него по Accept. full с {@code animate=spin|walk} отдаёт анимацию (APNG
+ * или GIF по {@code format}, по умолчанию APNG) из {@code frames} кадров -
+ * см. {@link IsoAnimationService}.
  */
 @RestController
 @RequestMapping("/v1/iso")
@@ -20,6 +28,7 @@ import org.springframework.web.bind.annotation.*;
 public class IsoRenderController {
 
     private final IsoRenderService service;
+    private final IsoAnimationService animations;
 
     @GetMapping("/head/{input}")
     public void head(
@@ -27,9 +36,11 @@ public class IsoRenderController {
             @RequestParam(defaultValue = "128") int size,
             @RequestParam(defaultValue = "-45") double yaw,
             @RequestParam(defaultValue = "30") double pitch,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, yaw, pitch, Part.HEAD, false, null, false, response);
+        service.process(input, size, yaw, pitch, Part.HEAD, false, null, false, format, request, response);
     }
 
     @GetMapping("/body/{input}")
@@ -41,9 +52,11 @@ public class IsoRenderController {
             @RequestParam(defaultValue = "stand") String pose,
             @RequestParam(defaultValue = "auto") String model,
             @RequestParam(defaultValue = "true") boolean cape,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, yaw, pitch, Part.BODY, isWalking(pose), SkinModel.parse(model), cape, response);
+        service.process(input, size, yaw, pitch, Part.BODY, isWalking(pose), SkinModel.parse(model), cape, format, request, response);
     }
 
     @GetMapping("/full/{input}")
@@ -55,9 +68,18 @@ public class IsoRenderController {
             @RequestParam(defaultValue = "stand") String pose,
             @RequestParam(defaultValue = "auto") String model,
             @RequestParam(defaultValue = "true") boolean cape,
+            @RequestParam(required = false) String animate,
+            @RequestParam(defaultValue = "24") int frames,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, size, yaw, pitch, Part.FULL, isWalking(pose), SkinModel.parse(model), cape, response);
+        if (animate != null) {
+            animations.process(input, size, yaw, pitch, IsoAnimationService.parseAnimation(animate), frames,
+                    isWalking(pose), SkinModel.parse(model), cape, AnimationFormat.parse(format), request, response);
+            return;
+        }
+        service.process(input, size, yaw, pitch, Part.FULL, isWalking(pose), SkinModel.parse(model), cape, format, request, response);
     }
 
     private static boolean isWalking(String pose) {
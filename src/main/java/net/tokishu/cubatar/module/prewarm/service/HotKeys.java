@@ -0,0 +1,124 @@
+package net.tokishu.cubatar.module.prewarm.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Самые запрашиваемые рендеры - путь с query, например
+ * {@code /v1/iso/head/Notch?size=256}: в нём и input, и параметры, и по
+ * нему же их можно повторить. Раз в record-interval top-N пишется в файл,
+ * который {@link PrewarmRunner} проигрывает при следующем старте.
+ * <p>
+ * Счётчики после каждой записи делятся пополам - старые фавориты плавно
+ * уступают новым, а не копятся с момента запуска. Различных ключей
+ * отслеживается не больше max-tracked: новые сверх лимита до следующего
+ * сброса не считаются, так что перебор ников ботом память не съест.
+ */
+@Slf4j
+@Component
+public class HotKeys {
+
+    private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final Path file;
+    private final int top;
+    private final int maxTracked;
+
+    public HotKeys(@Value("${cubatar.prewarm.enabled}") boolean enabled,
+                   @Value("${cubatar.prewarm.file}") Path file,
+                   @Value("${cubatar.prewarm.top}") int top,
+                   @Value("${cubatar.prewarm.max-tracked}") int maxTracked) {
+        this.enabled = enabled;
+        this.file = file;
+        this.top = top;
+        this.maxTracked = maxTracked;
+    }
+
+    public void hit(String key) {
+        if (!enabled) return;
+        LongAdder count = counts.get(key);
+        if (count == null) {
+            if (counts.size() >= maxTracked) return;
+            count = counts.computeIfAbsent(key, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /** top-N ключей по убыванию частоты. */
+    public List<String> top() {
+        List<Map.Entry<String, Long>> snapshot = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> snapshot.add(Map.entry(key, count.sum())));
+        snapshot.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        List<String> keys = new ArrayList<>(Math.min(top, snapshot.size()));
+        for (int i = 0; i < snapshot.size() && i < top; i++) {
+            if (snapshot.get(i).getValue() > 0) keys.add(snapshot.get(i).getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Пишет top-N в файл (через временный и переименование - при падении
+     * посреди записи остаётся прошлый список) и гасит счётчики вдвое. Пустой
+     * список не пишется: узел без трафика не должен затирать чужой прогрев.
+     */
+    @Scheduled(initialDelayString = "${cubatar.prewarm.record-interval}", fixedDelayString = "${cubatar.prewarm.record-interval}")
+    public void save() {
+        if (!enabled) return;
+        List<String> keys = top();
+        if (keys.isEmpty()) return;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            Files.write(tmp, keys, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to save hot keys to {}: {}", file, e.getMessage());
+            return;
+        }
+        counts.entrySet().removeIf(entry -> {
+            LongAdder count = entry.getValue();
+            long half = count.sumThenReset() / 2;
+            count.add(half);
+            return half == 0;
+        });
+    }
+
+    /** Ключи из прошлой записи, самые горячие первыми; пусто - файла ещё нет. */
+    public List<String> load() {
+        try {
+            List<String> keys = new ArrayList<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.startsWith("/")) keys.add(line);
+                if (keys.size() == top) break;
+            }
+            return keys;
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            log.warn("Failed to read hot keys from {}: {}", file, e.getMessage());
+            return List.of();
+        }
+    }
+
+    @PreDestroy
+    void flush() {
+        save();
+    }
+}
@@ -0,0 +1,124 @@
+package net.tokishu.cubatar.module.prewarm.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прогрев кешей при старте: ключи из {@link HotKeys} проигрываются
+ * GET-запросами к самому себе - через те же контроллеры, резолвер и
+ * рендереры, так что теплеют и uuids/skins, и текстуры, и готовые PNG.
+ * Не чаще rate в секунду и не больше parallelism одновременно: прогрев
+ * идёт через общий бюджет Mojang ({@code cubatar.mojang.limits}), и ему
+ * нельзя выедать его целиком.
+ * <p>
+ * Spring Boot переводит readiness в ACCEPTING_TRAFFIC только после всех
+ * ApplicationRunner, поэтому пока прогрев идёт, узел для балансировщика не
+ * готов - но не дольше deadline: недогретый узел лучше, чем не поднявшийся.
+ */
+@Slf4j
+@Component
+public class PrewarmRunner implements ApplicationRunner {
+
+    /** Запросы прогрева не считаются хитами - иначе список горячих ключей подпитывал бы сам себя. */
+    public static final String PREWARM_HEADER = "X-Cubatar-Prewarm";
+
+    /**
+     * Accept, с которым приходят картинки от браузеров: без него прогрелись бы
+     * PNG-записи, а большинству клиентов уходит WebP (см. ImageFormat).
+     */
+    private static final String BROWSER_ACCEPT = "image/webp,image/*,*/*;q=0.8";
+
+    private final HotKeys hotKeys;
+    private final Environment environment;
+    private final boolean enabled;
+    private final double rate;
+    private final int parallelism;
+    private final Duration deadline;
+
+    public PrewarmRunner(HotKeys hotKeys, Environment environment,
+                         @Value("${cubatar.prewarm.enabled}") boolean enabled,
+                         @Value("${cubatar.prewarm.rate}") double rate,
+                         @Value("${cubatar.prewarm.parallelism}") int parallelism,
+                         @Value("${cubatar.prewarm.deadline}") Duration deadline) {
+        this.hotKeys = hotKeys;
+        this.environment = environment;
+        this.enabled = enabled;
+        this.rate = rate;
+        this.parallelism = Math.max(1, parallelism);
+        this.deadline = deadline;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws InterruptedException {
+        if (!enabled) return;
+        // Порт известен только с настоящим веб-сервером (не в MOCK-тестах)
+        String port = environment.getProperty("local.server.port");
+        if (port == null) return;
+        List<String> keys = hotKeys.load();
+        if (keys.isEmpty()) return;
+
+        log.info("Prewarming caches with {} hot keys (deadline {})", keys.size(), deadline);
+        long start = System.nanoTime();
+        long end = start + deadline.toNanos();
+        long interval = (long) (1e9 / rate);
+        String base = "http://localhost:" + port;
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        Semaphore slots = new Semaphore(parallelism);
+        AtomicInteger warmed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        int submitted = 0;
+        try {
+            long next = start;
+            for (String key : keys) {
+                long now = System.nanoTime();
+                if (next - now > 0) TimeUnit.NANOSECONDS.sleep(next - now);
+                if (System.nanoTime() - end >= 0 || !slots.tryAcquire(end - System.nanoTime(), TimeUnit.NANOSECONDS)) break;
+                next += interval;
+                submitted++;
+                executor.execute(() -> {
+                    try {
+                        HttpRequest request = HttpRequest.newBuilder(URI.create(base + key))
+                                .header(PREWARM_HEADER, "1")
+                                .header("Accept", BROWSER_ACCEPT)
+                                .timeout(Duration.ofNanos(Math.max(1, end - System.nanoTime())))
+                                .build();
+                        int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        (status == 200 ? warmed : failed).incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Prewarmed {} of {} hot keys ({} failed, {} not started) in {} ms",
+                warmed.get(), keys.size(), failed.get(), keys.size() - submitted,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,30 @@
+package net.tokishu.cubatar.module.prewarm.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.module.prewarm.service.HotKeys;
+import net.tokishu.cubatar.module.prewarm.service.PrewarmRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Считает успешные GET рендер-эндпоинтов в {@link HotKeys}: путь с query -
+ * ровно то, что потом повторит прогрев. 304 тоже хит - клиент с ETag
+ * такой же горячий игрок, просто кеш браузера у него уже тёплый.
+ */
+@Component
+@RequiredArgsConstructor
+public class HotKeyInterceptor implements HandlerInterceptor {
+
+    private final HotKeys hotKeys;
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (!"GET".equals(request.getMethod()) || request.getHeader(PrewarmRunner.PREWARM_HEADER) != null) return;
+        int status = response.getStatus();
+        if (status != HttpServletResponse.SC_OK && status != HttpServletResponse.SC_NOT_MODIFIED) return;
+        String query = request.getQueryString();
+        hotKeys.hit(query == null ? request.getRequestURI() : request.getRequestURI() + "?" + query);
+    }
+}
@@ -0,0 +1,94 @@
+package net.tokishu.cubatar.module.resolve;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Размеры картинки до декодирования пикселей. У PNG они в IHDR - в первых
+ * {@link #PNG_HEADER_LENGTH} байтах, так что прямую ссылку на 8000x8000
+ * можно отбить, скачав 24 байта; у прочих форматов ImageIO читает только
+ * заголовок. Декодирование растра дороже всего остального: 8000x8000 - это
+ * 256 МБ int[] и секунды CPU, при том что скин весит 16 КБ.
+ * <p>
+ * Скин по прямой ссылке - ширина кратна 64 и не больше max-skin-width,
+ * высота равна ширине или её половине (legacy 64x32). Любая текстура,
+ * включая плащи и текстуры Mojang, - не больше max-pixels пикселей.
+ */
+@Component
+public class ImageLimits {
+
+    /** Сигнатура (8) + длина и тип чанка (8) + ширина и высота из IHDR (8). */
+    public static final int PNG_HEADER_LENGTH = 24;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IHDR = 0x49484452;
+
+    private final int maxSkinWidth;
+    private final long maxPixels;
+
+    public ImageLimits(@Value("${cubatar.images.max-skin-width}") int maxSkinWidth,
+                       @Value("${cubatar.images.max-pixels}") long maxPixels) {
+        this.maxSkinWidth = maxSkinWidth;
+        this.maxPixels = maxPixels;
+    }
+
+    public record Size(int width, int height) {}
+
+    /** Размеры из IHDR; null - не PNG или заголовок короче {@link #PNG_HEADER_LENGTH}. */
+    public static Size pngSize(byte[] head) {
+        if (head.length < PNG_HEADER_LENGTH) return null;
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (head[i] != PNG_SIGNATURE[i]) return null;
+        }
+        if (readInt(head, 12) != IHDR) return null;
+        return new Size(readInt(head, 16), readInt(head, 20));
+    }
+
+    /** Размеры по заголовку любого формата, который знает ImageIO; null - не картинка. */
+    public static Size headerSize(byte[] bytes) {
+        Size png = pngSize(bytes);
+        if (png != null) return png;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Size(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** 400, если размеры - не скин. */
+    public void checkSkin(Size size) {
+        int w = size.width();
+        int h = size.height();
+        if (w < 64 || w > maxSkinWidth || w % 64 != 0 || (h != w && h != w / 2)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a skin: " + w + "x" + h);
+        }
+    }
+
+    /** 400, если растр не влезает в бюджет декодирования. */
+    public void checkBudget(Size size) {
+        if (size.width() <= 0 || size.height() <= 0 || (long) size.width() * size.height() > maxPixels) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Image too large: " + size.width() + "x" + size.height());
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+    }
+}
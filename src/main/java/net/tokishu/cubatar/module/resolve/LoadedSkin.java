@@ -0,0 +1,8 @@
+package net.tokishu.cubatar.module.resolve;
+
+/**
+ * Скин вместе с плащом, загруженные одновременно
+ * ({@link SkinResolverService#loadWithCape}); cape == null - плащ не
+ * запрашивали или его у игрока нет.
+ */
+public record LoadedSkin(ResolvedSkin skin, Texture cape) {}
@@ -0,0 +1,187 @@
+package net.tokishu.cubatar.module.resolve;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ник → UUID пачками через bulk-API Mojang ({@code POST /profiles/minecraft},
+ * до 10 ников за запрос). Страница сервера со списком из 100 голов раньше
+ * давала 100 отдельных GET под общим лимитом Mojang; теперь запросы,
+ * пришедшие в пределах окна (или пока не набралась полная пачка), уходят
+ * одним POST, а результат раздаётся каждому ждущему и кладётся в кеш "uuids".
+ * Ника нет в ответе - значит, игрока нет (404, как у одиночного запроса).
+ * <p>
+ * Неполная пачка ждёт окно целиком, так что одиночный холодный ник платит за
+ * экономию запросов до window латентности - поэтому по умолчанию
+ * (cubatar.mojang.bulk.enabled) пачки выключены.
+ */
+@Slf4j
+@Component
+public class MojangBulkResolver {
+
+    /** Больше 10 ников за раз bulk-API Mojang не принимает. */
+    public static final int MOJANG_BATCH_LIMIT = 10;
+
+    private final RestClient restClient;
+    private final ObjectMapper mapper;
+    private final CacheManager cacheManager;
+
+    private final boolean enabled;
+    private final String url;
+    private final long windowMillis;
+    private final int maxBatch;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("mojang-bulk-timer").daemon().factory());
+
+    private final Object lock = new Object();
+    private List<Pending> queue = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+
+    public MojangBulkResolver(RestClient restClient, ObjectMapper mapper, CacheManager cacheManager,
+                              @Value("${cubatar.mojang.bulk.enabled}") boolean enabled,
+                              @Value("${cubatar.mojang.bulk.url}") String url,
+                              @Value("${cubatar.mojang.bulk.window}") Duration window,
+                              @Value("${cubatar.mojang.bulk.max-batch}") int maxBatch) {
+        this.restClient = restClient;
+        this.mapper = mapper;
+        this.cacheManager = cacheManager;
+        this.enabled = enabled;
+        this.url = url;
+        this.windowMillis = window.toMillis();
+        this.maxBatch = Math.clamp(maxBatch, 1, MOJANG_BATCH_LIMIT);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Встаёт в текущую пачку; future завершается UUID или ResponseStatusException. */
+    public CompletableFuture<UUID> lookup(String username) {
+        Pending pending = new Pending(username, new CompletableFuture<>());
+        List<Pending> full = null;
+        synchronized (lock) {
+            queue.add(pending);
+            if (queue.size() >= maxBatch) {
+                full = drain();
+            } else if (flushTask == null) {
+                flushTask = timer.schedule(this::flushWindow, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        // Полная пачка уходит сразу, из потока того, кто её добил
+        if (full != null) send(full);
+        return pending.future();
+    }
+
+    /** Синхронная обёртка над {@link #lookup} - для {@link MojangGateway}. */
+    public UUID resolve(String username) {
+        try {
+            return lookup(username).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private void flushWindow() {
+        List<Pending> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) Thread.ofVirtual().name("mojang-bulk").start(() -> send(batch));
+    }
+
+    private List<Pending> drain() {
+        List<Pending> batch = queue;
+        queue = new ArrayList<>();
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        return batch;
+    }
+
+    private void send(List<Pending> batch) {
+        // Один ник мог прийти дважды (в разном регистре) - в запрос он идёт один раз
+        Map<String, List<Pending>> byName = new LinkedHashMap<>();
+        for (Pending p : batch) {
+            byName.computeIfAbsent(p.username().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(p);
+        }
+
+        Map<String, UUID> found;
+        try {
+            found = post(byName.values().stream().map(list -> list.getFirst().username()).toList());
+        } catch (RuntimeException e) {
+            log.warn("Bulk UUID lookup of {} names failed: {}", byName.size(), e.getMessage());
+            RuntimeException error = e instanceof ResponseStatusException
+                    ? e
+                    : new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while getting UUID");
+            batch.forEach(p -> p.future().completeExceptionally(error));
+            return;
+        }
+
+        Cache uuids = cacheManager.getCache("uuids");
+        byName.forEach((name, waiting) -> {
+            UUID uuid = found.get(name);
+            for (Pending p : waiting) {
+                if (uuid == null) {
+                    p.future().completeExceptionally(new ResponseStatusException(HttpStatus.NOT_FOUND, "Player not found"));
+                } else {
+                    if (uuids != null) uuids.put(p.username(), uuid);
+                    p.future().complete(uuid);
+                }
+            }
+        });
+    }
+
+    /** POST пачки ников; ответ - только найденные, ключ - ник в нижнем регистре. */
+    private Map<String, UUID> post(List<String> names) {
+        String body = restClient.post()
+                .uri(url)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(mapper.writeValueAsString(names))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, (req, res) -> {
+                    if (res.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) throw UpstreamRateLimiter.throttled();
+                    throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while getting UUID");
+                })
+                .body(String.class);
+
+        Map<String, UUID> found = new HashMap<>();
+        if (body == null || body.isEmpty()) return found;
+        JsonNode profiles = mapper.readTree(body);
+        for (int i = 0; i < profiles.size(); i++) {
+            JsonNode profile = profiles.get(i);
+            found.put(profile.get("name").asString().toLowerCase(Locale.ROOT),
+                    MojangGateway.parseUUID(profile.get("id").asString()));
+        }
+        return found;
+    }
+
+    private record Pending(String username, CompletableFuture<UUID> future) {}
+}
@@ -1,6 +1,9 @@
 package net.tokishu.cubatar.module.resolve;
 
 import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.StageMetrics;
+import net.tokishu.cubatar.module.cluster.service.ClusterService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
@@ -12,6 +15,7 @@ import tools.jackson.databind.JsonNode;
 import tools.jackson.databind.ObjectMapper;
 
 import java.util.Base64;
+import java.util.Locale;
 import java.util.UUID;
 
 import static net.tokishu.cubatar.module.resolve.ResolverConfig.MOJANG_TO_UUID_REGEX;
@@ -22,19 +26,56 @@ public class MojangGateway {
 
     private final RestClient restClient;
     private final ObjectMapper mapper;
+    private final MojangBulkResolver bulk;
+    private final StageMetrics metrics;
+    private final ClusterService cluster;
 
-    public static final String PROFILE_URL = "https://api.mojang.com/users/profiles/minecraft/";
-    public static final String SKIN_URL = "https://sessionserver.mojang.com/session/minecraft/profile/";
+    @Value("${cubatar.mojang.profile-url}")
+    private String profileUrl;
+
+    @Value("${cubatar.mojang.skin-url}")
+    private String skinUrl;
 
     @Cacheable(value = "uuids", key = "#username", unless = "#result == null")
     public UUID getUUIDFromUsername(String username) {
+        return fetchUUID(username);
+    }
+
+    @Cacheable(value = "skins", key = "#uuid", unless = "#result == null")
+    public SkinTexture getSkinFromUUID(UUID uuid) {
+        return fetchSkin(uuid);
+    }
+
+    /**
+     * Поход в Mojang мимо кеша - для промахов и фонового обновления записей
+     * кеша "uuids". С включённым bulk-режимом ник уходит в общую пачку
+     * {@link MojangBulkResolver}, иначе - отдельным GET. В режиме кластера
+     * чужой ник сначала спрашивается у узла-владельца.
+     */
+    public UUID fetchUUID(String username) {
+        return cluster.viaOwner("name:" + username.toLowerCase(Locale.ROOT),
+                owner -> cluster.uuid(owner, username),
+                () -> metrics.time("mojang", "uuid", () -> requestUUID(username)));
+    }
+
+    /** Поход в Mojang (или к узлу-владельцу) мимо кеша - для промахов и фонового обновления записей кеша "skins". */
+    public SkinTexture fetchSkin(UUID uuid) {
+        return cluster.viaOwner("uuid:" + uuid,
+                owner -> cluster.profile(owner, uuid),
+                () -> metrics.time("mojang", "profile", () -> requestSkin(uuid)));
+    }
+
+    private UUID requestUUID(String username) {
+        if (bulk.isEnabled()) return bulk.resolve(username);
+
         ResponseEntity<String> response = restClient.get()
-                .uri(PROFILE_URL + username)
+                .uri(profileUrl + username)
                 .retrieve()
                 .onStatus(HttpStatusCode::isError, (req, res) -> {})
                 .toEntity(String.class);
 
         if (response.getStatusCode().isSameCodeAs(HttpStatus.NOT_FOUND)) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Player not found");
+        if (response.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) throw UpstreamRateLimiter.throttled();
 
         if (response == null || response.getBody().isEmpty()) throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while getting UUID");
 
@@ -43,12 +84,12 @@ public class MojangGateway {
         return parseUUID(root.get("id").asString());
     }
 
-    @Cacheable(value = "skins", key = "#uuid", unless = "#result == null")
-    public SkinTexture getSkinFromUUID(UUID uuid) {
+    private SkinTexture requestSkin(UUID uuid) {
         String response = restClient.get()
-                .uri(SKIN_URL + uuid.toString())
+                .uri(skinUrl + uuid.toString())
                 .retrieve()
                 .onStatus(HttpStatusCode::isError, (req, res) -> {
+                    if (res.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) throw UpstreamRateLimiter.throttled();
                     throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while getting skin URL");
                 })
                 .body(String.class);
@@ -64,6 +105,8 @@ public class MojangGateway {
 
             JsonNode textures = mapper.readTree(decodedJson).get("textures");
             JsonNode skinNode = textures.get("SKIN");
+            // У игроков со стандартным скином (Steve/Alex) блока SKIN нет вовсе
+            if (skinNode == null) return null;
             String skinUrl = skinNode.get("url").asString();
             if (skinUrl == null) throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while getting skin URL");
 
@@ -84,7 +127,7 @@ public class MojangGateway {
         return null;
     }
 
-    private UUID parseUUID(String idWithoutDashes) {
+    static UUID parseUUID(String idWithoutDashes) {
         String formatted = idWithoutDashes.replaceFirst(
                 MOJANG_TO_UUID_REGEX,
                 "$1-$2-$3-$4-$5"
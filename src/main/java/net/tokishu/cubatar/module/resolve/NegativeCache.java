@@ -0,0 +1,126 @@
+package net.tokishu.cubatar.module.resolve;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Негативный кеш: "такого игрока нет", "у профиля нет скина", "по ссылке
+ * не картинка". {@code @Cacheable} исключения не кеширует, и боты с
+ * опечатками в нике били бы в api.mojang.com на каждый запрос, проедая
+ * лимит. Проверяется до любого похода наверх.
+ * <p>
+ * Ключей бывают миллионы, поэтому храним не строки, а их 64-битные
+ * отпечатки в открытой адресации поверх {@link AtomicLongArray} - 8 байт
+ * на слот вместо сотни-другой у записи Caffeine. TTL и ограничение
+ * памяти - поколениями: пишем в текущее, читаем оба; раз в ttl/2 (или
+ * когда текущее заполнилось) предыдущее выбрасывается целиком. Запись
+ * живёт от ttl/2 до ttl. Ложное срабатывание - совпадение 64-битных
+ * отпечатков - на миллионе ключей порядка 1e-8, и то лишь до конца TTL.
+ */
+@Component
+public class NegativeCache {
+
+    private final long generationNanos;
+    private final int maxEntries;
+    private final int slots;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public NegativeCache(@Value("${cubatar.cache.negative.ttl}") Duration ttl,
+                         @Value("${cubatar.cache.negative.max-entries}") int maxEntries) {
+        this.generationNanos = ttl.toNanos() / 2;
+        this.maxEntries = maxEntries;
+        // Заполнение поколения не больше 3/4 - короткие цепочки линейного пробирования
+        this.slots = Integer.highestOneBit(Math.max(16, maxEntries * 4 / 3) - 1) << 1;
+        this.current = new Generation(slots, System.nanoTime());
+        this.previous = new Generation(1, System.nanoTime());
+    }
+
+    public boolean contains(String key) {
+        long fp = fingerprint(key);
+        Generation cur = fresh();
+        return cur.contains(fp) || previous.contains(fp);
+    }
+
+    public void put(String key) {
+        long fp = fingerprint(key);
+        Generation cur = fresh();
+        if (!cur.add(fp)) {
+            rotate(cur);
+            fresh().add(fp);
+        }
+    }
+
+    /** Текущее поколение, сменённое, если отжило своё. */
+    private Generation fresh() {
+        Generation cur = current;
+        if (System.nanoTime() - cur.createdAt >= generationNanos) rotate(cur);
+        return current;
+    }
+
+    private synchronized void rotate(Generation expected) {
+        if (current != expected) return; // уже сменил другой поток
+        long now = System.nanoTime();
+        // После долгого простоя протухли оба поколения, а не только предыдущее
+        previous = now - expected.createdAt >= 2 * generationNanos ? new Generation(1, now) : expected;
+        current = new Generation(slots, now);
+    }
+
+    /** 64-битный отпечаток ключа (FNV-1a + финальное перемешивание); 0 занят под пустой слот. */
+    private static long fingerprint(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private final class Generation {
+        final AtomicLongArray table;
+        final AtomicInteger size = new AtomicInteger();
+        final long createdAt;
+
+        Generation(int slots, long createdAt) {
+            this.table = new AtomicLongArray(slots);
+            this.createdAt = createdAt;
+        }
+
+        boolean contains(long fp) {
+            int mask = table.length() - 1;
+            for (int i = (int) fp & mask, probes = 0; probes < table.length(); i = (i + 1) & mask, probes++) {
+                long slot = table.get(i);
+                if (slot == fp) return true;
+                if (slot == 0) return false;
+            }
+            return false;
+        }
+
+        /** false - поколение заполнено, пора сменить. */
+        boolean add(long fp) {
+            if (size.get() >= maxEntries) return false;
+            int mask = table.length() - 1;
+            for (int i = (int) fp & mask, probes = 0; probes < table.length(); i = (i + 1) & mask, probes++) {
+                long slot = table.get(i);
+                if (slot == fp) return true;
+                if (slot == 0) {
+                    if (table.compareAndSet(i, 0, fp)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    if (table.get(i) == fp) return true;
+                }
+            }
+            return false;
+        }
+    }
+}
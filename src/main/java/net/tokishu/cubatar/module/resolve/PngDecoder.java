@@ -0,0 +1,234 @@
+package net.tokishu.cubatar.module.resolve;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Декодер PNG ровно под то, чем бывают скины: 8 бит RGBA/RGB, палитра
+ * 1/2/4/8 бит (с tRNS или без), без interlace. Распаковывает IDAT прямо в
+ * {@code int[]} ARGB, завёрнутый в TYPE_INT_ARGB - рендеры берут такой
+ * растр как есть, без копии в normalizeSkin. ImageIO на тех же файлах идёт
+ * через реестр плагинов, метаданные и TYPE_4BYTE_ABGR, который потом всё
+ * равно перегоняется в int.
+ * <p>
+ * Всё остальное (16 бит, серые, Adam7, битые файлы) - null, и вызывающий
+ * отдаёт байты ImageIO: тот и прочитает экзотику, и сам решит, что считать
+ * ошибкой. CRC не проверяется, как и в ImageIO; целостность потока
+ * стережёт adler32 zlib. gAMA/iCCP игнорируются - ImageIO их тоже не применяет.
+ */
+public final class PngDecoder {
+
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_INDEXED = 3;
+    private static final int COLOR_RGBA = 6;
+
+    private static final DirectColorModel ARGB = (DirectColorModel) ColorModel.getRGBdefault();
+
+    private PngDecoder() {}
+
+    /** Картинка TYPE_INT_ARGB; null - вариант не поддержан или файл битый, нужен ImageIO. */
+    public static BufferedImage decode(byte[] png) {
+        try {
+            return read(ByteBuffer.wrap(png));
+        } catch (DataFormatException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static BufferedImage read(ByteBuffer in) throws DataFormatException {
+        if (in.remaining() < 8 || in.getLong() != SIGNATURE) return null;
+
+        int width = 0;
+        int height = 0;
+        int bitDepth = 0;
+        int colorType = -1;
+        int[] palette = null;
+        int transparentRgb = -1;
+        // Границы IDAT в исходном массиве: zlib-поток может быть порезан на сколько угодно чанков
+        int[] idat = new int[16];
+        int idatCount = 0;
+
+        while (true) {
+            int length = in.getInt();
+            int type = in.getInt();
+            int start = in.position();
+            if (length < 0 || length > in.remaining() - 4) return null;
+
+            switch (type) {
+                case IHDR -> {
+                    width = in.getInt();
+                    height = in.getInt();
+                    bitDepth = in.get() & 0xFF;
+                    colorType = in.get() & 0xFF;
+                    int compression = in.get();
+                    int filter = in.get();
+                    int interlace = in.get();
+                    if (compression != 0 || filter != 0 || interlace != 0) return null;
+                    if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4) return null;
+                    boolean supported = switch (colorType) {
+                        case COLOR_RGB, COLOR_RGBA -> bitDepth == 8;
+                        case COLOR_INDEXED -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+                        default -> false;
+                    };
+                    if (!supported) return null;
+                }
+                case PLTE -> {
+                    palette = new int[length / 3];
+                    for (int i = 0; i < palette.length; i++) {
+                        palette[i] = 0xFF000000 | (in.get() & 0xFF) << 16 | (in.get() & 0xFF) << 8 | (in.get() & 0xFF);
+                    }
+                }
+                case TRNS -> {
+                    if (colorType == COLOR_INDEXED && palette != null) {
+                        for (int i = 0; i < length && i < palette.length; i++) {
+                            palette[i] = (in.get() & 0xFF) << 24 | (palette[i] & 0xFFFFFF);
+                        }
+                    } else if (colorType == COLOR_RGB && length == 6) {
+                        // Ключевой цвет: 16-битные сэмплы, при глубине 8 значим младший байт
+                        transparentRgb = (in.getShort() & 0xFF) << 16 | (in.getShort() & 0xFF) << 8 | (in.getShort() & 0xFF);
+                    }
+                }
+                case IDAT -> {
+                    if (idatCount == idat.length) idat = Arrays.copyOf(idat, idat.length * 2);
+                    idat[idatCount++] = start;
+                    idat[idatCount++] = length;
+                }
+                case IEND -> {
+                    return colorType < 0 || idatCount == 0 || (colorType == COLOR_INDEXED && palette == null)
+                            ? null
+                            : inflate(in.array(), idat, idatCount, width, height, bitDepth, colorType, palette, transparentRgb);
+                }
+                default -> {
+                    // Неизвестный критический чанк (заглавная первая буква) - не наш случай
+                    if ((type >>> 24 & 0x20) == 0) return null;
+                }
+            }
+            in.position(start + length + 4);
+        }
+    }
+
+    private static BufferedImage inflate(byte[] png, int[] idat, int idatCount, int width, int height,
+                                         int bitDepth, int colorType, int[] palette, int transparentRgb)
+            throws DataFormatException {
+        int channels = colorType == COLOR_RGBA ? 4 : colorType == COLOR_RGB ? 3 : 1;
+        // Шаг фильтров - байт на пиксель, но не меньше одного байта (палитра 1/2/4 бит)
+        int bpp = Math.max(1, channels * bitDepth / 8);
+        int rowBytes = (width * channels * bitDepth + 7) / 8;
+
+        byte[] prev = new byte[rowBytes];
+        byte[] cur = new byte[rowBytes];
+        byte[] filter = new byte[1];
+        int[] argb = new int[width * height];
+
+        Inflater inflater = new Inflater();
+        try {
+            int[] next = {0};
+            for (int y = 0; y < height; y++) {
+                fill(inflater, png, idat, idatCount, next, filter, 1);
+                fill(inflater, png, idat, idatCount, next, cur, rowBytes);
+                unfilter(filter[0], cur, prev, rowBytes, bpp);
+
+                int out = y * width;
+                switch (colorType) {
+                    case COLOR_RGBA -> {
+                        for (int x = 0, i = 0; x < width; x++, i += 4) {
+                            argb[out + x] = (cur[i + 3] & 0xFF) << 24 | (cur[i] & 0xFF) << 16
+                                    | (cur[i + 1] & 0xFF) << 8 | (cur[i + 2] & 0xFF);
+                        }
+                    }
+                    case COLOR_RGB -> {
+                        for (int x = 0, i = 0; x < width; x++, i += 3) {
+                            int rgb = (cur[i] & 0xFF) << 16 | (cur[i + 1] & 0xFF) << 8 | (cur[i + 2] & 0xFF);
+                            argb[out + x] = rgb == transparentRgb ? rgb : 0xFF000000 | rgb;
+                        }
+                    }
+                    default -> {
+                        int perByte = 8 / bitDepth;
+                        int mask = (1 << bitDepth) - 1;
+                        for (int x = 0; x < width; x++) {
+                            int shift = 8 - bitDepth * (x % perByte + 1);
+                            argb[out + x] = palette[(cur[x / perByte] & 0xFF) >>> shift & mask];
+                        }
+                    }
+                }
+
+                byte[] swap = prev;
+                prev = cur;
+                cur = swap;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(argb, argb.length),
+                width, height, width, ARGB.getMasks(), null);
+        return new BufferedImage(ARGB, raster, false, null);
+    }
+
+    /** Дочитывает ровно len байт распакованного потока, подавая IDAT по мере надобности. */
+    private static void fill(Inflater inflater, byte[] png, int[] idat, int idatCount, int[] next,
+                             byte[] dst, int len) throws DataFormatException {
+        int off = 0;
+        while (off < len) {
+            int n = inflater.inflate(dst, off, len - off);
+            if (n == 0) {
+                if (inflater.finished() || inflater.needsDictionary()) throw new DataFormatException("Truncated image data");
+                if (inflater.needsInput()) {
+                    if (next[0] == idatCount) throw new DataFormatException("Truncated image data");
+                    inflater.setInput(png, idat[next[0]], idat[next[0] + 1]);
+                    next[0] += 2;
+                }
+            }
+            off += n;
+        }
+    }
+
+    private static void unfilter(int type, byte[] cur, byte[] prev, int rowBytes, int bpp) throws DataFormatException {
+        switch (type) {
+            case 0 -> {}
+            case 1 -> {
+                for (int i = bpp; i < rowBytes; i++) cur[i] += cur[i - bpp];
+            }
+            case 2 -> {
+                for (int i = 0; i < rowBytes; i++) cur[i] += prev[i];
+            }
+            case 3 -> {
+                for (int i = 0; i < bpp; i++) cur[i] += (byte) ((prev[i] & 0xFF) >>> 1);
+                for (int i = bpp; i < rowBytes; i++) {
+                    cur[i] += (byte) (((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >>> 1);
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < bpp; i++) cur[i] += prev[i];
+                for (int i = bpp; i < rowBytes; i++) {
+                    int a = cur[i - bpp] & 0xFF;
+                    int b = prev[i] & 0xFF;
+                    int c = prev[i - bpp] & 0xFF;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    cur[i] += (byte) (pa <= pb && pa <= pc ? a : pb <= pc ? b : c);
+                }
+            }
+            default -> throw new DataFormatException("Bad filter type " + type);
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package net.tokishu.cubatar.module.resolve;
 
+import net.tokishu.cubatar.common.PreparedSkin;
+
 import java.awt.image.BufferedImage;
 
 /**
- * Результат резолва: картинка скина + модель + URL плаща (если есть).
- * slim == null - модель неизвестна (скин пришёл по прямому URL, а не из
- * профиля Mojang), рендерам следует падать на эвристику по прозрачности.
- * Плащ отдаётся ссылкой, а не картинкой - его качают только те рендеры,
- * которым он реально нужен.
+ * Результат резолва: текстура скина + она же, разобранная для рендеров +
+ * модель + URL плаща (если есть). slim == null - модель неизвестна (скин
+ * пришёл по прямому URL, а не из профиля Mojang), рендерам следует падать
+ * на эвристику по прозрачности. Плащ отдаётся ссылкой, а не картинкой - его
+ * качают только те рендеры, которым он реально нужен.
  */
-public record ResolvedSkin(BufferedImage image, Boolean slim, String capeUrl) {}
+public record ResolvedSkin(Texture texture, PreparedSkin prepared, Boolean slim, String capeUrl) {
+
+    public BufferedImage image() {
+        return texture.image();
+    }
+}
@@ -0,0 +1,79 @@
+package net.tokishu.cubatar.module.resolve;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Склейка одновременных вызовов по ключу: пока для ключа идёт вызов, все
+ * остальные вызывающие ждут его результат (или исключение) вместо своего
+ * похода наверх. Результат не запоминается - после завершения следующий
+ * вызов пойдёт заново; кешированием занимаются кеши поверх.
+ * <p>
+ * {@code @Cacheable} не синхронизирован: на холодном кеше сотня запросов
+ * одного ника - сотня походов в Mojang. Здесь это один поход и
+ * {@link #collapsed()} = 99.
+ */
+public final class SingleFlight<K, V> {
+
+    private final String name;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    public V execute(K key, Supplier<V> call) {
+        calls.increment();
+        CompletableFuture<V> own = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, own);
+        if (running != null) {
+            collapsed.increment();
+            return await(running);
+        }
+        try {
+            V value = call.get();
+            own.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            // Ведомые получают то же исключение, что и ведущий (404 остаётся 404)
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Всего вызовов {@link #execute}. */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /** Сколько из них не пошли наверх, а дождались чужого вызова. */
+    public long collapsed() {
+        return collapsed.sum();
+    }
+
+    /** Ключей, по которым прямо сейчас идёт вызов. */
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
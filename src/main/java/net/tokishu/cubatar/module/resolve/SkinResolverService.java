@@ -1,18 +1,32 @@
 package net.tokishu.cubatar.module.resolve;
 
 import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.StageMetrics;
+import net.tokishu.cubatar.module.cluster.service.ClusterService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import static net.tokishu.cubatar.module.resolve.ResolverConfig.UUID_PATTERN;
 
@@ -20,8 +34,39 @@ import static net.tokishu.cubatar.module.resolve.ResolverConfig.UUID_PATTERN;
 @RequiredArgsConstructor
 public class SkinResolverService {
 
+    private static final String MOJANG_TEXTURES_HTTP = "http://textures.minecraft.net/";
+    private static final String MOJANG_TEXTURES_HTTPS = "https://textures.minecraft.net/";
+
+    /** Параллельные загрузки {@link #loadWithCape} - по виртуальному потоку на текстуру. */
+    private static final Executor FORK = task -> Thread.ofVirtual().name("texture-fetch").start(task);
+
     private final MojangGateway gateway;
     private final RestClient restClient;
+    private final TextureCache textures;
+    private final NegativeCache negative;
+    private final StageMetrics metrics;
+    private final ClusterService cluster;
+    private final ImageLimits limits;
+
+    // Одновременные промахи по одному нику/UUID/URL идут наверх одним вызовом
+    private final SingleFlight<String, UUID> uuidFlights = new SingleFlight<>("uuid");
+    private final SingleFlight<UUID, SkinTexture> profileFlights = new SingleFlight<>("profile");
+    private final SingleFlight<String, Texture> textureFlights = new SingleFlight<>("texture");
+    private final SingleFlight<String, SkinSource> sourceFlights = new SingleFlight<>("direct-url");
+
+    @Value("${cubatar.http.max-response-size}")
+    private int maxResponseSize;
+
+    @Value("${cubatar.http.read-timeout}")
+    private Duration readTimeout;
+
+    @Value("${cubatar.mojang.textures-url}")
+    private String texturesUrl;
+
+    static {
+        // Без этого ImageIO буферизует каждый входной поток во временный файл на диске
+        ImageIO.setUseCache(false);
+    }
 
     public BufferedImage resolve(String input) {
         return resolveWithModel(input).image();
@@ -33,17 +78,65 @@ public class SkinResolverService {
      * (slim == null) - рендеры в этом случае используют эвристику.
      */
     public ResolvedSkin resolveWithModel(String input) {
+        return load(resolveSource(input));
+    }
+
+    /**
+     * Резолв без декодирования: для ника/UUID - только профиль Mojang (хеш
+     * текстуры берётся из URL, ничего не качается), для прямого URL -
+     * скачивание и хеш содержимого.
+     */
+    public SkinSource resolveSource(String input) {
         RequestType type = getRequestType(input);
         return switch (type) {
-            case UUID     -> skinFromUUID(UUID.fromString(input));
-            case URL      -> new ResolvedSkin(skinFromUrl(input), null, null);
-            case NICKNAME -> skinFromUUID(gateway.getUUIDFromUsername(input));
+            case UUID     -> sourceFromUUID(UUID.fromString(input));
+            case URL      -> sourceFromUrl(input);
+            case NICKNAME -> sourceFromUUID(uuidOf(input));
         };
     }
 
+    /** Вторая половина резолва: текстура из кеша или скачанная и декодированная. */
+    public ResolvedSkin load(SkinSource source) {
+        Texture texture = source.bytes() != null
+                ? directTexture(source)
+                : textureFromUrl(source.url());
+        return new ResolvedSkin(texture, textures.prepare(texture), source.slim(), source.capeUrl());
+    }
+
+    /**
+     * Скин и плащ сразу: как только известен профиль, обе текстуры качаются
+     * параллельно на виртуальных потоках, а не плащ после скина - на
+     * холодном кеше это одно ожидание textures.minecraft.net вместо двух.
+     * Первая же ошибка любой из загрузок сразу завершает вызов, не дожидаясь
+     * второй. Вторую при этом не прерываем: она может быть ведущей в
+     * {@link SingleFlight} и для чужих запросов, так что пусть докачается в кеш.
+     * <p>
+     * Вызов ждёт дочерние виртуальные потоки, поэтому не должен идти под
+     * монитором (synchronized, загрузчик синхронного кеша Caffeine): поток
+     * там прикреплён к носителю, и при нескольких таких вызовах сразу
+     * дочерним потокам не на чем выполняться.
+     */
+    public LoadedSkin loadWithCape(SkinSource source, boolean cape) {
+        if (!cape || source.capeUrl() == null) return new LoadedSkin(load(source), null);
+
+        CompletableFuture<ResolvedSkin> skin = CompletableFuture.supplyAsync(() -> load(source), FORK);
+        CompletableFuture<Texture> capeTexture = CompletableFuture.supplyAsync(() -> fetchTexture(source.capeUrl()), FORK);
+        CompletableFuture<Object> failed = new CompletableFuture<>();
+        skin.whenComplete((value, e) -> { if (e != null) failed.completeExceptionally(e); });
+        capeTexture.whenComplete((value, e) -> { if (e != null) failed.completeExceptionally(e); });
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(skin, capeTexture), failed).join();
+            return new LoadedSkin(skin.join(), capeTexture.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
     /** Качает произвольную текстуру (например, плащ по capeUrl из {@link ResolvedSkin}). */
-    public BufferedImage fetchTexture(String url) {
-        return skinFromUrl(url);
+    public Texture fetchTexture(String url) {
+        return textureFromUrl(url);
     }
 
     /** URL плаща без скачивания скина; null - нет плаща или input не про профиль (прямой URL). */
@@ -51,42 +144,288 @@ public class SkinResolverService {
         RequestType type = getRequestType(input);
         return switch (type) {
             case UUID     -> capeFromUUID(UUID.fromString(input));
-            case NICKNAME -> capeFromUUID(gateway.getUUIDFromUsername(input));
+            case NICKNAME -> capeFromUUID(uuidOf(input));
             case URL      -> null;
         };
     }
 
+    /** Счётчики склеенных вызовов: ник→UUID, UUID→профиль, скачивание текстур и прямых ссылок. */
+    public List<SingleFlight<?, ?>> flights() {
+        return List.of(uuidFlights, profileFlights, textureFlights, sourceFlights);
+    }
+
+    /**
+     * Ники в Mojang регистронезависимы - NOTCH и notch склеиваются в один
+     * вызов. Несуществующий ник запоминается в {@link NegativeCache} и до
+     * конца TTL отвечает 404 без похода в Mojang.
+     */
+    private UUID uuidOf(String username) {
+        String name = username.toLowerCase(Locale.ROOT);
+        if (negative.contains("name:" + name)) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Player not found");
+        return uuidFlights.execute(name, () -> {
+            try {
+                return gateway.getUUIDFromUsername(username);
+            } catch (ResponseStatusException e) {
+                if (e.getStatusCode().isSameCodeAs(HttpStatus.NOT_FOUND)) negative.put("name:" + name);
+                throw e;
+            }
+        });
+    }
+
+    /** Профиль Mojang; null - профиля или скина в нём нет (запоминается в {@link NegativeCache}). */
+    private SkinTexture profileOf(UUID uuid) {
+        if (negative.contains("uuid:" + uuid)) return null;
+        return profileFlights.execute(uuid, () -> {
+            SkinTexture texture = gateway.getSkinFromUUID(uuid);
+            if (texture == null) negative.put("uuid:" + uuid);
+            return texture;
+        });
+    }
+
     private String capeFromUUID(UUID uuid) {
-        SkinTexture texture = gateway.getSkinFromUUID(uuid);
+        SkinTexture texture = profileOf(uuid);
         return texture == null ? null : texture.capeUrl();
     }
 
-    private ResolvedSkin skinFromUUID(UUID uuid) {
-        SkinTexture texture = gateway.getSkinFromUUID(uuid);
+    private SkinSource sourceFromUUID(UUID uuid) {
+        SkinTexture texture = profileOf(uuid);
         if (texture == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Skin not found");
-        return new ResolvedSkin(skinFromUrl(texture.url()), texture.slim(), texture.capeUrl());
+        return new SkinSource(texture.url(), TextureCache.keyOf(texture.url()), texture.slim(), texture.capeUrl(), null);
+    }
+
+    /** Прямая ссылка: хеш содержимого требует скачивания, одновременные запросы качают один раз. */
+    private SkinSource sourceFromUrl(String input) {
+        String realUrl = decodeUrl(input);
+        String hash = TextureCache.hashFromUrl(realUrl);
+        if (hash != null) return new SkinSource(realUrl, hash, null, null, null);
+        rejectKnownBad(realUrl);
+        return sourceFlights.execute(realUrl, () -> {
+            byte[] imageBytes = download(realUrl);
+            return new SkinSource(realUrl, TextureCache.contentHash(imageBytes), null, null, imageBytes);
+        });
+    }
+
+    /**
+     * Текстура по URL (или base64-URL) через {@link TextureCache}: у ссылок
+     * textures.minecraft.net хеш известен заранее, и при попадании в кеш
+     * ничего не качается; прямые ссылки качаются всегда, но декодируются
+     * один раз на уникальное содержимое. Одновременные запросы одного URL
+     * склеиваются: одно скачивание и одно декодирование на всех.
+     */
+    private Texture textureFromUrl(String input) {
+        return textureFlights.execute(input, () -> loadTexture(input));
     }
 
-    private BufferedImage skinFromUrl(String input) {
+    private Texture loadTexture(String input) {
+
+        String realUrl = decodeUrl(input);
+        rejectKnownBad(realUrl);
 
-        String realUrl = input;
+        String hash = TextureCache.hashFromUrl(realUrl);
+        if (hash != null) {
+            Texture cached = textures.getIfPresent(hash);
+            if (cached != null) return cached;
+            // Качаем не в загрузчике кеша, а вне его замка; одновременные запросы уже склеил textureFlights.
+            // В режиме кластера чужую текстуру отдаёт из своего кеша узел-владелец
+            return textures.put(cluster.viaOwner("texture:" + hash,
+                    owner -> decode(hash, cluster.texture(owner, hash)),
+                    () -> fetch(realUrl, (body, length) -> decode(hash, body.readAllBytes()))));
+        }
+
+        byte[] imageBytes = download(realUrl);
+        return textures.get(TextureCache.contentHash(imageBytes), h -> decode(h, imageBytes));
+    }
 
+    private String decodeUrl(String input) {
         if (isBase64Url(input)) {
             byte[] decodedBytesUrl = Base64.getUrlDecoder().decode(input);
-            realUrl = new String(decodedBytesUrl, StandardCharsets.UTF_8);
+            return new String(decodedBytesUrl, StandardCharsets.UTF_8);
         }
+        return input;
+    }
 
-        byte[] imageBytes = restClient.get()
-                .uri(realUrl)
-                .retrieve()
-                .body(byte[].class);
+    /** Декодирование тела прямой ссылки; "не картинка" запоминается по URL. */
+    private Texture directTexture(SkinSource source) {
+        try {
+            return textures.get(source.hash(), h -> decode(h, source.bytes()));
+        } catch (ResponseStatusException e) {
+            if (e.getStatusCode().isSameCodeAs(HttpStatus.BAD_REQUEST)) negative.put("invalid:" + source.url());
+            throw e;
+        }
+    }
 
+    /** Ссылки, которые уже отдавали 4xx или не-картинку, отбиваются без скачивания. */
+    private void rejectKnownBad(String url) {
+        if (negative.contains("missing:" + url)) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Texture not found");
+        if (negative.contains("invalid:" + url)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not image or unsupported format");
+    }
+
+    /**
+     * Скин по прямой ссылке: сначала только заголовок - PNG с размерами не
+     * скина отбивается, не дочитав тело; остальные форматы проверяются по
+     * заголовку после скачивания, но до декодирования. Отбитая ссылка
+     * запоминается как "invalid:" и дальше стоит одной проверки в {@link NegativeCache}.
+     */
+    private byte[] download(String url) {
+        try {
+            return fetch(url, (body, length) -> {
+                byte[] head = body.readNBytes(ImageLimits.PNG_HEADER_LENGTH);
+                ImageLimits.Size size = ImageLimits.pngSize(head);
+                if (size != null) limits.checkSkin(size);
+                byte[] rest = body.readAllBytes();
+                byte[] bytes = Arrays.copyOf(head, head.length + rest.length);
+                System.arraycopy(rest, 0, bytes, head.length, rest.length);
+                if (size == null) {
+                    size = ImageLimits.headerSize(bytes);
+                    if (size == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not image or unsupported format");
+                    limits.checkSkin(size);
+                }
+                return bytes;
+            });
+        } catch (ResponseStatusException e) {
+            if (e.getStatusCode().isSameCodeAs(HttpStatus.BAD_REQUEST)) negative.put("invalid:" + url);
+            throw e;
+        }
+    }
+
+    /**
+     * GET с телом потоком в reader - без промежуточного byte[] от RestClient.
+     * Заявленный Content-Length больше max-response-size отбивается сразу,
+     * незаявленный - обрывается на лимите; чтение тела тоже укладывается в
+     * read-timeout. 404/410 запоминаются как "missing:", слишком большое
+     * тело - как "invalid:"; 429 - это 503, как у Mojang, и не запоминается.
+     */
+    private <T> T fetch(String url, BodyReader<T> reader) {
+        String kind = TextureCache.hashFromUrl(url) != null ? "texture" : "direct";
+        return metrics.time("download", kind, () -> exchange(url, reader));
+    }
+
+    private <T> T exchange(String url, BodyReader<T> reader) {
+        try {
+            return restClient.get()
+                    .uri(texturesBase(url))
+                    .exchange((req, res) -> {
+                        HttpStatusCode status = res.getStatusCode();
+                        // Запоминаем только "нет и не будет"; 429/403/408 бывают временными, и прятать из-за них скин на весь TTL нельзя
+                        if (status.isSameCodeAs(HttpStatus.NOT_FOUND) || status.isSameCodeAs(HttpStatus.GONE)) {
+                            negative.put("missing:" + url);
+                            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Texture not found");
+                        }
+                        if (status.isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) throw UpstreamRateLimiter.throttled();
+                        if (status.isSameCodeAs(HttpStatus.REQUEST_TIMEOUT)) {
+                            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Texture download timed out");
+                        }
+                        if (status.is4xxClientError()) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Texture not found");
+                        if (res.getStatusCode().isError()) {
+                            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while getting texture");
+                        }
+                        long length = res.getHeaders().getContentLength();
+                        if (length > maxResponseSize) throw tooLarge(url);
+                        long deadline = System.nanoTime() + readTimeout.toNanos();
+                        try (InputStream body = new BoundedInputStream(res.getBody(), maxResponseSize, deadline)) {
+                            return reader.read(body, length);
+                        } catch (BodyLimitException limit) {
+                            if (limit.timedOut()) throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Texture download timed out");
+                            throw tooLarge(url);
+                        }
+                    });
+        } catch (ResourceAccessException e) {
+            // Таймаут соединения/ответа или обрыв - upstream не ответил вовремя
+            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Texture download timed out");
+        }
+    }
+
+    private ResponseStatusException tooLarge(String url) {
+        negative.put("invalid:" + url);
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, "Texture too large");
+    }
+
+    /**
+     * Ссылки textures.minecraft.net идут на textures-url: профили Mojang дают
+     * их по http, а сервер умеет https - с ним и HTTP/2 через ALPN. В профиле
+     * stub это адрес заглушки, хеш текстуры и ключ кеша при этом те же.
+     */
+    private String texturesBase(String url) {
+        if (url.startsWith(MOJANG_TEXTURES_HTTP)) return texturesUrl + url.substring(MOJANG_TEXTURES_HTTP.length());
+        if (url.startsWith(MOJANG_TEXTURES_HTTPS)) return texturesUrl + url.substring(MOJANG_TEXTURES_HTTPS.length());
+        return url;
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream body, long contentLength) throws IOException;
+    }
+
+    /** Тело не длиннее limit байт и дочитанное до deadline; иначе {@link BodyLimitException}. */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private final long deadline;
+        private long count;
+
+        BoundedInputStream(InputStream in, long limit, long deadline) {
+            super(in);
+            this.limit = limit;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) advance(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) advance(n);
+            return n;
+        }
+
+        private void advance(int n) throws BodyLimitException {
+            count += n;
+            if (count > limit) throw new BodyLimitException(false);
+            if (System.nanoTime() - deadline > 0) throw new BodyLimitException(true);
+        }
+    }
+
+    private static final class BodyLimitException extends IOException {
+
+        private final boolean timedOut;
+
+        BodyLimitException(boolean timedOut) {
+            super(timedOut ? "Body read deadline exceeded" : "Body size limit exceeded");
+            this.timedOut = timedOut;
+        }
+
+        boolean timedOut() {
+            return timedOut;
+        }
+    }
+
+    /**
+     * PNG скинов разбирает {@link PngDecoder} - сразу в TYPE_INT_ARGB, который
+     * рендеры берут без копии; что ему не по силам, читает ImageIO. Размеры
+     * из заголовка сверяются с бюджетом {@link ImageLimits} до декодирования.
+     */
+    private Texture decode(String hash, byte[] imageBytes) {
+        ImageLimits.Size size = ImageLimits.headerSize(imageBytes);
+        if (size == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not image or unsupported format");
+        limits.checkBudget(size);
+        long start = System.nanoTime();
+        BufferedImage image = PngDecoder.decode(imageBytes);
+        if (image != null) {
+            metrics.record("decode", "png", start);
+            return new Texture(hash, imageBytes, image);
+        }
         try (ByteArrayInputStream bis = new ByteArrayInputStream(imageBytes)) {
-            BufferedImage image = ImageIO.read(bis);
+            image = ImageIO.read(bis);
+            metrics.record("decode", "imageio", start);
             if (image == null) {
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not image or unsupported format");
             }
-            return image;
+            return new Texture(hash, imageBytes, image);
         } catch (IOException e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error while reading image");
         }
@@ -0,0 +1,13 @@
+package net.tokishu.cubatar.module.resolve;
+
+/**
+ * Первая половина резолва - всё, что известно о скине до декодирования:
+ * откуда текстура, её хеш (ключ {@link TextureCache}), модель и плащ. По
+ * хешу уже можно проверить кеш рендеров и If-None-Match, не трогая пиксели;
+ * картинку даёт {@link SkinResolverService#load}.
+ * <p>
+ * bytes - уже скачанное тело для прямых ссылок (их хеш - хеш содержимого,
+ * без скачивания его не узнать); у текстур Mojang хеш берётся из URL, и
+ * bytes == null.
+ */
+public record SkinSource(String url, String hash, Boolean slim, String capeUrl, byte[] bytes) {}
@@ -0,0 +1,29 @@
+package net.tokishu.cubatar.module.resolve;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Скачанная текстура (скин или плащ): исходные байты как пришли с сервера
+ * и уже декодированная картинка. hash - ключ в {@link TextureCache}: хеш из
+ * URL textures.minecraft.net либо SHA-256 содержимого для прямых ссылок.
+ * Картинка общая для всех запросов - рендеры её только читают.
+ */
+public record Texture(String hash, byte[] bytes, BufferedImage image) {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /** Исходные байты - PNG, их можно отдавать клиенту как есть, без перекодирования. */
+    public boolean isPng() {
+        if (bytes.length < PNG_SIGNATURE.length) return false;
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (bytes[i] != PNG_SIGNATURE[i]) return false;
+        }
+        return true;
+    }
+
+    /** Сколько байт кучи занимает запись: сырой файл + растр (4 байта на пиксель). */
+    int weight() {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        return (int) Math.min(Integer.MAX_VALUE, bytes.length + pixels * 4);
+    }
+}
@@ -0,0 +1,106 @@
+package net.tokishu.cubatar.module.resolve;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import net.tokishu.cubatar.common.PreparedSkin;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Контент-адресный кеш текстур, общий для всех эндпоинтов (skin, cape,
+ * avatar, body, iso). Кеш профилей в {@code AppConfig} хранит только URL
+ * из {@link SkinTexture}, а сама картинка раньше качалась и декодировалась
+ * на каждый запрос.
+ * <p>
+ * Ключ - хеш текстуры: у textures.minecraft.net он уже есть в конце URL и
+ * однозначно определяет содержимое, так что кеш проверяется до скачивания.
+ * Прямые ссылки ничего не гарантируют - их качаем и ключуем по SHA-256
+ * байтов, экономя декодирование и делясь записью с одинаковыми скинами.
+ * Ограничение - по байтам (сырой файл + растр), а не по числу записей:
+ * HD-скин 512x512 весит как сотня обычных.
+ * <p>
+ * Рядом, по тому же хешу, лежат {@link PreparedSkin} - разобранные скины.
+ * Своим кешем, а не полем {@link Texture}: плащи идут через тот же кеш,
+ * а разбирать их незачем.
+ */
+@Component
+public class TextureCache {
+
+    private static final Pattern MOJANG_TEXTURE_URL =
+            Pattern.compile("^https?://textures\\.minecraft\\.net/texture/([0-9a-fA-F]+)$");
+
+    private final Cache<String, Texture> cache;
+    private final Cache<String, PreparedSkin> prepared;
+
+    public TextureCache(@Value("${cubatar.cache.textures.max-bytes}") long maxBytes,
+                        @Value("${cubatar.cache.textures.prepared-max-bytes}") long preparedMaxBytes,
+                        MeterRegistry registry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String hash, Texture texture) -> texture.weight())
+                .recordStats()
+                .build();
+        this.prepared = Caffeine.newBuilder()
+                .maximumWeight(preparedMaxBytes)
+                .weigher((String hash, PreparedSkin skin) -> skin.weight())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "textures");
+        CaffeineCacheMetrics.monitor(registry, prepared, "prepared-skins");
+    }
+
+    /** Хеш из URL textures.minecraft.net; null - URL не от Mojang и содержимому верить нельзя. */
+    public static String hashFromUrl(String url) {
+        Matcher m = MOJANG_TEXTURE_URL.matcher(url);
+        return m.matches() ? m.group(1).toLowerCase() : null;
+    }
+
+    /** Ключ текстуры без скачивания: хеш для ссылок Mojang, иначе сам URL. */
+    public static String keyOf(String url) {
+        String hash = hashFromUrl(url);
+        return hash != null ? hash : url;
+    }
+
+    /** SHA-256 содержимого в hex - ключ для текстур по прямым ссылкам. */
+    public static String contentHash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Текстура из кеша или загруженная loader'ом; параллельные промахи по одному хешу грузят её один раз.
+     * loader выполняется под замком карты - только для декодирования уже скачанных байтов, сеть - через
+     * {@link #getIfPresent} и {@link #put}.
+     */
+    public Texture get(String hash, Function<String, Texture> loader) {
+        return cache.get(hash, loader);
+    }
+
+    /** Текстура из кеша; null - промах. */
+    public Texture getIfPresent(String hash) {
+        return cache.getIfPresent(hash);
+    }
+
+    /** Кладёт загруженную текстуру; если по хешу уже что-то лежит, возвращает лежащее. */
+    public Texture put(Texture texture) {
+        Texture existing = cache.asMap().putIfAbsent(texture.hash(), texture);
+        return existing != null ? existing : texture;
+    }
+
+    /** Скин, разобранный для рендеров, - один раз на хеш текстуры. */
+    public PreparedSkin prepare(Texture texture) {
+        return prepared.get(texture.hash(), h -> PreparedSkin.of(texture.image()));
+    }
+}
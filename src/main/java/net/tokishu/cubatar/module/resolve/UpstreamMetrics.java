@@ -0,0 +1,70 @@
+package net.tokishu.cubatar.module.resolve;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Каждый исходящий HTTP-вызов - в таймер {@code cubatar.upstream.requests}
+ * с тегами host и status (код ответа или IO_ERROR): отсюда и число 429/5xx
+ * от Mojang, и время до заголовков ответа. Стоит за {@link UpstreamRateLimiter},
+ * так что ожидание токена сюда не входит, а повтор после 429 - отдельный вызов.
+ * Хосты вне конфигурации (прямые ссылки на скины) сводятся в "other", чтобы
+ * чужие URL не плодили метрики.
+ */
+@Component
+public class UpstreamMetrics implements ClientHttpRequestInterceptor {
+
+    private final MeterRegistry registry;
+    private final Set<String> knownHosts = new TreeSet<>();
+
+    public UpstreamMetrics(MeterRegistry registry,
+                           @Value("${cubatar.mojang.profile-url}") String profileUrl,
+                           @Value("${cubatar.mojang.skin-url}") String skinUrl,
+                           @Value("${cubatar.mojang.textures-url}") String texturesUrl,
+                           @Value("${cubatar.mojang.bulk.url}") String bulkUrl) {
+        this.registry = registry;
+        for (String url : List.of(profileUrl, skinUrl, texturesUrl, bulkUrl)) {
+            String host = URI.create(url).getHost();
+            if (host != null) knownHosts.add(host.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        String host = request.getURI().getHost();
+        String tag = host != null && knownHosts.contains(host.toLowerCase(Locale.ROOT)) ? host.toLowerCase(Locale.ROOT) : "other";
+        long start = System.nanoTime();
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            record(tag, String.valueOf(response.getStatusCode().value()), start);
+            return response;
+        } catch (IOException e) {
+            record(tag, "IO_ERROR", start);
+            throw e;
+        }
+    }
+
+    private void record(String host, String status, long start) {
+        Timer.builder("cubatar.upstream.requests")
+                .description("Outgoing HTTP calls by host and status")
+                .tag("host", host)
+                .tag("status", status)
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,279 @@
+package net.tokishu.cubatar.module.resolve;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Бюджет запросов к Mojang: token bucket на каждый хост из списка (api и
+ * sessionserver лимитируются раздельно), встроенный в RestClient
+ * интерцептором - так под него попадают и одиночные запросы, и bulk, и
+ * фоновые обновления кешей. Остальные хосты (текстуры, прямые URL) идут мимо.
+ * <p>
+ * Токена нет - запрос бронирует следующий и спит до своей очереди (честный
+ * FIFO), но ждущих не больше max-queue и не дольше max-wait: остальным сразу
+ * 503, а не сотня потоков, висящих на одном лимите. На 429 корзина
+ * опустошается, хост блокируется на Retry-After (или на секунду, если его
+ * нет), а скорость делится пополам; каждый успешный ответ возвращает по
+ * 5% - AIMD, как у TCP. Запрос, получивший 429, повторяется один раз, когда
+ * блокировка спадёт, если успевает в max-wait.
+ */
+@Slf4j
+@Component
+public class UpstreamRateLimiter implements ClientHttpRequestInterceptor {
+
+    private static final double MIN_FACTOR = 0.05;
+    private static final double RECOVERY_STEP = 0.05;
+    private static final long DEFAULT_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>();
+
+    public UpstreamRateLimiter(@Value("${cubatar.mojang.limits.hosts}") List<String> hosts,
+                               @Value("${cubatar.mojang.limits.rate}") double rate,
+                               @Value("${cubatar.mojang.limits.burst}") int burst,
+                               @Value("${cubatar.mojang.limits.max-queue}") int maxQueue,
+                               @Value("${cubatar.mojang.limits.max-wait}") Duration maxWait) {
+        for (String host : hosts) {
+            String name = host.trim().toLowerCase(Locale.ROOT);
+            buckets.put(name, new Bucket(name, rate, Math.max(1, burst), maxQueue, maxWait.toNanos()));
+        }
+    }
+
+    /** 503 для клиента: Mojang нас придерживает, дело не в запросе. */
+    public static ResponseStatusException throttled() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Mojang rate limit exceeded, try later");
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        String host = request.getURI().getHost();
+        Bucket bucket = host != null ? buckets.get(host.toLowerCase(Locale.ROOT)) : null;
+        if (bucket == null) return execution.execute(request, body);
+
+        bucket.acquire();
+        ClientHttpResponse response = execution.execute(request, body);
+        if (!response.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) {
+            bucket.onSuccess();
+            return response;
+        }
+
+        bucket.onThrottled(retryAfterNanos(response.getHeaders()));
+        response.close();
+        bucket.acquire();
+        response = execution.execute(request, body);
+        if (response.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) {
+            bucket.onThrottled(retryAfterNanos(response.getHeaders()));
+        } else {
+            bucket.onSuccess();
+        }
+        return response;
+    }
+
+    /** Хосты под лимитом. */
+    public Set<String> hosts() {
+        return buckets.keySet();
+    }
+
+    /** Токенов, доступных прямо сейчас; -1 для хоста вне списка. */
+    public int permits(String host) {
+        Bucket bucket = buckets.get(host);
+        return bucket != null ? bucket.permits() : -1;
+    }
+
+    /** Сколько запросов сейчас ждут токена; -1 для хоста вне списка. */
+    public int queueDepth(String host) {
+        Bucket bucket = buckets.get(host);
+        return bucket != null ? bucket.waiting.get() : -1;
+    }
+
+    public List<Stats> stats() {
+        List<Stats> stats = new ArrayList<>(buckets.size());
+        for (Bucket bucket : buckets.values()) stats.add(bucket.stats());
+        return stats;
+    }
+
+    /**
+     * Состояние корзины хоста: permits - токенов сейчас, queued - ждущих,
+     * rate - текущая скорость в запросах/с (ниже настроенной после 429),
+     * blockedMillis - сколько ещё действует Retry-After.
+     */
+    public record Stats(String host, int permits, int queued, double rate, long blockedMillis) {}
+
+    /** Retry-After: секунды или HTTP-дата; 0 - заголовка нет или он нечитаем. */
+    static long retryAfterNanos(HttpHeaders headers) {
+        String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) return 0;
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toNanos());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    static final class Bucket {
+
+        private final String host;
+        private final double rate;
+        private final double burst;
+        private final int maxQueue;
+        private final long maxWaitNanos;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private double tokens;
+        private double factor = 1;
+        private long refilledAt = System.nanoTime();
+        private long blockedUntil = refilledAt;
+
+        Bucket(String host, double rate, double burst, int maxQueue, long maxWaitNanos) {
+            this.host = host;
+            this.rate = rate;
+            this.burst = burst;
+            this.maxQueue = maxQueue;
+            this.maxWaitNanos = maxWaitNanos;
+            this.tokens = burst;
+        }
+
+        /**
+         * Берёт токен или бронирует будущий и спит до него. Бронь - долг в
+         * tokens (они уходят в минус), который гасится пополнением; поэтому
+         * ждущие просыпаются строго по очереди, по одному на 1/rate секунды.
+         */
+        void acquire() {
+            long deadline;
+            long wait;
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                if (tokens >= 1 && now - blockedUntil >= 0) {
+                    tokens -= 1;
+                    return;
+                }
+                if (waiting.get() >= maxQueue) throw throttled();
+                tokens -= 1;
+                // Под Retry-After токены не копятся: долг начинает гаситься только после блокировки
+                wait = Math.max(0, blockedUntil - now) + (long) (-tokens / (rate * factor) * 1e9);
+                if (wait > maxWaitNanos) {
+                    tokens += 1;
+                    throw throttled();
+                }
+                deadline = now + maxWaitNanos;
+                waiting.incrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                sleep(wait);
+                // Пока спали, мог прийти 429 с Retry-After дальше нашей брони
+                while (true) {
+                    long blockedFor;
+                    lock.lock();
+                    try {
+                        blockedFor = blockedUntil - System.nanoTime();
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (blockedFor <= 0) return;
+                    if (System.nanoTime() + blockedFor - deadline > 0) throw throttled();
+                    sleep(blockedFor);
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        void onThrottled(long retryAfterNanos) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                factor = Math.max(MIN_FACTOR, factor / 2);
+                long until = now + (retryAfterNanos > 0 ? retryAfterNanos : DEFAULT_BACKOFF_NANOS);
+                if (until - blockedUntil > 0) blockedUntil = until;
+                tokens = Math.min(tokens, 0);
+            } finally {
+                lock.unlock();
+            }
+            log.warn("Mojang 429 from {}: backing off, rate now {}/s", host, String.format("%.2f", rate * factor));
+        }
+
+        void onSuccess() {
+            lock.lock();
+            try {
+                if (factor < 1) factor = Math.min(1, factor + RECOVERY_STEP);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int permits() {
+            lock.lock();
+            try {
+                refill(System.nanoTime());
+                return (int) Math.max(0, tokens);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Stats stats() {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                return new Stats(host, (int) Math.max(0, tokens), waiting.get(), rate * factor,
+                        Math.max(0, TimeUnit.NANOSECONDS.toMillis(blockedUntil - now)));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(long now) {
+            // Пока действует Retry-After, токены не копятся - иначе после блокировки ушёл бы залп
+            long from = now - blockedUntil < 0 ? now : Math.max(refilledAt, blockedUntil);
+            if (now - from > 0) {
+                tokens = Math.min(burst, tokens + (now - from) / 1e9 * rate * factor);
+            }
+            refilledAt = now;
+        }
+
+        private static void sleep(long nanos) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw throttled();
+            }
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package net.tokishu.cubatar.module.skin.service;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.ImageFormat;
 import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
 import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.Texture;
+import net.tokishu.cubatar.module.resolve.TextureCache;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
@@ -14,10 +20,24 @@ public class CapeService {
 
     private final SkinResolverService resolver;
     private final PngResponseWriter writer;
+    private final RenderCache renders;
 
-    public void process(String input, HttpServletResponse response) {
+    public void process(String input, String format, HttpServletRequest request, HttpServletResponse response) {
+        ImageFormat imageFormat = writer.negotiate(format, request, response);
         String capeUrl = resolver.resolveCapeUrl(input);
         if (capeUrl == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Player has no cape");
-        writer.write(resolver.fetchTexture(capeUrl), response);
+        String hash = TextureCache.keyOf(capeUrl);
+        String etag = imageFormat == ImageFormat.PNG ? hash : hash + "-" + imageFormat.extension();
+        if (writer.checkNotModified("\"" + etag + "\"", request, response)) return;
+
+        // Как у скина: WebP - из кеша рендеров, PNG - исходные байты из кеша текстур
+        if (imageFormat == ImageFormat.WEBP) {
+            RenderKey key = new RenderKey(hash, null, "cape", null, 0, 0, 0, null, null, imageFormat);
+            writer.write(renders.get(key, () -> resolver.fetchTexture(capeUrl).image()), imageFormat.contentType(), response);
+            return;
+        }
+        Texture cape = resolver.fetchTexture(capeUrl);
+        if (cape.isPng()) writer.write(cape.bytes(), response);
+        else writer.write(cape.image(), response);
     }
 }
@@ -1,22 +1,41 @@
 package net.tokishu.cubatar.module.skin.service;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.common.ImageFormat;
 import net.tokishu.cubatar.common.PngResponseWriter;
+import net.tokishu.cubatar.common.RenderCache;
+import net.tokishu.cubatar.common.RenderKey;
 import net.tokishu.cubatar.module.resolve.SkinResolverService;
+import net.tokishu.cubatar.module.resolve.SkinSource;
+import net.tokishu.cubatar.module.resolve.Texture;
 import org.springframework.stereotype.Service;
 
-import java.awt.image.BufferedImage;
-
 @Service
 @RequiredArgsConstructor
 public class SkinService {
 
     private final SkinResolverService resolver;
     private final PngResponseWriter writer;
+    private final RenderCache renders;
+
+    public void process(String input, String format, HttpServletRequest request, HttpServletResponse response) {
+        ImageFormat imageFormat = writer.negotiate(format, request, response);
+        SkinSource source = resolver.resolveSource(input);
+        // Сырая текстура однозначно определяется своим хешем - он же ETag (у WebP - с суффиксом)
+        String etag = imageFormat == ImageFormat.PNG ? source.hash() : source.hash() + "-" + imageFormat.extension();
+        if (writer.checkNotModified("\"" + etag + "\"", request, response)) return;
 
-    public void process(String input, HttpServletResponse response) {
-        BufferedImage skin = resolver.resolve(input);
-        writer.write(skin, response);
+        // Исходный PNG из кеша текстур отдаём байт в байт; WebP кодируется один раз на текстуру
+        // и лежит в кеше рендеров рядом с прочими WebP - на попадании текстура даже не загружается
+        if (imageFormat == ImageFormat.WEBP) {
+            RenderKey key = new RenderKey(source.hash(), null, "skin", null, 0, 0, 0, null, null, imageFormat);
+            writer.write(renders.get(key, () -> resolver.load(source).texture().image()), imageFormat.contentType(), response);
+            return;
+        }
+        Texture skin = resolver.load(source).texture();
+        if (skin.isPng()) writer.write(skin.bytes(), response);
+        else writer.write(skin.image(), response);
     }
 }
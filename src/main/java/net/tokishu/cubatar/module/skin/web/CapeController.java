@@ -1,5 +1,6 @@
 package net.tokishu.cubatar.module.skin.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.module.skin.service.CapeService;
@@ -14,7 +15,8 @@ public class CapeController {
     private final CapeService service;
 
     @GetMapping("/{input}")
-    public void getPlayerCape(@PathVariable String input, HttpServletResponse response) {
-        service.process(input, response);
+    public void getPlayerCape(@PathVariable String input, @RequestParam(required = false) String format,
+                              HttpServletRequest request, HttpServletResponse response) {
+        service.process(input, format, request, response);
     }
 }
@@ -1,5 +1,6 @@
 package net.tokishu.cubatar.module.skin.web;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import net.tokishu.cubatar.module.skin.service.SkinService;
@@ -15,8 +16,10 @@ public class SkinController {
     @GetMapping("/{input}")
     public void getRawSkin(
             @PathVariable String input,
+            @RequestParam(required = false) String format,
+            HttpServletRequest request,
             HttpServletResponse response) {
 
-        service.process(input, response);
+        service.process(input, format, request, response);
     }
 }
@@ -0,0 +1,25 @@
+package net.tokishu.cubatar.module.status.web;
+
+import lombok.RequiredArgsConstructor;
+import net.tokishu.cubatar.module.resolve.UpstreamRateLimiter;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Состояние бюджета запросов к Mojang: сколько токенов в корзине каждого
+ * хоста, сколько запросов ждёт и текущая (после 429 - сниженная) скорость.
+ * По нему видно, хватает ли лимита при текущих TTL кешей профилей.
+ */
+@RestController
+@RequestMapping("/v1/status")
+@RequiredArgsConstructor
+public class StatusController {
+
+    private final UpstreamRateLimiter limiter;
+
+    @GetMapping("/upstream")
+    public List<UpstreamRateLimiter.Stats> getUpstream() {
+        return limiter.stats();
+    }
+}
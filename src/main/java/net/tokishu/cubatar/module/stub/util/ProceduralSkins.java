@@ -0,0 +1,105 @@
+package net.tokishu.cubatar.module.stub.util;
+
+import lombok.experimental.UtilityClass;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+/**
+ * Детерминированные скины для заглушки Mojang: один seed - всегда одна и та
+ * же картинка. В examples/ лежат только готовые рендеры, а заглушке нужны
+ * сырые текстуры со всеми особенностями настоящих: второй слой с дырками и
+ * полупрозрачностью, slim-руки (пустые колонки), legacy 64x32, плащи.
+ * <p>
+ * Раскладка - стандартная UV-развёртка: каждая часть тела залита своим
+ * цветом с шумом, у головы есть глаза, второй слой покрыт частично.
+ */
+@UtilityClass
+public class ProceduralSkins {
+
+    /** Части тела первого слоя: x, y, w, h в координатах 64x64 (развёртка целиком). */
+    private static final int[][] BASE_PARTS = {
+            {0, 0, 32, 16},   // голова
+            {16, 16, 24, 16}, // торс
+            {40, 16, 16, 16}, // правая рука
+            {0, 16, 16, 16},  // правая нога
+            {32, 48, 16, 16}, // левая рука
+            {16, 48, 16, 16}, // левая нога
+    };
+
+    /** Второй слой: шлем, куртка, рукава, штанины. */
+    private static final int[][] OVERLAY_PARTS = {
+            {32, 0, 32, 16},
+            {16, 32, 24, 16},
+            {40, 32, 16, 16},
+            {0, 32, 16, 16},
+            {48, 48, 16, 16},
+            {0, 48, 16, 16},
+    };
+
+    public static BufferedImage skin(long seed, boolean slim, boolean legacy) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int height = legacy ? 32 : 64;
+        BufferedImage img = new BufferedImage(64, height, BufferedImage.TYPE_INT_ARGB);
+
+        for (int[] p : BASE_PARTS) {
+            if (p[1] + p[3] > height) continue;
+            fill(img, random, p, random.nextInt(0x1000000), 255, 1.0);
+        }
+        // Лицо: глаза и рот на передней грани головы (8..16, 8..16)
+        int eye = 0xFF000000 | random.nextInt(0x1000000);
+        img.setRGB(9, 12, 0xFFFFFFFF);
+        img.setRGB(10, 12, eye);
+        img.setRGB(13, 12, eye);
+        img.setRGB(14, 12, 0xFFFFFFFF);
+        for (int x = 11; x < 13; x++) img.setRGB(x, 14, 0xFF000000 | (random.nextInt(0x1000000) & 0x7F3F3F));
+
+        if (!legacy) {
+            double coverage = random.nextDouble();
+            for (int[] p : OVERLAY_PARTS) {
+                fill(img, random, p, random.nextInt(0x1000000), random.nextInt(4) == 0 ? 160 : 255, coverage);
+            }
+        } else if (random.nextBoolean()) {
+            // У legacy-скинов только шлем
+            fill(img, random, OVERLAY_PARTS[0], random.nextInt(0x1000000), 255, random.nextDouble());
+        }
+
+        if (slim && !legacy) {
+            // Slim-рука в 3 пикселя: задняя грань и торец сдвигаются, хвост колонок пуст
+            clear(img, 54, 20, 2, 12);
+            clear(img, 50, 16, 2, 4);
+            clear(img, 46, 52, 2, 12);
+            clear(img, 42, 48, 2, 4);
+            clear(img, 54, 36, 2, 12);
+            clear(img, 62, 52, 2, 12);
+        }
+        return img;
+    }
+
+    public static BufferedImage cape(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BufferedImage img = new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB);
+        fill(img, random, new int[]{0, 0, 22, 17}, random.nextInt(0x1000000), 255, 1.0);
+        fill(img, random, new int[]{22, 0, 24, 17}, random.nextInt(0x1000000), 255, 1.0);
+        return img;
+    }
+
+    /** Прямоугольник цветом base с шумом яркости; coverage - доля непустых пикселей. */
+    private static void fill(BufferedImage img, SplittableRandom random, int[] part, int base, int alpha, double coverage) {
+        int r0 = (base >> 16) & 0xFF, g0 = (base >> 8) & 0xFF, b0 = base & 0xFF;
+        for (int y = part[1]; y < part[1] + part[3]; y++) {
+            for (int x = part[0]; x < part[0] + part[2]; x++) {
+                if (random.nextDouble() >= coverage) continue;
+                int d = random.nextInt(41) - 20;
+                int r = Math.clamp(r0 + d, 0, 255), g = Math.clamp(g0 + d, 0, 255), b = Math.clamp(b0 + d, 0, 255);
+                img.setRGB(x, y, (alpha << 24) | (r << 16) | (g << 8) | b);
+            }
+        }
+    }
+
+    private static void clear(BufferedImage img, int x0, int y0, int w, int h) {
+        for (int y = y0; y < y0 + h; y++) {
+            for (int x = x0; x < x0 + w; x++) img.setRGB(x, y, 0);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package net.tokishu.cubatar.module.stub.web;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Заглушка Mojang внутри самого приложения (профиль {@code stub}): API
+ * профилей, bulk-API, sessionserver и сервер текстур под {@code /__stub}.
+ * Нужна, чтобы гонять Cubatar под нагрузкой и в разработке, не трогая
+ * настоящий Mojang и его лимиты.
+ * <p>
+ * Существует любой ник, кроме начинающихся с unknown-prefix; UUID - как у
+ * offline-игроков, из ника. Из UUID детерминированно выводятся скин (~30%
+ * slim, ~5% legacy 64x32), плащ (~10%) и отсутствие скина (~2%, Steve по
+ * умолчанию). Текстуры рисует {@link ProceduralSkins}: в examples/ только
+ * готовые рендеры, сырых скинов там нет.
+ * <p>
+ * Каждый ответ задерживается на latency плюс случайную добавку до
+ * latency-jitter, с вероятностью error-rate отвечает 500, а API-эндпоинты
+ * с вероятностью throttle-rate - 429 с Retry-After, как настоящий Mojang.
+ */
+@Profile("stub")
+@RestController
+@RequestMapping("/__stub")
+public class MojangStubController {
+
+    /** Первый символ хеша текстуры - что это: classic-скин, slim-скин или плащ. */
+    private static final char CLASSIC_MARK = 'a';
+    private static final char SLIM_MARK = 'b';
+    private static final char CAPE_MARK = 'c';
+
+    private final ObjectMapper mapper;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final double throttleRate;
+    private final long retryAfterSeconds;
+    private final String unknownPrefix;
+
+    private final Cache<String, byte[]> pngs = Caffeine.newBuilder().maximumSize(10_000).build();
+
+    public MojangStubController(ObjectMapper mapper,
+                                @Value("${cubatar.stub.latency}") Duration latency,
+                                @Value("${cubatar.stub.latency-jitter}") Duration jitter,
+                                @Value("${cubatar.stub.error-rate}") double errorRate,
+                                @Value("${cubatar.stub.throttle-rate}") double throttleRate,
+                                @Value("${cubatar.stub.retry-after}") Duration retryAfter,
+                                @Value("${cubatar.stub.unknown-prefix}") String unknownPrefix) {
+        this.mapper = mapper;
+        this.latencyMillis = latency.toMillis();
+        this.jitterMillis = jitter.toMillis();
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+        this.unknownPrefix = unknownPrefix.toLowerCase(Locale.ROOT);
+    }
+
+    @GetMapping("/users/profiles/minecraft/{name}")
+    public ResponseEntity<String> profile(@PathVariable String name) {
+        ResponseEntity<String> fault = fault(true);
+        if (fault != null) return fault;
+        if (isUnknown(name)) return ResponseEntity.notFound().build();
+        return json(mapper.writeValueAsString(Map.of("id", compact(uuidOf(name)), "name", name)));
+    }
+
+    @PostMapping("/profiles/minecraft")
+    public ResponseEntity<String> profiles(@RequestBody String body) {
+        ResponseEntity<String> fault = fault(true);
+        if (fault != null) return fault;
+        JsonNode names = mapper.readTree(body);
+        List<Map<String, String>> found = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i).asString();
+            if (!isUnknown(name)) found.add(Map.of("id", compact(uuidOf(name)), "name", name));
+        }
+        return json(mapper.writeValueAsString(found));
+    }
+
+    @GetMapping("/session/minecraft/profile/{uuid}")
+    public ResponseEntity<String> session(@PathVariable String uuid) {
+        ResponseEntity<String> fault = fault(true);
+        if (fault != null) return fault;
+
+        String id = uuid.replace("-", "").toLowerCase(Locale.ROOT);
+        String digest = sha256Hex(id);
+        int roll = Integer.parseInt(digest.substring(0, 4), 16) % 100;
+
+        Map<String, Object> textures = new LinkedHashMap<>();
+        if (roll >= 2) {
+            boolean slim = roll < 32;
+            Map<String, Object> skin = new LinkedHashMap<>();
+            skin.put("url", "http://textures.minecraft.net/texture/" + (slim ? SLIM_MARK : CLASSIC_MARK) + digest.substring(1));
+            if (slim) skin.put("metadata", Map.of("model", "slim"));
+            textures.put("SKIN", skin);
+        }
+        if (roll >= 90) {
+            textures.put("CAPE", Map.of("url", "http://textures.minecraft.net/texture/" + CAPE_MARK + digest.substring(1)));
+        }
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("timestamp", System.currentTimeMillis());
+        payload.put("profileId", id);
+        payload.put("textures", textures);
+        String value = Base64.getEncoder().encodeToString(mapper.writeValueAsBytes(payload));
+
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("id", id);
+        profile.put("name", "stub_" + id.substring(0, 8));
+        profile.put("properties", List.of(Map.of("name", "textures", "value", value)));
+        return json(mapper.writeValueAsString(profile));
+    }
+
+    @GetMapping("/texture/{hash}")
+    public ResponseEntity<byte[]> texture(@PathVariable String hash) {
+        ResponseEntity<String> fault = fault(false);
+        if (fault != null) return ResponseEntity.status(fault.getStatusCode()).build();
+
+        String key = hash.toLowerCase(Locale.ROOT);
+        if (key.length() < 16 || key.charAt(0) < CLASSIC_MARK || key.charAt(0) > CAPE_MARK) {
+            return ResponseEntity.notFound().build();
+        }
+        byte[] png = pngs.get(key, MojangStubController::render);
+        return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).body(png);
+    }
+
+    private static byte[] render(String hash) {
+        long seed = Long.parseUnsignedLong(hash.substring(1, 16), 16);
+        int roll = (int) Long.remainderUnsigned(seed, 100);
+        BufferedImage image = hash.charAt(0) == CAPE_MARK
+                ? ProceduralSkins.cape(seed)
+                : ProceduralSkins.skin(seed, hash.charAt(0) == SLIM_MARK, roll < 5);
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Задержка и, по жребию, ошибка; null - отвечать как обычно. */
+    private ResponseEntity<String> fault(boolean api) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (api && random.nextDouble() < throttleRate) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build();
+        }
+        if (random.nextDouble() < errorRate) return ResponseEntity.internalServerError().build();
+        return null;
+    }
+
+    private boolean isUnknown(String name) {
+        return !unknownPrefix.isEmpty() && name.toLowerCase(Locale.ROOT).startsWith(unknownPrefix);
+    }
+
+    private static ResponseEntity<String> json(String body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /** UUID offline-игрока: в Mojang ники регистронезависимы, поэтому от ника в нижнем регистре. */
+    private static UUID uuidOf(String name) {
+        String key = "OfflinePlayer:" + name.toLowerCase(Locale.ROOT);
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String compact(UUID uuid) {
+        return uuid.toString().replace("-", "");
+    }
+
+    private static String sha256Hex(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.tokishu.cubatar;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Условный GET отвечает 304 раньше, чем что-то декодируется или рендерится.
+ * Два узла (профиль stub, заглушка Mojang на первом): ETag берётся у
+ * первого, а If-None-Match уходит на второй, у которого кеши текстур и
+ * рендеров пусты, - как CDN, перепроверяющий запись на другой реплике.
+ * Если бы 304 отдавался после рендера, у второго узла были бы стадии
+ * download/decode/render/encode в {@code cubatar.stage}.
+ */
+class ConditionalGetTests {
+
+    private static final List<String> PATHS = List.of(
+            "/v1/skin/etag0",
+            "/v1/avatar/etag1?size=32",
+            "/v1/body/etag2?size=64",
+            "/v1/iso/head/etag3?size=64",
+            "/v1/iso/full/etag4?size=64",
+            "/v2/avatar/etag5");
+    private static final List<String> HEAVY_STAGES = List.of("download", "decode", "render", "encode");
+
+    private static final HttpClient client = HttpClient.newHttpClient();
+    private static ConfigurableApplicationContext origin;
+    private static ConfigurableApplicationContext replica;
+    private static int originPort;
+    private static int replicaPort;
+
+    @BeforeAll
+    static void start() {
+        originPort = freePort();
+        replicaPort = freePort();
+        origin = node(originPort);
+        replica = node(replicaPort);
+    }
+
+    @AfterAll
+    static void stop() {
+        replica.close();
+        origin.close();
+    }
+
+    @Test
+    void matchingEtagSkipsDecodeAndRender() throws Exception {
+        for (String path : PATHS) {
+            HttpResponse<byte[]> first = get(originPort, path, null);
+            assertEquals(200, first.statusCode(), path);
+            String etag = first.headers().firstValue("ETag").orElse(null);
+            assertNotNull(etag, path);
+
+            HttpResponse<byte[]> revalidated = get(replicaPort, path, etag);
+            assertEquals(304, revalidated.statusCode(), path);
+            assertEquals(0, revalidated.body().length, path);
+            assertEquals(etag, revalidated.headers().firstValue("ETag").orElse(null), path);
+        }
+        for (String stage : HEAVY_STAGES) assertEquals(0, stageCount(replica, stage), stage);
+
+        // Тот же запрос без If-None-Match реплика рендерит - счётчики выше не мертвы
+        assertEquals(200, get(replicaPort, PATHS.get(3), null).statusCode());
+        assertTrue(stageCount(replica, "decode") > 0);
+        assertTrue(stageCount(replica, "render") > 0);
+    }
+
+    /** Оба узла ходят в заглушку Mojang на origin. */
+    private static ConfigurableApplicationContext node(int port) {
+        String stub = "http://localhost:" + originPort + "/__stub/";
+        return new SpringApplicationBuilder(Main.class)
+                .profiles("stub")
+                .run("--server.port=" + port,
+                        "--cubatar.mojang.profile-url=" + stub + "users/profiles/minecraft/",
+                        "--cubatar.mojang.skin-url=" + stub + "session/minecraft/profile/",
+                        "--cubatar.mojang.textures-url=" + stub,
+                        "--cubatar.mojang.bulk.enabled=false",
+                        "--cubatar.prewarm.enabled=false",
+                        "--cubatar.stub.latency=0ms",
+                        "--cubatar.stub.latency-jitter=0ms");
+    }
+
+    private static HttpResponse<byte[]> get(int port, String path, String ifNoneMatch)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+        if (ifNoneMatch != null) request.header("If-None-Match", ifNoneMatch);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static long stageCount(ConfigurableApplicationContext node, String stage) {
+        return node.getBean(MeterRegistry.class).find("cubatar.stage").tag("stage", stage).timers()
+                .stream().mapToLong(Timer::count).sum();
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package net.tokishu.cubatar.common;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link ApngEncoder}: первый кадр читается как обычный PNG, а кадры,
+ * собранные по fcTL/fdAT так, как это делает просмотрщик (dispose NONE,
+ * blend SOURCE), совпадают с исходными до пикселя - с полупрозрачностью,
+ * пустыми и одинаковыми кадрами.
+ */
+class ApngEncoderTests {
+
+    @Test
+    void framesRoundTrip() throws IOException, DataFormatException {
+        SplittableRandom random = new SplittableRandom(24);
+        int w = 37, h = 23;
+        List<BufferedImage> frames = new ArrayList<>();
+        BufferedImage current = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < 9; i++) {
+            BufferedImage next = copy(current);
+            if (i == 4) next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);     // всё стёрто
+            else if (i != 5) {                                                              // 5 - как предыдущий
+                int x0 = random.nextInt(w), y0 = random.nextInt(h);
+                for (int y = y0; y < Math.min(h, y0 + 6); y++) {
+                    for (int x = x0; x < Math.min(w, x0 + 9); x++) next.setRGB(x, y, random.nextInt());
+                }
+            }
+            frames.add(next);
+            current = next;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApngEncoder encoder = new ApngEncoder(out, w, h, frames.size(), 40);
+        for (BufferedImage frame : frames) encoder.addFrame(frame);
+        encoder.finish();
+        byte[] apng = out.toByteArray();
+
+        BufferedImage still = ImageIO.read(new ByteArrayInputStream(apng));
+        assertArrayEquals(pixels(frames.get(0)), pixels(still));
+
+        List<int[]> decoded = decode(apng);
+        assertEquals(frames.size(), decoded.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertArrayEquals(pixels(frames.get(i)), decoded.get(i), "frame " + i);
+        }
+    }
+
+    @Test
+    void wrongFrameCountIsRejected() throws IOException {
+        ApngEncoder encoder = new ApngEncoder(new ByteArrayOutputStream(), 4, 4, 2, 40);
+        encoder.addFrame(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB));
+        assertThrows(IllegalStateException.class, encoder::finish);
+        assertThrows(IllegalArgumentException.class, () -> encoder.addFrame(new BufferedImage(5, 4, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    /** Кадры APNG после композиции; заодно проверяет CRC и номера последовательности. */
+    private static List<int[]> decode(byte[] apng) throws DataFormatException {
+        ByteBuffer in = ByteBuffer.wrap(apng);
+        in.position(8);
+        int width = 0, height = 0, expected = -1, sequence = 0;
+        int[] canvas = null;
+        int[] region = null;
+        ByteArrayOutputStream data = null;
+        List<int[]> frames = new ArrayList<>();
+        while (in.hasRemaining()) {
+            int length = in.getInt();
+            byte[] typeAndData = new byte[4 + length];
+            in.get(typeAndData);
+            CRC32 crc = new CRC32();
+            crc.update(typeAndData);
+            assertEquals((int) crc.getValue(), in.getInt());
+            String type = new String(typeAndData, 0, 4);
+            ByteBuffer chunk = ByteBuffer.wrap(typeAndData, 4, length);
+            switch (type) {
+                case "IHDR" -> {
+                    width = chunk.getInt();
+                    height = chunk.getInt();
+                    canvas = new int[width * height];
+                }
+                case "acTL" -> expected = chunk.getInt();
+                case "fcTL" -> {
+                    if (region != null) frames.add(compose(canvas, width, region, data));
+                    assertEquals(sequence++, chunk.getInt());
+                    region = new int[]{chunk.getInt(), chunk.getInt(), chunk.getInt(), chunk.getInt()};
+                    region = new int[]{region[2], region[3], region[0], region[1]};
+                    data = new ByteArrayOutputStream();
+                }
+                case "IDAT" -> data.write(typeAndData, 4, length);
+                case "fdAT" -> {
+                    assertEquals(sequence++, chunk.getInt());
+                    data.write(typeAndData, 8, length - 4);
+                }
+                case "IEND" -> frames.add(compose(canvas, width, region, data));
+                default -> fail("Unexpected chunk " + type);
+            }
+        }
+        assertEquals(expected, frames.size());
+        return frames;
+    }
+
+    /** Кладёт кадр {x, y, w, h} на холст с заменой пикселей и возвращает снимок холста. */
+    private static int[] compose(int[] canvas, int width, int[] region, ByteArrayOutputStream zlib) throws DataFormatException {
+        int x0 = region[0], y0 = region[1], w = region[2], h = region[3];
+        int stride = w * 4;
+        Inflater inflater = new Inflater();
+        inflater.setInput(zlib.toByteArray());
+        byte[] raw = new byte[h * (stride + 1)];
+        assertEquals(raw.length, inflater.inflate(raw));
+        inflater.end();
+
+        byte[] prior = new byte[stride];
+        for (int y = 0; y < h; y++) {
+            int filter = raw[y * (stride + 1)];
+            byte[] row = Arrays.copyOfRange(raw, y * (stride + 1) + 1, (y + 1) * (stride + 1));
+            for (int i = 0; i < stride; i++) {
+                int a = i >= 4 ? row[i - 4] & 0xFF : 0;
+                int b = prior[i] & 0xFF;
+                int c = i >= 4 ? prior[i - 4] & 0xFF : 0;
+                int predicted = switch (filter) {
+                    case 0 -> 0;
+                    case 1 -> a;
+                    case 2 -> b;
+                    case 3 -> (a + b) / 2;
+                    case 4 -> {
+                        int p = a + b - c;
+                        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                        yield pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                    }
+                    default -> throw new AssertionError("filter " + filter);
+                };
+                row[i] = (byte) (row[i] + predicted);
+            }
+            for (int x = 0; x < w; x++) {
+                int r = row[x * 4] & 0xFF, g = row[x * 4 + 1] & 0xFF, b = row[x * 4 + 2] & 0xFF, a = row[x * 4 + 3] & 0xFF;
+                canvas[(y0 + y) * width + x0 + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+            prior = row;
+        }
+        return canvas.clone();
+    }
+
+    private static BufferedImage copy(BufferedImage source) {
+        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        copy.setRGB(0, 0, source.getWidth(), source.getHeight(), pixels(source), 0, source.getWidth());
+        return copy;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,110 @@
+package net.tokishu.cubatar.common;
+
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link FaceTextures} обязан давать ровно то же, что прежние getSubimage +
+ * flipHorizontal + darken и darkenImage(extractAndScale(...)) на Graphics2D,
+ * в том числе на полупрозрачных текселях и при повторном обращении из кеша.
+ */
+class FaceTexturesTests {
+
+    @Test
+    void faceMatchesJava2dFlipAndDarken() {
+        BufferedImage skin = translucent(ProceduralSkins.skin(5, false, false));
+        for (int pass = 0; pass < 2; pass++) {
+            for (boolean mirrored : new boolean[]{false, true}) {
+                for (float shade : new float[]{1f, 0.85f, 0.7f, 0.55f}) {
+                    BufferedImage expected = skin.getSubimage(40, 20, 4, 12);
+                    if (mirrored) expected = flipHorizontal(expected);
+                    if (shade < 1f) expected = darken(expected, shade);
+                    assertSamePixels(expected, FaceTextures.face(skin, 40, 20, 4, 12, mirrored, shade),
+                            "mirrored " + mirrored + " shade " + shade);
+                }
+            }
+        }
+    }
+
+    @Test
+    void scaledMatchesJava2dScaleThenDarken() {
+        BufferedImage skin = translucent(ProceduralSkins.skin(9, true, false));
+        for (int target : new int[]{8, 5, 13, 64, 138}) {
+            for (int pass = 0; pass < 2; pass++) {
+                BufferedImage expected = darken(scale(skin.getSubimage(56, 8, 8, 8), target), 0.6f);
+                assertSamePixels(expected, FaceTextures.scaled(skin, 56, 8, 8, target, 0.6f), "target " + target);
+            }
+        }
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual, String name) {
+        assertEquals(expected.getWidth(), actual.getWidth(), name);
+        assertEquals(expected.getHeight(), actual.getHeight(), name);
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        int[] want = expected.getRGB(0, 0, w, h, null, 0, w);
+        int[] got = actual.getRGB(0, 0, w, h, null, 0, w);
+        // Полностью прозрачные пиксели не влияют на рендер, их RGB не сравниваем
+        for (int i = 0; i < want.length; i++) {
+            if (want[i] >>> 24 == 0) want[i] = 0;
+            if (got[i] >>> 24 == 0) got[i] = 0;
+        }
+        assertArrayEquals(want, got, name);
+    }
+
+    /** Половина видимых текселей - полупрозрачные. */
+    private static BufferedImage translucent(BufferedImage source) {
+        SplittableRandom random = new SplittableRandom(20);
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int argb = source.getRGB(x, y);
+                if (random.nextBoolean()) argb = (argb & 0xFFFFFF) | random.nextInt(1, 255) << 24;
+                result.setRGB(x, y, argb);
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage flipHorizontal(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        BufferedImage flipped = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = flipped.createGraphics();
+        g.drawImage(img, w, 0, -w, h, null);
+        g.dispose();
+        return flipped;
+    }
+
+    private static BufferedImage scale(BufferedImage img, int target) {
+        if (img.getWidth() == target) return img;
+        BufferedImage scaled = new BufferedImage(target, target, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(img, 0, 0, target, target, null);
+        g.dispose();
+        return scaled;
+    }
+
+    private static BufferedImage darken(BufferedImage img, float factor) {
+        BufferedImage res = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < img.getWidth(); x++) {
+            for (int y = 0; y < img.getHeight(); y++) {
+                int argb = img.getRGB(x, y);
+                int a = (argb >> 24) & 0xFF;
+                if (a == 0) continue;
+                int r = (int) (((argb >> 16) & 0xFF) * factor);
+                int g = (int) (((argb >> 8) & 0xFF) * factor);
+                int b = (int) ((argb & 0xFF) * factor);
+                res.setRGB(x, y, (a << 24) | (r << 16) | (g << 8) | b);
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,29 @@
+package net.tokishu.cubatar.common;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** {@link ImageFormat}: WebP - только по явному согласию клиента. */
+class ImageFormatTests {
+
+    @Test
+    void acceptNegotiation() {
+        assertEquals(ImageFormat.WEBP, ImageFormat.fromAccept("image/avif,image/webp,image/apng,image/*,*/*;q=0.8"));
+        assertEquals(ImageFormat.WEBP, ImageFormat.fromAccept("image/webp;q=0.5, image/png"));
+        assertEquals(ImageFormat.PNG, ImageFormat.fromAccept("image/webp;q=0, */*"));
+        assertEquals(ImageFormat.PNG, ImageFormat.fromAccept("image/png,image/*;q=0.8,*/*;q=0.5"));
+        assertEquals(ImageFormat.PNG, ImageFormat.fromAccept("*/*"));
+        assertEquals(ImageFormat.PNG, ImageFormat.fromAccept(null));
+        assertEquals(ImageFormat.PNG, ImageFormat.fromAccept("not a media type;;"));
+    }
+
+    @Test
+    void explicitFormat() {
+        assertEquals(ImageFormat.WEBP, ImageFormat.parse("WebP"));
+        assertEquals(ImageFormat.PNG, ImageFormat.parse("png"));
+        assertEquals(ImageFormat.PNG, ImageFormat.parse(null));
+        assertThrows(ResponseStatusException.class, () -> ImageFormat.parse("jpeg"));
+    }
+}
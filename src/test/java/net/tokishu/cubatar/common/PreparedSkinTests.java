@@ -0,0 +1,67 @@
+package net.tokishu.cubatar.common;
+
+import net.tokishu.cubatar.common.PreparedSkin.Region;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link PreparedSkin}: legacy дополняется до квадрата, INT_ARGB-растр не
+ * копируется, маски областей и slim-эвристика сходятся с прямым обходом getRGB.
+ */
+class PreparedSkinTests {
+
+    @Test
+    void legacySkinIsPaddedToSquare() {
+        BufferedImage legacy = ProceduralSkins.skin(3, false, true);
+        assertEquals(32, legacy.getHeight());
+        PreparedSkin skin = PreparedSkin.of(legacy);
+        assertTrue(skin.legacy());
+        assertFalse(skin.slimLayout());
+        assertEquals(64, skin.image().getHeight());
+        assertEquals(legacy.getRGB(10, 10), skin.image().getRGB(10, 10));
+        assertEquals(0, skin.image().getRGB(10, 50) >>> 24);
+    }
+
+    @Test
+    void denseIntArgbSkinIsShared() {
+        BufferedImage raw = ProceduralSkins.skin(4, false, false);
+        BufferedImage argb = new BufferedImage(raw.getWidth(), raw.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        argb.createGraphics().drawImage(raw, 0, 0, null);
+        assertSame(argb, PreparedSkin.of(argb).image());
+    }
+
+    @Test
+    void masksMatchDirectScan() {
+        for (int seed = 0; seed < 12; seed++) {
+            boolean slim = seed % 2 == 0;
+            BufferedImage raw = ProceduralSkins.skin(seed * 131L, slim, false);
+            // Стираем часть оверлеев, чтобы маски были не сплошь единицами
+            if (seed % 3 == 0) clear(raw, 40, 8, 8, 8);
+            if (seed % 4 == 1) clear(raw, 0, 48, 16, 16);
+            PreparedSkin skin = PreparedSkin.of(raw);
+            assertEquals(slim, skin.slimLayout(), "seed " + seed);
+            assertEquals(any(raw, 40, 8, 8, 8), skin.hasOverlay(Region.HAT_FRONT), "seed " + seed);
+            assertEquals(any(raw, 0, 48, 16, 16), skin.hasOverlay(Region.LEFT_PANTS), "seed " + seed);
+            assertEquals(any(raw, 32, 0, 32, 16), skin.hasOverlay(Region.HAT), "seed " + seed);
+        }
+    }
+
+    private static void clear(BufferedImage image, int x0, int y0, int w, int h) {
+        for (int y = y0; y < y0 + h; y++) {
+            for (int x = x0; x < x0 + w; x++) image.setRGB(x, y, 0);
+        }
+    }
+
+    private static boolean any(BufferedImage image, int x0, int y0, int w, int h) {
+        for (int y = y0; y < y0 + h; y++) {
+            for (int x = x0; x < x0 + w; x++) {
+                if (image.getRGB(x, y) >>> 24 != 0) return true;
+            }
+        }
+        return false;
+    }
+}
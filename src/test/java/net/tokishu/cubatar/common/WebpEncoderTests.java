@@ -0,0 +1,299 @@
+package net.tokishu.cubatar.common;
+
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Backend;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Part;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link WebpEncoder}: файл, разобранный по спецификации VP8L (декодер ниже
+ * - минимальный, только то, что кодировщик может выдать), совпадает с
+ * исходной картинкой до пикселя - и через палитру с упаковкой индексов, и
+ * через subtract green с кешем цветов, включая RGB под нулевой альфой.
+ */
+class WebpEncoderTests {
+
+    @Test
+    void imagesRoundTrip() {
+        List<BufferedImage> images = new ArrayList<>();
+        PreparedSkin skin = PreparedSkin.of(ProceduralSkins.skin(42, false, false));
+        images.add(skin.image());
+        images.add(IsometricRenderer.render(skin, null, 64, -45, 30, Part.HEAD, false, null, Backend.JAVA2D));
+        images.add(IsometricRenderer.render(skin, null, 96, -30, 20, Part.FULL, true, null, Backend.JAVA2D));
+        SplittableRandom random = new SplittableRandom(25);
+        // Границы упаковки индексов (2/4/16 цветов) с обеих сторон, 256 - предел палитры, 1000 - без неё
+        for (int colors : new int[]{1, 2, 3, 4, 5, 16, 17, 256, 257, 1000}) {
+            images.add(noise(random, random.nextInt(35, 90), random.nextInt(35, 90), colors));
+        }
+        images.add(noise(random, 1, 1, 1));
+        images.add(noise(random, 700, 2, 1000));
+
+        for (BufferedImage image : images) {
+            int w = image.getWidth(), h = image.getHeight();
+            String name = w + "x" + h;
+            byte[] webp = WebpEncoder.encode(image);
+            assertArrayEquals(image.getRGB(0, 0, w, h, null, 0, w), decode(webp, w, h), name);
+        }
+    }
+
+    @Test
+    void rendersAreSmallerThanPng() {
+        PreparedSkin skin = PreparedSkin.of(ProceduralSkins.skin(7, true, false));
+        BufferedImage image = IsometricRenderer.render(skin, null, 128, -45, 30, Part.FULL, false, null, Backend.JAVA2D);
+        assertTrue(WebpEncoder.encode(image).length < ImageFormat.PNG.encode(image).length);
+    }
+
+    /**
+     * Картинка ровно из colors случайных цветов (с альфой; если пикселей
+     * хватает): сначала все цвета по разу, дальше цвет держится случайной
+     * длины отрезками.
+     */
+    private static BufferedImage noise(SplittableRandom random, int w, int h, int colors) {
+        int[] palette = new int[colors];
+        for (int i = 0; i < colors; i++) palette[i] = i == 0 ? 0x00123456 : random.nextInt();
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int color = palette[0];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int i = y * w + x;
+                if (i < colors) color = palette[i];
+                else if (random.nextInt(4) == 0) color = palette[random.nextInt(colors)];
+                image.setRGB(x, y, color);
+            }
+        }
+        return image;
+    }
+
+    // ── Декодер ──────────────────────────────────────────────────────────
+
+    private static final int[] CODE_LENGTH_ORDER = {17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+    /** (dx, dy) 2D-кодов расстояний 1..120 из спецификации. */
+    private static final int[] PLANE = {
+            0, 1, 1, 0, 1, 1, -1, 1, 0, 2, 2, 0, 1, 2, -1, 2, 2, 1, -2, 1, 2, 2, -2, 2, 0, 3, 3, 0, 1, 3, -1, 3,
+            3, 1, -3, 1, 2, 3, -2, 3, 3, 2, -3, 2, 0, 4, 4, 0, 1, 4, -1, 4, 4, 1, -4, 1, 3, 3, -3, 3, 2, 4, -2, 4,
+            4, 2, -4, 2, 0, 5, 3, 4, -3, 4, 4, 3, -4, 3, 5, 0, 1, 5, -1, 5, 5, 1, -5, 1, 2, 5, -2, 5, 5, 2, -5, 2,
+            4, 4, -4, 4, 3, 5, -3, 5, 5, 3, -5, 3, 0, 6, 6, 0, 1, 6, -1, 6, 6, 1, -6, 1, 2, 6, -2, 6, 6, 2, -6, 2,
+            4, 5, -4, 5, 5, 4, -5, 4, 3, 6, -3, 6, 6, 3, -6, 3, 0, 7, 7, 0, 1, 7, -1, 7, 5, 5, -5, 5, 7, 1, -7, 1,
+            4, 6, -4, 6, 6, 4, -6, 4, 2, 7, -2, 7, 7, 2, -7, 2, 3, 7, -3, 7, 7, 3, -7, 3, 5, 6, -5, 6, 6, 5, -6, 5,
+            8, 0, 4, 7, -4, 7, 7, 4, -7, 4, 8, 1, 8, 2, 6, 6, -6, 6, 8, 3, 5, 7, -5, 7, 7, 5, -7, 5, 8, 4, 6, 7,
+            -6, 7, 7, 6, -7, 6, 8, 5, 7, 7, -7, 7, 8, 6, 8, 7};
+
+    /** ARGB из файла; заодно проверяет RIFF-обёртку и заголовок VP8L. */
+    private static int[] decode(byte[] file, int width, int height) {
+        ByteBuffer riff = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("RIFF", new String(file, 0, 4));
+        assertEquals(file.length - 8, riff.getInt(4));
+        assertEquals("WEBPVP8L", new String(file, 8, 8));
+        int length = riff.getInt(16);
+        assertEquals(file.length, 20 + length + (length & 1));
+
+        Bits in = new Bits(file, 20);
+        assertEquals(0x2F, in.read(8));
+        assertEquals(width, in.read(14) + 1);
+        assertEquals(height, in.read(14) + 1);
+        in.read(1);
+        assertEquals(0, in.read(3));
+
+        // Преобразования: читаются по порядку, отменяются в обратном
+        int xsize = width;
+        List<int[]> palettes = new ArrayList<>();
+        List<Integer> transforms = new ArrayList<>();
+        List<Integer> widths = new ArrayList<>();
+        while (in.read(1) == 1) {
+            int type = in.read(2);
+            transforms.add(type);
+            widths.add(xsize);
+            switch (type) {
+                case 2 -> palettes.add(null);
+                case 3 -> {
+                    int n = in.read(8) + 1;
+                    int[] palette = image(in, n, 1, false);
+                    for (int i = 1; i < n; i++) palette[i] = add(palette[i], palette[i - 1]);
+                    palettes.add(palette);
+                    int xBits = n <= 2 ? 3 : n <= 4 ? 2 : n <= 16 ? 1 : 0;
+                    xsize = (xsize + (1 << xBits) - 1) >> xBits;
+                }
+                default -> fail("Unexpected transform " + type);
+            }
+        }
+        int[] pixels = image(in, xsize, height, true);
+
+        for (int t = transforms.size() - 1; t >= 0; t--) {
+            int w = widths.get(t);
+            if (transforms.get(t) == 2) {
+                for (int i = 0; i < pixels.length; i++) {
+                    int p = pixels[i], g = (p >> 8) & 0xFF;
+                    pixels[i] = (p & 0xFF00FF00) | ((((p >> 16) + g) & 0xFF) << 16) | ((p + g) & 0xFF);
+                }
+            } else {
+                int[] palette = palettes.get(t);
+                int xBits = palette.length <= 2 ? 3 : palette.length <= 4 ? 2 : palette.length <= 16 ? 1 : 0;
+                int bits = 8 >> xBits, packed = (w + (1 << xBits) - 1) >> xBits;
+                int[] out = new int[w * height];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < w; x++) {
+                        int green = (pixels[y * packed + (x >> xBits)] >> 8) & 0xFF;
+                        int index = (green >> (bits * (x & ((1 << xBits) - 1)))) & ((1 << bits) - 1);
+                        out[y * w + x] = index < palette.length ? palette[index] : 0;
+                    }
+                }
+                pixels = out;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] image(Bits in, int width, int height, boolean main) {
+        int cacheBits = in.read(1) == 1 ? in.read(4) : 0;
+        if (main) assertEquals(0, in.read(1), "meta prefix codes");
+        Huffman green = Huffman.read(in, 256 + 24 + (cacheBits > 0 ? 1 << cacheBits : 0));
+        Huffman red = Huffman.read(in, 256);
+        Huffman blue = Huffman.read(in, 256);
+        Huffman alpha = Huffman.read(in, 256);
+        Huffman distance = Huffman.read(in, 40);
+        int[] cache = new int[1 << cacheBits];
+
+        int[] pixels = new int[width * height];
+        int at = 0;
+        while (at < pixels.length) {
+            int g = green.decode(in);
+            if (g < 256) {
+                int r = red.decode(in), b = blue.decode(in), a = alpha.decode(in);
+                pixels[at++] = a << 24 | r << 16 | g << 8 | b;
+            } else if (g < 280) {
+                int length = prefixed(in, g - 256);
+                int code = prefixed(in, distance.decode(in));
+                int dist = code > 120 ? code - 120 : Math.max(1, PLANE[2 * (code - 1)] + PLANE[2 * (code - 1) + 1] * width);
+                assertTrue(dist <= at && at + length <= pixels.length, "copy out of range");
+                for (int k = 0; k < length; k++, at++) {
+                    pixels[at] = pixels[at - dist];
+                    if (cacheBits > 0) cache[(0x1E35A7BD * pixels[at]) >>> (32 - cacheBits)] = pixels[at];
+                }
+                continue;
+            } else {
+                pixels[at++] = cache[g - 280];
+            }
+            if (cacheBits > 0) cache[(0x1E35A7BD * pixels[at - 1]) >>> (32 - cacheBits)] = pixels[at - 1];
+        }
+        return pixels;
+    }
+
+    private static int prefixed(Bits in, int symbol) {
+        if (symbol < 4) return symbol + 1;
+        int extra = (symbol - 2) >> 1;
+        int offset = (2 + (symbol & 1)) << extra;
+        return offset + in.read(extra) + 1;
+    }
+
+    private static int add(int a, int b) {
+        int alpha = ((a >>> 24) + (b >>> 24)) & 0xFF;
+        int red = ((a >> 16) + (b >> 16)) & 0xFF;
+        int green = ((a >> 8) + (b >> 8)) & 0xFF;
+        int blue = (a + b) & 0xFF;
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    /** Канонический код по длинам; декодирование бит за битом. */
+    private record Huffman(int[] lengths, int[] first, int[] count, int[] offset, int[] sorted, int single) {
+
+        static Huffman read(Bits in, int alphabet) {
+            int[] lengths = new int[alphabet];
+            if (in.read(1) == 1) {
+                int symbols = in.read(1) + 1;
+                lengths[in.read(in.read(1) == 0 ? 1 : 8)] = 1;
+                if (symbols == 2) lengths[in.read(8)] = 1;
+                return of(lengths);
+            }
+            int[] codeLengths = new int[19];
+            int stored = in.read(4) + 4;
+            for (int i = 0; i < stored; i++) codeLengths[CODE_LENGTH_ORDER[i]] = in.read(3);
+            Huffman lengthCode = of(codeLengths);
+            int maxSymbol = alphabet;
+            if (in.read(1) == 1) maxSymbol = 2 + in.read(2 + 2 * in.read(3));
+            int previous = 8;
+            for (int symbol = 0; symbol < alphabet && maxSymbol-- > 0; ) {
+                int code = lengthCode.decode(in);
+                if (code < 16) {
+                    lengths[symbol++] = code;
+                    if (code != 0) previous = code;
+                    continue;
+                }
+                int repeat = code == 16 ? 3 + in.read(2) : code == 17 ? 3 + in.read(3) : 11 + in.read(7);
+                int value = code == 16 ? previous : 0;
+                assertTrue(symbol + repeat <= alphabet, "code lengths overflow");
+                while (repeat-- > 0) lengths[symbol++] = value;
+            }
+            return of(lengths);
+        }
+
+        static Huffman of(int[] lengths) {
+            int[] count = new int[16];
+            int used = 0, single = -1;
+            for (int s = 0; s < lengths.length; s++) {
+                if (lengths[s] == 0) continue;
+                count[lengths[s]]++;
+                used++;
+                single = s;
+            }
+            int[] first = new int[16], offset = new int[16];
+            int code = 0, total = 0;
+            long kraft = 0;
+            for (int len = 1; len < 16; len++) {
+                first[len] = code;
+                offset[len] = total;
+                code = (code + count[len]) << 1;
+                total += count[len];
+                kraft += (long) count[len] << (15 - len);
+            }
+            // Полный префиксный код - или один символ за 0 бит
+            if (used > 1) assertEquals(1L << 15, kraft, "incomplete prefix code");
+            int[] sorted = new int[total];
+            int[] next = offset.clone();
+            for (int s = 0; s < lengths.length; s++) {
+                if (lengths[s] != 0) sorted[next[lengths[s]]++] = s;
+            }
+            return new Huffman(lengths, first, count, offset, sorted, used == 1 ? single : -1);
+        }
+
+        int decode(Bits in) {
+            if (single >= 0) return single;
+            int code = 0;
+            for (int len = 1; len < 16; len++) {
+                code = code << 1 | in.read(1);
+                if (code - first[len] < count[len]) return sorted[offset[len] + code - first[len]];
+            }
+            throw new AssertionError("bad prefix code");
+        }
+    }
+
+    /** Биты с младшего. */
+    private static final class Bits {
+        private final byte[] data;
+        private long position;
+
+        Bits(byte[] data, int offset) {
+            this.data = data;
+            this.position = 8L * offset;
+        }
+
+        int read(int n) {
+            int value = 0;
+            for (int i = 0; i < n; i++, position++) {
+                assertTrue(position < 8L * data.length, "read past the end");
+                value |= ((data[(int) (position >>> 3)] >> (position & 7)) & 1) << i;
+            }
+            return value;
+        }
+    }
+}
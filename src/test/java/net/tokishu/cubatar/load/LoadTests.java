@@ -0,0 +1,298 @@
+package net.tokishu.cubatar.load;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сквозная нагрузка на все рендер-эндпоинты против встроенной заглушки
+ * Mojang (профиль stub). Не входит в обычный {@code test}: запускается
+ * отдельно, {@code ./gradlew loadTest}, параметры - системными свойствами:
+ * <ul>
+ *   <li>{@code load.duration} (30s) и {@code load.warmup} (10s)</li>
+ *   <li>{@code load.concurrency} (64) - одновременных клиентов</li>
+ *   <li>{@code load.players} (5000) и {@code load.zipf} (1.1) - популяция и
+ *   перекос популярности: как на реальном сервере, немногие игроки дают
+ *   большую часть запросов, а длинный хвост бьёт мимо кешей</li>
+ * </ul>
+ * Около 10% input - UUID вместо ника, около 1% - несуществующие игроки.
+ * По каждому эндпоинту - пропускная способность, p50/p99/max и коды ответов;
+ * в целом - скорость аллокаций (по уведомлениям GC, на весь процесс, включая
+ * сам генератор нагрузки). Отчёт печатается и пишется в
+ * {@code build/reports/load/load-test.txt}.
+ */
+@Tag("load")
+@ActiveProfiles("stub")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+class LoadTests {
+
+    private static final int PORT = freePort();
+
+    private static final Duration DURATION = Duration.parse("PT" + System.getProperty("load.duration", "30s"));
+    private static final Duration WARMUP = Duration.parse("PT" + System.getProperty("load.warmup", "10s"));
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 64);
+    private static final int PLAYERS = Integer.getInteger("load.players", 5000);
+    private static final double ZIPF = Double.parseDouble(System.getProperty("load.zipf", "1.1"));
+
+    /** Эндпоинт, его доля в смеси запросов и query-строка. */
+    private record Scenario(String name, String path, String query, int weight) {}
+
+    private static final List<Scenario> SCENARIOS = List.of(
+            new Scenario("/v1/avatar", "/v1/avatar/", "?size=64", 25),
+            new Scenario("/v1/skin", "/v1/skin/", "", 10),
+            new Scenario("/v1/body", "/v1/body/", "?size=128", 10),
+            new Scenario("/v1/iso/head", "/v1/iso/head/", "?size=128", 15),
+            new Scenario("/v1/iso/body", "/v1/iso/body/", "?size=128", 10),
+            new Scenario("/v1/iso/full", "/v1/iso/full/", "?size=128", 10),
+            new Scenario("/v2/avatar", "/v2/avatar/", "", 10),
+            new Scenario("/v2/body", "/v2/body/", "", 10)
+    );
+
+    @DynamicPropertySource
+    static void port(DynamicPropertyRegistry registry) {
+        registry.add("server.port", () -> PORT);
+        // Каждый прогон - с холодными кешами, без прогрева ключами прошлого
+        registry.add("cubatar.prewarm.enabled", () -> false);
+    }
+
+    @Test
+    void endpointsUnderLoad() throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        Zipf players = new Zipf(PLAYERS, ZIPF);
+        int totalWeight = SCENARIOS.stream().mapToInt(Scenario::weight).sum();
+
+        run(client, players, totalWeight, WARMUP, null);
+
+        Map<String, Recorder> recorders = new LinkedHashMap<>();
+        SCENARIOS.forEach(s -> recorders.put(s.name(), new Recorder()));
+        AllocationMeter allocations = AllocationMeter.start();
+        long started = System.nanoTime();
+        run(client, players, totalWeight, DURATION, recorders);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long allocated = allocations.stop();
+
+        String report = report(recorders, seconds, allocated);
+        System.out.println(report);
+        Path out = Path.of(System.getProperty("load.report", "build/reports/load"), "load-test.txt");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, report);
+
+        recorders.forEach((name, r) -> assertTrue(r.ok.sum() > 0, name + " served nothing"));
+    }
+
+    private void run(HttpClient client, Zipf players, int totalWeight, Duration duration,
+                     Map<String, Recorder> recorders) {
+        long deadline = System.nanoTime() + duration.toNanos();
+        AtomicLong seeds = new AtomicLong(42);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CONCURRENCY; c++) {
+                pool.submit(() -> {
+                    SplittableRandom random = new SplittableRandom(seeds.incrementAndGet());
+                    while (System.nanoTime() - deadline < 0) {
+                        Scenario scenario = pick(random, totalWeight);
+                        String uri = "http://localhost:" + PORT + scenario.path() + input(random, players) + scenario.query();
+                        long start = System.nanoTime();
+                        int status;
+                        try {
+                            status = client.send(HttpRequest.newBuilder(URI.create(uri)).timeout(Duration.ofSeconds(30)).build(),
+                                    HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (IOException e) {
+                            status = -1;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        if (recorders != null) recorders.get(scenario.name()).record(System.nanoTime() - start, status);
+                    }
+                });
+            }
+        }
+    }
+
+    private static Scenario pick(SplittableRandom random, int totalWeight) {
+        int roll = random.nextInt(totalWeight);
+        for (Scenario s : SCENARIOS) {
+            roll -= s.weight();
+            if (roll < 0) return s;
+        }
+        return SCENARIOS.getLast();
+    }
+
+    /** Ник по Zipf; ~10% тех же игроков - по UUID, ~1% - несуществующие. */
+    private static String input(SplittableRandom random, Zipf players) {
+        int rank = players.sample(random);
+        int roll = random.nextInt(100);
+        if (roll == 0) return "ghost" + rank;
+        String name = "player" + rank;
+        if (roll < 11) {
+            // Тот же UUID, что выдаёт заглушка: offline-UUID от ника
+            return UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes()).toString();
+        }
+        return name;
+    }
+
+    private static String report(Map<String, Recorder> recorders, double seconds, long allocated) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Cubatar load test: %.1fs, %d clients, %d players, zipf %.2f%n",
+                seconds, CONCURRENCY, PLAYERS, ZIPF));
+        sb.append(String.format("%-14s %9s %9s %9s %9s %9s %8s %8s %8s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "max ms", "2xx/304", "4xx", "5xx/err"));
+        long total = 0;
+        for (Map.Entry<String, Recorder> e : recorders.entrySet()) {
+            Recorder r = e.getValue();
+            long[] latencies = r.sorted();
+            total += latencies.length;
+            sb.append(String.format("%-14s %9d %9.1f %9.2f %9.2f %9.2f %8d %8d %8d%n",
+                    e.getKey(), latencies.length, latencies.length / seconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6,
+                    r.ok.sum(), r.clientErrors.sum(), r.serverErrors.sum()));
+        }
+        sb.append(String.format("total: %d requests, %.1f req/s%n", total, total / seconds));
+        sb.append(String.format("allocation: %.1f MB/s (%.1f KB per request, whole JVM incl. load generator)%n",
+                allocated / seconds / (1 << 20), total == 0 ? 0 : allocated / (double) total / 1024));
+        return sb.toString();
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)] / 1e6;
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Латентности и коды ответов одного эндпоинта. */
+    private static final class Recorder {
+
+        private long[] latencies = new long[1 << 14];
+        private int size;
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+
+        synchronized void record(long nanos, int status) {
+            if (size == latencies.length) latencies = Arrays.copyOf(latencies, size * 2);
+            latencies[size++] = nanos;
+            if (status >= 200 && status < 400) ok.increment();
+            else if (status >= 400 && status < 500) clientErrors.increment();
+            else serverErrors.increment();
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(latencies, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    /** Ранги 1..n с вероятностью ~ 1/rank^s; выборка - бинарным поиском по CDF. */
+    private static final class Zipf {
+
+        private final double[] cdf;
+
+        Zipf(int n, double s) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, s);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) cdf[i] /= sum;
+        }
+
+        int sample(SplittableRandom random) {
+            int i = Arrays.binarySearch(cdf, random.nextDouble());
+            return (i >= 0 ? i : -i - 1) + 1;
+        }
+    }
+
+    /**
+     * Сколько байт выделено за замер: прирост занятой кучи плюс всё, что
+     * собрали сборки между start и stop (по уведомлениям GC: до минус после).
+     */
+    private static final class AllocationMeter {
+
+        private final LongAdder collected = new LongAdder();
+        private final List<Runnable> unsubscribe = new ArrayList<>();
+        private final long usedAtStart = heapUsed();
+
+        static AllocationMeter start() {
+            AllocationMeter meter = new AllocationMeter();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (!(gc instanceof NotificationEmitter emitter)) continue;
+                NotificationListener listener = (notification, handback) -> {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+                    GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+                    meter.collected.add(total(info.getMemoryUsageBeforeGc()) - total(info.getMemoryUsageAfterGc()));
+                };
+                emitter.addNotificationListener(listener, null, null);
+                meter.unsubscribe.add(() -> {
+                    try {
+                        emitter.removeNotificationListener(listener);
+                    } catch (Exception ignored) {
+                        // уже отписан
+                    }
+                });
+            }
+            return meter;
+        }
+
+        long stop() {
+            long allocated = heapUsed() - usedAtStart + collected.sum();
+            unsubscribe.forEach(Runnable::run);
+            return Math.max(0, allocated);
+        }
+
+        private static long heapUsed() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        private static long total(Map<String, MemoryUsage> usage) {
+            return usage.values().stream().mapToLong(MemoryUsage::getUsed).sum();
+        }
+    }
+}
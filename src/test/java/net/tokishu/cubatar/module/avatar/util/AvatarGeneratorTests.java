@@ -0,0 +1,76 @@
+package net.tokishu.cubatar.module.avatar.util;
+
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import net.tokishu.cubatar.module.stub.util.TestSkins;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link AvatarGenerator#drawHeadIcon} пишет в чужой растр ровно то же, что
+ * рисует {@link AvatarGenerator#extractHeadIcon}: с шапкой и без, с
+ * полупрозрачными текселями и при размерах меньше 8 px на блок, где
+ * ближайший сосед пропускает тексели.
+ */
+class AvatarGeneratorTests {
+
+    private static final int[] SIZES = {1, 2, 3, 4, 5, 6, 7, 8, 13, 64, 100};
+    /** Фон вокруг клетки в общем растре - drawHeadIcon не должен его трогать. */
+    private static final int BACKGROUND = 0x12345678;
+
+    @Test
+    void drawMatchesExtract() {
+        for (int seed = 0; seed < 16; seed++) {
+            BufferedImage texture = ProceduralSkins.skin(seed * 7919L, seed % 3 == 0, seed % 5 == 4);
+            if (seed % 2 == 1) texture = TestSkins.translucent(texture, seed);
+            for (boolean hat : new boolean[]{true, false}) {
+                PreparedSkin skin = PreparedSkin.of(hat ? texture : bald(texture));
+                for (int size : SIZES) {
+                    assertParity(skin, size, "seed " + seed + (hat ? " hat " : " bald ") + size);
+                }
+            }
+        }
+    }
+
+    private static void assertParity(PreparedSkin skin, int size, String name) {
+        BufferedImage expected = AvatarGenerator.extractHeadIcon(skin, size);
+        int icon = AvatarGenerator.iconSize(size);
+        assertEquals(icon, expected.getWidth(), name);
+        assertEquals(icon, expected.getHeight(), name);
+
+        // Клетка со сдвигом внутри растра пошире - как в атласе
+        int dx = 3, dy = 2, stride = icon + 7, height = icon + 5;
+        int[] dst = new int[stride * height];
+        Arrays.fill(dst, BACKGROUND);
+        for (int y = 0; y < icon; y++) Arrays.fill(dst, (dy + y) * stride + dx, (dy + y) * stride + dx + icon, 0);
+        AvatarGenerator.drawHeadIcon(skin, size, dst, stride, dx, dy);
+
+        int[] want = expected.getRGB(0, 0, icon, icon, null, 0, icon);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < stride; x++) {
+                boolean inside = x >= dx && x < dx + icon && y >= dy && y < dy + icon;
+                int argb = inside ? want[(y - dy) * icon + x - dx] : BACKGROUND;
+                assertEquals(argb, dst[y * stride + x], name + " at " + x + "," + y);
+            }
+        }
+    }
+
+    /** Без шлема: весь слой шапки (32..64 x 0..16) прозрачный. */
+    private static BufferedImage bald(BufferedImage source) {
+        BufferedImage result = copy(source);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 32; x < 64; x++) result.setRGB(x, y, 0);
+        }
+        return result;
+    }
+
+    private static BufferedImage copy(BufferedImage source) {
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        result.getGraphics().drawImage(source, 0, 0, null);
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package net.tokishu.cubatar.module.batch.service;
+
+import net.tokishu.cubatar.common.ImageFormat;
+import net.tokishu.cubatar.module.avatar.service.AvatarService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link BatchService}: любой исход рендера одного input - удачный, 404 или
+ * Error из рендера - попадает в манифест, и ответ дописывается до конца.
+ */
+class BatchServiceTests {
+
+    private static final byte[] IMAGE = {1, 2, 3};
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /** Аватары без резолвера и кешей: исход задаёт сам input. */
+    private final AvatarService avatars = new AvatarService(null, null, null) {
+        @Override
+        public byte[] render(String input, int size, ImageFormat format) {
+            return switch (input) {
+                case "ok" -> IMAGE;
+                case "ghost" -> throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Player not found");
+                case "overflow" -> throw new StackOverflowError();
+                case "oom" -> throw new OutOfMemoryError("Java heap space");
+                default -> throw new IllegalStateException(input);
+            };
+        }
+    };
+
+    @Test
+    void errorFromRenderEndsUpInManifest() throws IOException {
+        BatchService service = new BatchService(avatars, null, null, mapper, 10, 2);
+        BatchRequest request = new BatchRequest(List.of("ok", "overflow", "ghost", "oom"), 32, null, null, null, null, null);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // До исправления задача с Error не клала результат, и process висел на done.take()
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> service.process(BatchKind.AVATAR, request, response));
+
+        Map<String, byte[]> entries = unzip(response.getContentAsByteArray());
+        assertArrayEquals(IMAGE, entries.get("ok.png"));
+        assertEquals(2, entries.size());
+
+        Map<String, Integer> statuses = new HashMap<>();
+        for (JsonNode entry : mapper.readTree(new String(entries.get("manifest.json"), StandardCharsets.UTF_8))) {
+            statuses.put(entry.get("input").asString(), entry.get("status").asInt());
+        }
+        assertEquals(Map.of("ok", 200, "ghost", 404, "overflow", 500, "oom", 500), statuses);
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) entries.put(entry.getName(), in.readAllBytes());
+        }
+        return entries;
+    }
+}
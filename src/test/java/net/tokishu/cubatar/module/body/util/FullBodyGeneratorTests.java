@@ -0,0 +1,44 @@
+package net.tokishu.cubatar.module.body.util;
+
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import net.tokishu.cubatar.module.stub.util.TestSkins;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link FullBodyGenerator#generateLut} рисует ровно то же, что Java2D-путь:
+ * спереди и сзади, classic/slim/legacy, с полупрозрачными текселями (они
+ * проходят через промежуточные картинки и отражение) и при размерах, где
+ * масштаб не целый.
+ */
+class FullBodyGeneratorTests {
+
+    @Test
+    void lutMatchesJava2d() {
+        int[] sizes = {8, 13, 64, 100};
+        for (int seed = 0; seed < 24; seed++) {
+            boolean slim = seed % 3 == 0;
+            BufferedImage texture = ProceduralSkins.skin(seed * 7919L, slim, seed % 5 == 4);
+            if (seed % 2 == 1) texture = TestSkins.translucent(texture, seed);
+            PreparedSkin skin = PreparedSkin.of(texture);
+            int size = sizes[seed % sizes.length];
+            Boolean model = seed % 4 == 0 ? null : slim;
+            for (boolean back : new boolean[]{false, true}) {
+                BufferedImage expected = back
+                        ? FullBodyGenerator.generateBackView(skin, size, model)
+                        : FullBodyGenerator.generateFrontView(skin, size, model);
+                BufferedImage actual = FullBodyGenerator.generateLut(skin, size, back, model);
+                String name = "seed " + seed + " " + size + (back ? " back" : " front");
+                assertEquals(expected.getWidth(), actual.getWidth(), name);
+                assertEquals(expected.getHeight(), actual.getHeight(), name);
+                int w = expected.getWidth();
+                int h = expected.getHeight();
+                assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w), name);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.tokishu.cubatar.module.cluster;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.tokishu.cubatar.Main;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Три узла Cubatar в одном процессе, каждый на своём порту, в режиме
+ * кластера. Mojang для всех - заглушка (профиль stub) на первом узле,
+ * upstream-вызовы считаются по таймеру {@code cubatar.upstream.requests}
+ * всех узлов; запросы к пирам идут своим клиентом и туда не попадают.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ClusterTests {
+
+    private static final int NODES = 3;
+    private static final int PLAYERS = 12;
+
+    private static final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private static final List<Integer> ports = new ArrayList<>();
+    private static final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void startCluster() {
+        for (int i = 0; i < NODES; i++) ports.add(freePort());
+        List<String> peers = ports.stream().map(port -> "http://localhost:" + port).toList();
+        String stub = peers.getFirst() + "/__stub/";
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new SpringApplicationBuilder(Main.class)
+                    .profiles("stub")
+                    .run("--server.port=" + ports.get(i),
+                            "--cubatar.cluster.enabled=true",
+                            "--cubatar.cluster.self=" + peers.get(i),
+                            "--cubatar.cluster.peers=" + String.join(",", peers),
+                            "--cubatar.mojang.profile-url=" + stub + "users/profiles/minecraft/",
+                            "--cubatar.mojang.skin-url=" + stub + "session/minecraft/profile/",
+                            "--cubatar.mojang.textures-url=" + stub,
+                            // Поштучные запросы ников - чтобы счёт вызовов не зависел от окна пачек
+                            "--cubatar.mojang.bulk.enabled=false",
+                            "--cubatar.prewarm.enabled=false",
+                            "--cubatar.stub.latency=0ms",
+                            "--cubatar.stub.latency-jitter=0ms"));
+        }
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        for (ConfigurableApplicationContext node : nodes) {
+            if (node.isActive()) node.close();
+        }
+    }
+
+    @Test
+    @Order(1)
+    void eachPlayerIsFetchedOnceClusterWide() throws Exception {
+        // Каждого игрока запрашиваем через все узлы - как балансировщик по кругу
+        for (int p = 0; p < PLAYERS; p++) {
+            for (int n = 0; n < NODES; n++) {
+                assertEquals(200, get(n, "/v1/avatar/cluster" + p + "?size=32"));
+            }
+        }
+
+        // На игрока: ник, профиль и (если скин не стандартный) текстура - по одному разу
+        long upstream = upstreamCalls();
+        assertTrue(upstream >= 2L * PLAYERS && upstream <= 3L * PLAYERS, "upstream calls: " + upstream);
+
+        long forwarded = 0;
+        for (ConfigurableApplicationContext node : nodes) {
+            MeterRegistry registry = node.getBean(MeterRegistry.class);
+            forwarded += (long) registry.find("cubatar.cluster.forwards").tag("outcome", "ok").counters()
+                    .stream().mapToDouble(c -> c.count()).sum();
+        }
+        assertTrue(forwarded > 0, "nothing was forwarded");
+    }
+
+    @Test
+    @Order(2)
+    void peerEndpointsRejectPublicRequests() throws Exception {
+        assertEquals(400, get(0, "/internal/cluster/uuid/Notch"));
+    }
+
+    @Test
+    @Order(3)
+    void deadOwnerFallsBackToUpstream() throws Exception {
+        nodes.getLast().close();
+        // Часть этих ников принадлежит остановленному узлу - их узлы резолвят сами
+        for (int p = 0; p < PLAYERS; p++) {
+            assertEquals(200, get(p % (NODES - 1), "/v1/avatar/fallback" + p + "?size=32"));
+        }
+    }
+
+    private static int get(int node, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + ports.get(node) + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static long upstreamCalls() {
+        long total = 0;
+        for (ConfigurableApplicationContext node : nodes) {
+            total += node.getBean(MeterRegistry.class).find("cubatar.upstream.requests").timers()
+                    .stream().mapToLong(Timer::count).sum();
+        }
+        return total;
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
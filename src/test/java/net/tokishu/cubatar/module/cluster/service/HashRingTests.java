@@ -0,0 +1,54 @@
+package net.tokishu.cubatar.module.cluster.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTests {
+
+    private static final List<String> NODES = List.of("http://a:8080", "http://b:8080", "http://c:8080");
+    private static final int KEYS = 30_000;
+
+    @Test
+    void keysSpreadRoughlyEvenly() {
+        HashRing ring = new HashRing(NODES, 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) counts.merge(ring.owner("name:player" + i), 1, Integer::sum);
+
+        assertEquals(NODES.size(), counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > KEYS / NODES.size() * 0.8 && count < KEYS / NODES.size() * 1.2, counts.toString());
+        }
+    }
+
+    @Test
+    void sameNodesGiveSameOwnersInAnyOrder() {
+        HashRing ring = new HashRing(NODES, 128);
+        HashRing reordered = new HashRing(NODES.reversed(), 128);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.owner("texture:" + i), reordered.owner("texture:" + i));
+        }
+    }
+
+    @Test
+    void addingNodeMovesOnlyItsShare() {
+        HashRing before = new HashRing(NODES, 128);
+        HashRing after = new HashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080", "http://d:8080"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "uuid:" + i;
+            String owner = after.owner(key);
+            if (!owner.equals(before.owner(key))) {
+                // Переезжает только на новый узел, между старыми ничего не перетасовывается
+                assertEquals("http://d:8080", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS / 4 * 0.8 && moved < KEYS / 4 * 1.2, "moved " + moved);
+    }
+}
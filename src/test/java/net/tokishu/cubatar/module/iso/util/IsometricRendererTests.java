@@ -0,0 +1,177 @@
+package net.tokishu.cubatar.module.iso.util;
+
+import net.tokishu.cubatar.common.PreparedSkin;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Animation;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Backend;
+import net.tokishu.cubatar.module.iso.util.IsometricRenderer.Part;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import net.tokishu.cubatar.module.stub.util.TestSkins;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link Backend#RASTER} обязан рисовать ровно то же, что Java2D: на
+ * картинках из examples/ (как скин и как плащ - там и HD, и не-INT типы
+ * ImageIO) и на процедурных скинах с полупрозрачными текселями, legacy,
+ * плащами и случайными углами. Так же и {@link IsometricRenderer#renderLut}
+ * на ракурсах по умолчанию и кадры анимаций.
+ */
+class IsometricRendererTests {
+
+    private static final double[][] ANGLES = {{-45, 30}, {0, 0}, {20, 0}, {160, 10}, {-90, 0}, {10, -40}, {-45, 89}};
+
+    @Test
+    void rasterMatchesJava2dOnExamples() throws IOException {
+        int checked = 0;
+        try (DirectoryStream<Path> pngs = Files.newDirectoryStream(Path.of("examples"), "*.png")) {
+            for (Path png : pngs) {
+                BufferedImage image = ImageIO.read(png.toFile());
+                for (Part part : Part.values()) {
+                    for (double[] angle : ANGLES) {
+                        assertSameRender(image, image, 64, angle[0], angle[1], part, angle[1] == 10, null,
+                                png.getFileName() + " " + part + " " + angle[0] + "/" + angle[1]);
+                    }
+                }
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    void rasterMatchesJava2dOnSkinVariants() {
+        SplittableRandom random = new SplittableRandom(19);
+        int[] sizes = {8, 33, 64, 128};
+        for (int seed = 0; seed < 24; seed++) {
+            boolean slim = seed % 3 == 0;
+            BufferedImage skin = ProceduralSkins.skin(seed * 7919L, slim, seed % 7 == 3);
+            if (seed % 4 == 1) skin = TestSkins.translucent(skin, seed);
+            BufferedImage cape = seed % 2 == 0 ? ProceduralSkins.cape(seed) : null;
+            if (cape != null && seed % 8 == 0) cape = TestSkins.translucent(cape, seed);
+            for (Part part : Part.values()) {
+                for (boolean walking : new boolean[]{false, true}) {
+                    double yaw = random.nextDouble(-180, 180);
+                    double pitch = random.nextDouble(-90, 90);
+                    int size = sizes[random.nextInt(sizes.length)];
+                    assertSameRender(skin, cape, size, yaw, pitch, part, walking, seed % 6 == 0 ? null : slim,
+                            "seed " + seed + " " + part + " " + size + " " + yaw + "/" + pitch);
+                }
+            }
+        }
+    }
+
+    @Test
+    void lutMatchesJava2dAtPresets() {
+        double[][] presets = {{-45, 30}, {0, 0}, {180, 0}};
+        int[] sizes = {8, 64, 100};
+        for (int seed = 0; seed < 16; seed++) {
+            boolean slim = seed % 3 == 0;
+            BufferedImage texture = ProceduralSkins.skin(seed * 104729L, slim, seed % 5 == 4);
+            if (seed % 2 == 1) texture = TestSkins.translucent(texture, seed);
+            BufferedImage cape = seed % 4 < 2 ? ProceduralSkins.cape(seed) : null;
+            if (cape != null && seed % 4 == 1) cape = TestSkins.translucent(cape, seed);
+            PreparedSkin skin = PreparedSkin.of(texture);
+            for (Part part : Part.values()) {
+                for (double[] angle : presets) {
+                    int size = sizes[seed % sizes.length];
+                    boolean walking = seed % 7 == 2;
+                    Boolean model = seed % 6 == 0 ? null : slim;
+                    BufferedImage expected = IsometricRenderer.render(skin, cape, size, angle[0], angle[1], part, walking,
+                            model, Backend.JAVA2D);
+                    BufferedImage actual = IsometricRenderer.renderLut(skin, cape, size, angle[0], angle[1], part,
+                            walking, model);
+                    assertSameImage(expected, actual, "seed " + seed + " " + part + " " + size + " " + angle[0] + "/" + angle[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void animationFramesShareCanvasAndMatchJava2d() {
+        for (int seed = 0; seed < 6; seed++) {
+            BufferedImage texture = ProceduralSkins.skin(seed * 6151L, seed % 2 == 0, seed == 5);
+            if (seed % 3 == 1) texture = TestSkins.translucent(texture, seed);
+            BufferedImage cape = seed % 2 == 0 ? ProceduralSkins.cape(seed) : null;
+            PreparedSkin skin = PreparedSkin.of(texture);
+            for (Animation animation : Animation.values()) {
+                int frames = 5 + seed;
+                BufferedImage first = null;
+                boolean moves = false;
+                for (int i = 0; i < frames; i++) {
+                    String name = "seed " + seed + " " + animation + " frame " + i;
+                    BufferedImage expected = IsometricRenderer.renderFrame(skin, cape, 40, -45, 20, Part.FULL, seed == 3,
+                            null, animation, i, frames, Backend.JAVA2D);
+                    BufferedImage actual = IsometricRenderer.renderFrame(skin, cape, 40, -45, 20, Part.FULL, seed == 3,
+                            null, animation, i, frames, Backend.RASTER);
+                    assertSameImage(expected, actual, name);
+                    if (first == null) {
+                        first = expected;
+                    } else {
+                        assertEquals(first.getWidth(), expected.getWidth(), name);
+                        assertEquals(first.getHeight(), expected.getHeight(), name);
+                        moves |= !Arrays.equals(pixels(first), pixels(expected));
+                    }
+                }
+                assertTrue(moves, "seed " + seed + " " + animation);
+            }
+        }
+    }
+
+    @Test
+    void drawHeadMatchesRenderInsideSharedRaster() {
+        int[] sizes = {8, 33, 64};
+        for (int seed = 0; seed < 8; seed++) {
+            BufferedImage texture = ProceduralSkins.skin(seed * 7349L, seed % 3 == 0, seed % 4 == 3);
+            if (seed % 2 == 1) texture = TestSkins.translucent(texture, seed);
+            PreparedSkin skin = PreparedSkin.of(texture);
+            int size = sizes[seed % sizes.length];
+            double yaw = seed == 0 ? -45 : seed * 37 - 150;
+            double pitch = seed == 0 ? 30 : seed * 11 - 40;
+            int tile = IsometricRenderer.headExtent(size, yaw, pitch);
+            // Клетка (1, 1) растра 3 x 2 клетки; вокруг - маркер, который drawHead трогать не должен
+            int stride = tile * 3;
+            int[] dst = new int[stride * tile * 2];
+            Arrays.fill(dst, 0x12345678);
+            for (int y = tile; y < tile * 2; y++) Arrays.fill(dst, y * stride + tile, y * stride + tile * 2, 0);
+            IsometricRenderer.drawHead(skin, size, yaw, pitch, dst, stride, tile, tile, tile, tile);
+
+            BufferedImage head = IsometricRenderer.render(skin, null, size, yaw, pitch, Part.HEAD, false, null, Backend.JAVA2D);
+            int[] expected = new int[dst.length];
+            Arrays.fill(expected, 0x12345678);
+            for (int y = tile; y < tile * 2; y++) Arrays.fill(expected, y * stride + tile, y * stride + tile * 2, 0);
+            int offset = (tile + (tile - head.getHeight()) / 2) * stride + tile + (tile - head.getWidth()) / 2;
+            head.getRGB(0, 0, head.getWidth(), head.getHeight(), expected, offset, stride);
+            assertArrayEquals(expected, dst, "seed " + seed + " " + size + " " + yaw + "/" + pitch);
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void assertSameRender(BufferedImage texture, BufferedImage cape, int size, double yaw, double pitch,
+                                         Part part, boolean walking, Boolean slim, String name) {
+        PreparedSkin skin = PreparedSkin.of(texture);
+        BufferedImage expected = IsometricRenderer.render(skin, cape, size, yaw, pitch, part, walking, slim, Backend.JAVA2D);
+        BufferedImage actual = IsometricRenderer.render(skin, cape, size, yaw, pitch, part, walking, slim, Backend.RASTER);
+        assertSameImage(expected, actual, name);
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual, String name) {
+        assertEquals(expected.getWidth(), actual.getWidth(), name);
+        assertEquals(expected.getHeight(), actual.getHeight(), name);
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w), name);
+    }
+}
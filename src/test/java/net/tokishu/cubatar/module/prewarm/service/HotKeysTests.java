@@ -0,0 +1,70 @@
+package net.tokishu.cubatar.module.prewarm.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeysTests {
+
+    @TempDir
+    Path dir;
+
+    private static void hit(HotKeys keys, String key, int times) {
+        for (int i = 0; i < times; i++) keys.hit(key);
+    }
+
+    @Test
+    void savesTopKeysMostRequestedFirst() {
+        HotKeys keys = new HotKeys(true, dir.resolve("hot.txt"), 2, 100);
+        hit(keys, "/v1/avatar/jeb_?size=64", 3);
+        hit(keys, "/v1/avatar/Notch?size=64", 5);
+        hit(keys, "/v1/iso/head/Notch", 1);
+
+        keys.save();
+
+        HotKeys restarted = new HotKeys(true, dir.resolve("hot.txt"), 2, 100);
+        assertEquals(List.of("/v1/avatar/Notch?size=64", "/v1/avatar/jeb_?size=64"), restarted.load());
+    }
+
+    @Test
+    void countsDecayAfterEachSave() {
+        HotKeys keys = new HotKeys(true, dir.resolve("hot.txt"), 10, 100);
+        hit(keys, "/old", 8);
+        keys.save();
+        // У /old после сброса 4 - новичок с 5 хитами его обходит
+        hit(keys, "/new", 5);
+        hit(keys, "/once", 1);
+        assertEquals(List.of("/new", "/old", "/once"), keys.top());
+
+        // Ключ с одним хитом после следующего сброса выпадает совсем
+        keys.save();
+        assertEquals(Set.of("/new", "/old"), Set.copyOf(keys.top()));
+    }
+
+    @Test
+    void newKeysBeyondLimitAreIgnored() {
+        HotKeys keys = new HotKeys(true, dir.resolve("hot.txt"), 10, 2);
+        keys.hit("/a");
+        keys.hit("/b");
+        keys.hit("/c");
+        keys.hit("/a");
+
+        assertEquals(List.of("/a", "/b"), keys.top());
+    }
+
+    @Test
+    void emptyListDoesNotOverwritePreviousFile() throws Exception {
+        Path file = dir.resolve("hot.txt");
+        Files.write(file, List.of("/v1/avatar/Notch"));
+
+        new HotKeys(true, file, 10, 100).save();
+
+        assertEquals(List.of("/v1/avatar/Notch"), Files.readAllLines(file));
+    }
+}
@@ -0,0 +1,54 @@
+package net.tokishu.cubatar.module.resolve;
+
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageLimitsTests {
+
+    private final ImageLimits limits = new ImageLimits(1024, 1024 * 1024);
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void pngSizeNeedsOnlyTheFirstBytes() throws IOException {
+        byte[] png = encode(new BufferedImage(8000, 4000, BufferedImage.TYPE_INT_ARGB), "png");
+
+        ImageLimits.Size size = ImageLimits.pngSize(Arrays.copyOf(png, ImageLimits.PNG_HEADER_LENGTH));
+        assertEquals(new ImageLimits.Size(8000, 4000), size);
+        assertThrows(ResponseStatusException.class, () -> limits.checkSkin(size));
+        assertThrows(ResponseStatusException.class, () -> limits.checkBudget(size));
+    }
+
+    @Test
+    void headerSizeReadsOtherFormatsWithoutDecoding() throws IOException {
+        BufferedImage rgb = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+        assertEquals(new ImageLimits.Size(64, 32), ImageLimits.headerSize(encode(rgb, "bmp")));
+        assertNull(ImageLimits.headerSize("<html>not an image</html>".getBytes()));
+        assertNull(ImageLimits.pngSize(encode(rgb, "bmp")));
+    }
+
+    @Test
+    void skinDimensionsAreChecked() throws IOException {
+        limits.checkSkin(ImageLimits.pngSize(encode(ProceduralSkins.skin(1, false, false), "png")));
+        limits.checkSkin(ImageLimits.pngSize(encode(ProceduralSkins.skin(1, false, true), "png")));
+        limits.checkSkin(new ImageLimits.Size(1024, 1024));
+
+        assertThrows(ResponseStatusException.class, () -> limits.checkSkin(new ImageLimits.Size(2048, 2048)));
+        assertThrows(ResponseStatusException.class, () -> limits.checkSkin(new ImageLimits.Size(100, 100)));
+        assertThrows(ResponseStatusException.class, () -> limits.checkSkin(new ImageLimits.Size(64, 48)));
+        assertThrows(ResponseStatusException.class, () -> limits.checkSkin(new ImageLimits.Size(32, 32)));
+    }
+}
@@ -0,0 +1,110 @@
+package net.tokishu.cubatar.module.resolve;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link MojangBulkResolver} против локальной заглушки bulk-API: ник вида
+ * "ghostN" заглушка "не знает", остальным выдаёт UUID из хеша ника.
+ */
+class MojangBulkResolverTests {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private HttpServer stub;
+    private CaffeineCacheManager cacheManager;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/profiles/minecraft", exchange -> {
+            JsonNode names = mapper.readTree(exchange.getRequestBody().readAllBytes());
+            batchSizes.add(names.size());
+            List<String> profiles = new ArrayList<>();
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i).asString();
+                if (name.startsWith("ghost")) continue;
+                profiles.add("{\"id\":\"" + uuidOf(name).toString().replace("-", "") + "\",\"name\":\"" + name + "\"}");
+            }
+            byte[] body = ("[" + String.join(",", profiles) + "]").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+        cacheManager = new CaffeineCacheManager("uuids");
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    private MojangBulkResolver resolver(Duration window) {
+        String url = "http://127.0.0.1:" + stub.getAddress().getPort() + "/profiles/minecraft";
+        return new MojangBulkResolver(RestClient.create(), mapper, cacheManager, true, url, window, 10);
+    }
+
+    private static UUID uuidOf(String name) {
+        return UUID.nameUUIDFromBytes(name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void burstOfNamesIsSplitIntoFullBatches() {
+        MojangBulkResolver resolver = resolver(Duration.ofSeconds(5));
+        List<CompletableFuture<UUID>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) futures.add(resolver.lookup("player" + i));
+
+        for (int i = 0; i < 20; i++) assertEquals(uuidOf("player" + i), futures.get(i).join());
+        // Полные пачки уходят сразу, не дожидаясь окна
+        assertEquals(List.of(10, 10), batchSizes);
+    }
+
+    @Test
+    void partialBatchIsSentWhenWindowCloses() {
+        MojangBulkResolver resolver = resolver(Duration.ofMillis(30));
+        CompletableFuture<UUID> notch = resolver.lookup("Notch");
+        CompletableFuture<UUID> jeb = resolver.lookup("jeb_");
+        CompletableFuture<UUID> ghost = resolver.lookup("ghost1");
+
+        assertEquals(uuidOf("Notch"), notch.join());
+        assertEquals(uuidOf("jeb_"), jeb.join());
+        CompletionException e = assertThrows(CompletionException.class, ghost::join);
+        assertEquals(HttpStatus.NOT_FOUND, ((ResponseStatusException) e.getCause()).getStatusCode());
+
+        assertEquals(List.of(3), batchSizes);
+        assertEquals(uuidOf("Notch"), cacheManager.getCache("uuids").get("Notch", UUID.class));
+    }
+
+    @Test
+    void sameNameInDifferentCaseIsSentOnce() {
+        MojangBulkResolver resolver = resolver(Duration.ofMillis(30));
+        CompletableFuture<UUID> lower = resolver.lookup("notch");
+        CompletableFuture<UUID> upper = resolver.lookup("NOTCH");
+
+        assertEquals(lower.join(), upper.join());
+        assertEquals(List.of(1), batchSizes);
+    }
+}
@@ -0,0 +1,104 @@
+package net.tokishu.cubatar.module.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link NegativeCache}: запись видна весь TTL, пропадает после двух смен
+ * поколения, заполненное поколение сменяется досрочно, параллельные
+ * put/contains не теряют записей.
+ */
+class NegativeCacheTests {
+
+    @Test
+    void hitAndMissWithinTtl() {
+        NegativeCache cache = new NegativeCache(Duration.ofHours(1), 100);
+        cache.put("name:notch_typo");
+        assertTrue(cache.contains("name:notch_typo"));
+        assertFalse(cache.contains("name:notch"));
+        assertFalse(cache.contains("uuid:notch_typo"));
+    }
+
+    @Test
+    void expiresAfterTwoRotations() throws InterruptedException {
+        // Поколение - 200 мс: запись живёт от 200 до 400 мс
+        NegativeCache cache = new NegativeCache(Duration.ofMillis(400), 100);
+        cache.put("missing:a");
+        Thread.sleep(250);
+        // Первая смена: запись переехала в предыдущее поколение и ещё видна
+        assertTrue(cache.contains("missing:a"));
+        Thread.sleep(250);
+        // Вторая смена: предыдущее поколение выброшено
+        assertFalse(cache.contains("missing:a"));
+    }
+
+    @Test
+    void expiresAfterLongIdle() throws InterruptedException {
+        NegativeCache cache = new NegativeCache(Duration.ofMillis(200), 100);
+        cache.put("missing:a");
+        Thread.sleep(300);
+        // Обращений не было, и за одну смену протухли оба поколения
+        assertFalse(cache.contains("missing:a"));
+    }
+
+    @Test
+    void rotatesWhenGenerationFills() {
+        NegativeCache cache = new NegativeCache(Duration.ofHours(1), 4);
+        for (int i = 0; i < 4; i++) cache.put("k" + i);
+        for (int i = 0; i < 4; i++) assertTrue(cache.contains("k" + i));
+
+        // Пятая запись не влезает - поколение сменяется, первые четыре остаются в предыдущем
+        cache.put("k4");
+        for (int i = 0; i <= 4; i++) assertTrue(cache.contains("k" + i), "k" + i);
+
+        // Повторный put не занимает места
+        cache.put("k4");
+        for (int i = 5; i < 8; i++) cache.put("k" + i);
+        for (int i = 0; i < 8; i++) assertTrue(cache.contains("k" + i), "k" + i);
+
+        // Ещё одна смена: самые старые вытеснены, не дожидаясь TTL
+        cache.put("k8");
+        for (int i = 0; i < 4; i++) assertFalse(cache.contains("k" + i), "k" + i);
+        for (int i = 4; i <= 8; i++) assertTrue(cache.contains("k" + i), "k" + i);
+    }
+
+    @Test
+    void concurrentPutAndContains() throws Exception {
+        int threads = 8, perThread = 2_000;
+        NegativeCache cache = new NegativeCache(Duration.ofHours(1), threads * perThread);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                done.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        String key = "name:" + thread + "-" + i;
+                        assertFalse(cache.contains(key), key);
+                        cache.put(key);
+                        assertTrue(cache.contains(key), key);
+                        // Чужие ключи, которые ещё пишутся, - только для гонки чтения с записью
+                        cache.contains("name:" + (thread + 1) % threads + "-" + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : done) future.get();
+        }
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) assertTrue(cache.contains("name:" + t + "-" + i));
+        }
+        assertFalse(cache.contains("name:" + threads + "-0"));
+    }
+}
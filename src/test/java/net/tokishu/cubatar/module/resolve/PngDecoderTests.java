@@ -0,0 +1,139 @@
+package net.tokishu.cubatar.module.resolve;
+
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link PngDecoder} обязан давать ровно те же пиксели, что ImageIO: на
+ * рендерах из examples/ и на процедурных скинах во всех поддержанных
+ * вариантах PNG, а неподдержанное - отдавать ImageIO (null).
+ */
+class PngDecoderTests {
+
+    @Test
+    void matchesImageIoOnExamples() throws IOException {
+        int checked = 0;
+        try (DirectoryStream<Path> pngs = Files.newDirectoryStream(Path.of("examples"), "*.png")) {
+            for (Path png : pngs) {
+                assertSamePixels(Files.readAllBytes(png), png.toString());
+                checked++;
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    void matchesImageIoOnSkinVariants() throws IOException {
+        for (long seed = 0; seed < 8; seed++) {
+            BufferedImage skin = ProceduralSkins.skin(seed, seed % 2 == 0, seed % 4 == 0);
+            String name = "seed " + seed;
+            assertSamePixels(encode(skin, false), name + " rgba");
+            assertSamePixels(encode(convert(skin, BufferedImage.TYPE_INT_RGB), false), name + " rgb");
+            assertSamePixels(encode(indexed(skin, 8, true), false), name + " indexed 8 + tRNS");
+            assertSamePixels(encode(indexed(skin, 8, false), false), name + " indexed 8");
+            assertSamePixels(encode(indexed(skin, 4, true), false), name + " indexed 4");
+            assertSamePixels(encode(indexed(skin, 2, false), false), name + " indexed 2");
+            assertSamePixels(encode(indexed(skin, 1, true), false), name + " indexed 1");
+        }
+    }
+
+    @Test
+    void decodesHdSkinsAsIntArgb() throws IOException {
+        BufferedImage hd = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = hd.createGraphics();
+        g.drawImage(ProceduralSkins.skin(7, false, false), 0, 0, 512, 512, null);
+        g.dispose();
+
+        BufferedImage decoded = PngDecoder.decode(encode(hd, false));
+        assertNotNull(decoded);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, decoded.getType());
+        assertSamePixels(encode(hd, false), "hd");
+    }
+
+    @Test
+    void leavesUnsupportedAndBrokenFilesToImageIo() throws IOException {
+        byte[] skin = encode(ProceduralSkins.skin(1, false, false), false);
+
+        assertNull(PngDecoder.decode(encode(ProceduralSkins.skin(1, false, false), true)), "interlaced");
+        assertNull(PngDecoder.decode(Arrays.copyOf(skin, skin.length / 2)), "truncated");
+        assertNull(PngDecoder.decode("GIF89a".getBytes()), "not png");
+
+        byte[] corrupt = skin.clone();
+        for (int i = 60; i < corrupt.length - 20; i += 7) corrupt[i] ^= 0x5A;
+        assertNull(PngDecoder.decode(corrupt), "corrupt");
+    }
+
+    private static void assertSamePixels(byte[] png, String name) throws IOException {
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(png));
+        BufferedImage actual = PngDecoder.decode(png);
+        assertNotNull(actual, name);
+        assertEquals(expected.getWidth(), actual.getWidth(), name);
+        assertEquals(expected.getHeight(), actual.getHeight(), name);
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w), name);
+    }
+
+    private static BufferedImage convert(BufferedImage source, int type) {
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), type);
+        Graphics2D g = result.createGraphics();
+        g.drawImage(source, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
+    /** Палитра из случайных цветов (с прозрачными при alpha) и индексы из пикселей скина. */
+    private static BufferedImage indexed(BufferedImage source, int bits, boolean alpha) {
+        int n = 1 << bits;
+        byte[] r = new byte[n], g = new byte[n], b = new byte[n], a = new byte[n];
+        SplittableRandom random = new SplittableRandom(bits);
+        for (int i = 0; i < n; i++) {
+            r[i] = (byte) random.nextInt(256);
+            g[i] = (byte) random.nextInt(256);
+            b[i] = (byte) random.nextInt(256);
+            a[i] = (byte) (!alpha ? 255 : i == 0 ? 0 : random.nextInt(256));
+        }
+        IndexColorModel palette = alpha ? new IndexColorModel(bits, n, r, g, b, a) : new IndexColorModel(bits, n, r, g, b);
+        int type = bits == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY;
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), type, palette);
+        WritableRaster raster = result.getRaster();
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) raster.setSample(x, y, 0, (source.getRGB(x, y) >>> 3) % n);
+        }
+        return result;
+    }
+
+    private static byte[] encode(BufferedImage image, boolean interlaced) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
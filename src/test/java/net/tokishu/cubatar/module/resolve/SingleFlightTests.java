@@ -0,0 +1,149 @@
+package net.tokishu.cubatar.module.resolve;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link SingleFlight}: одновременные вызовы по ключу идут наверх один раз,
+ * исключение ведущего получают все, после завершения ключ освобождается, и
+ * счётчики это отражают.
+ */
+class SingleFlightTests {
+
+    private static final int FOLLOWERS = 16;
+
+    @Test
+    void collapsesConcurrentCalls() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test");
+        AtomicInteger upstream = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<String> results = race(flight, () -> {
+            upstream.incrementAndGet();
+            await(release);
+            return "uuid";
+        }, release);
+
+        assertEquals(1, upstream.get());
+        assertEquals(FOLLOWERS + 1, results.size());
+        results.forEach(value -> assertEquals("uuid", value));
+        assertEquals(FOLLOWERS + 1, flight.calls());
+        assertEquals(FOLLOWERS, flight.collapsed());
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void propagatesFailureToEveryWaiter() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test");
+        IllegalStateException failure = new IllegalStateException("Mojang is down");
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Throwable> errors = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> calls = start(pool, flight, () -> {
+                await(release);
+                throw failure;
+            });
+            release.countDown();
+            for (Future<String> call : calls) {
+                ExecutionException e = assertThrows(ExecutionException.class, call::get);
+                errors.add(e.getCause());
+            }
+        }
+        // Тот же экземпляр, а не обёртка: статус ResponseStatusException доходит до всех
+        assertEquals(FOLLOWERS + 1, errors.size());
+        errors.forEach(e -> assertSame(failure, e));
+        assertEquals(FOLLOWERS, flight.collapsed());
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void propagatesErrors() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test");
+        StackOverflowError error = new StackOverflowError();
+        assertSame(error, assertThrows(StackOverflowError.class, () -> flight.execute("k", () -> { throw error; })));
+        assertEquals(0, flight.inFlight());
+    }
+
+    @Test
+    void releasesKeyAfterSuccessAndFailure() {
+        SingleFlight<String, Integer> flight = new SingleFlight<>("test");
+        AtomicInteger upstream = new AtomicInteger();
+
+        // Результат не запоминается: каждый последовательный вызов идёт наверх
+        assertEquals(1, (int) flight.execute("k", upstream::incrementAndGet));
+        assertEquals(0, flight.inFlight());
+        assertEquals(2, (int) flight.execute("k", upstream::incrementAndGet));
+        assertEquals(0, flight.inFlight());
+
+        assertThrows(IllegalStateException.class, () -> flight.execute("k", () -> { throw new IllegalStateException(); }));
+        assertEquals(0, flight.inFlight());
+        assertEquals(3, (int) flight.execute("k", upstream::incrementAndGet));
+
+        assertEquals(4, flight.calls());
+        assertEquals(0, flight.collapsed());
+    }
+
+    @Test
+    void countsInFlightKeys() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> a = pool.submit(() -> flight.execute("a", () -> { started.countDown(); await(release); return "a"; }));
+            Future<String> b = pool.submit(() -> flight.execute("b", () -> { started.countDown(); await(release); return "b"; }));
+            started.await();
+            // Разные ключи не склеиваются
+            assertEquals(2, flight.inFlight());
+            release.countDown();
+            assertEquals("a", a.get());
+            assertEquals("b", b.get());
+        }
+        assertEquals(0, flight.inFlight());
+        assertEquals(0, flight.collapsed());
+        assertEquals("test", flight.name());
+    }
+
+    /** Ведущий и FOLLOWERS ведомых по одному ключу; release отпускается, когда все ведомые ждут. */
+    private static List<String> race(SingleFlight<String, String> flight, Supplier<String> call,
+                                     CountDownLatch release) throws Exception {
+        List<String> results = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> calls = start(pool, flight, call);
+            release.countDown();
+            for (Future<String> future : calls) results.add(future.get());
+        }
+        return results;
+    }
+
+    /** Запускает ведущего, дожидается, пока он займёт ключ, потом ведомых - пока все не склеятся. */
+    private static List<Future<String>> start(ExecutorService pool, SingleFlight<String, String> flight,
+                                              Supplier<String> call) throws InterruptedException {
+        List<Future<String>> calls = new ArrayList<>();
+        calls.add(pool.submit(() -> flight.execute("notch", call)));
+        while (flight.inFlight() == 0) Thread.onSpinWait();
+        for (int i = 0; i < FOLLOWERS; i++) calls.add(pool.submit(() -> flight.execute("notch", call)));
+        while (flight.collapsed() < FOLLOWERS) Thread.sleep(1);
+        return calls;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.tokishu.cubatar.module.resolve;
+
+import com.sun.net.httpserver.HttpServer;
+import net.tokishu.cubatar.Main;
+import net.tokishu.cubatar.module.stub.util.ProceduralSkins;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ответы хоста текстур по прямым ссылкам и {@link NegativeCache}: 404
+ * запоминается, а 429 и 403 - нет, и скин, который хост потом отдал,
+ * отдаётся сразу, а не через TTL. Хост - локальная заглушка: каждый путь
+ * отвечает очередным статусом из своей очереди, потом 200 со скином.
+ */
+class TextureErrorsTests {
+
+    private static HttpServer host;
+    private static ConfigurableApplicationContext app;
+    private static int port;
+    private static byte[] skin;
+    /** Путь -> статус следующего ответа; после одного ответа путь отдаёт скин. */
+    private static final Map<String, Integer> failOnce = new ConcurrentHashMap<>();
+    private static final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void start() throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(ProceduralSkins.skin(42, false, false), "png", png);
+        skin = png.toByteArray();
+
+        host = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        host.createContext("/", exchange -> {
+            Integer status = failOnce.remove(exchange.getRequestURI().getPath());
+            if (status != null) {
+                if (status == 429) exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                exchange.getResponseHeaders().add("Content-Type", "image/png");
+                exchange.sendResponseHeaders(200, skin.length);
+                exchange.getResponseBody().write(skin);
+            }
+            exchange.close();
+        });
+        host.start();
+
+        port = freePort();
+        app = new SpringApplicationBuilder(Main.class)
+                .profiles("stub")
+                .run("--server.port=" + port,
+                        "--cubatar.prewarm.enabled=false",
+                        "--cubatar.mojang.bulk.enabled=false");
+    }
+
+    @AfterAll
+    static void stop() {
+        app.close();
+        host.stop(0);
+    }
+
+    @Test
+    void throttledTextureIsNotRemembered() throws Exception {
+        failOnce.put("/throttled.png", 429);
+        assertEquals(503, get("/throttled.png"));
+        assertEquals(200, get("/throttled.png"));
+    }
+
+    @Test
+    void forbiddenTextureIsNotRemembered() throws Exception {
+        failOnce.put("/forbidden.png", 403);
+        assertEquals(404, get("/forbidden.png"));
+        assertEquals(200, get("/forbidden.png"));
+    }
+
+    @Test
+    void missingTextureIsRemembered() throws Exception {
+        failOnce.put("/missing.png", 404);
+        assertEquals(404, get("/missing.png"));
+        // Хост уже отдаёт скин, но до конца TTL ссылка отбивается без похода к нему
+        assertEquals(404, get("/missing.png"));
+    }
+
+    /** /v1/skin по прямой ссылке на заглушку (base64url, как у клиентов). */
+    private static int get(String path) throws IOException, InterruptedException {
+        String url = "http://127.0.0.1:" + host.getAddress().getPort() + path;
+        String input = Base64.getUrlEncoder().withoutPadding().encodeToString(url.getBytes(StandardCharsets.UTF_8));
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/v1/skin/" + input)).build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.tokishu.cubatar.module.resolve;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link UpstreamRateLimiter} как интерцептор RestClient против локальной
+ * заглушки: "/ok" всегда 200, "/busy" первые throttledLeft раз отвечает 429
+ * с Retry-After в секундах.
+ */
+class UpstreamRateLimiterTests {
+
+    private HttpServer stub;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger throttledLeft = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/ok", exchange -> {
+            hits.incrementAndGet();
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.createContext("/busy", exchange -> {
+            hits.incrementAndGet();
+            if (throttledLeft.getAndDecrement() > 0) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+            } else {
+                byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    private UpstreamRateLimiter limiter(double rate, int burst, int maxQueue, Duration maxWait) {
+        return new UpstreamRateLimiter(List.of("127.0.0.1"), rate, burst, maxQueue, maxWait);
+    }
+
+    private String get(RestClient client, String path) {
+        return client.get()
+                .uri("http://127.0.0.1:" + stub.getAddress().getPort() + path)
+                .retrieve()
+                .body(String.class);
+    }
+
+    @Test
+    void burstPassesAndTheRestWaitsForRefill() {
+        UpstreamRateLimiter limiter = limiter(20, 2, 10, Duration.ofSeconds(5));
+        RestClient client = RestClient.builder().requestInterceptor(limiter).build();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) get(client, "/ok");
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        // Два из запаса, ещё два - по 50 мс на токен
+        assertTrue(elapsedMillis >= 90, "took " + elapsedMillis + " ms");
+        assertEquals(4, hits.get());
+        assertEquals(0, limiter.permits("127.0.0.1"));
+    }
+
+    @Test
+    void fullQueueRejectsImmediately() throws Exception {
+        UpstreamRateLimiter limiter = limiter(1, 1, 1, Duration.ofSeconds(5));
+        RestClient client = RestClient.builder().requestInterceptor(limiter).build();
+
+        get(client, "/ok");
+        Thread waiter = Thread.ofVirtual().start(() -> get(client, "/ok"));
+        while (limiter.queueDepth("127.0.0.1") < 1) Thread.sleep(5);
+
+        long start = System.nanoTime();
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> get(client, "/ok"));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getStatusCode().value());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 100);
+
+        waiter.join();
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    void waitLongerThanMaxWaitIsRejected() {
+        UpstreamRateLimiter limiter = limiter(1, 1, 10, Duration.ofMillis(200));
+        RestClient client = RestClient.builder().requestInterceptor(limiter).build();
+
+        get(client, "/ok");
+        assertThrows(ResponseStatusException.class, () -> get(client, "/ok"));
+        assertEquals(1, hits.get());
+        assertEquals(0, limiter.queueDepth("127.0.0.1"));
+    }
+
+    @Test
+    void tooManyRequestsBacksOffForRetryAfterAndRetriesOnce() {
+        UpstreamRateLimiter limiter = limiter(100, 10, 10, Duration.ofSeconds(5));
+        RestClient client = RestClient.builder().requestInterceptor(limiter).build();
+        throttledLeft.set(1);
+
+        long start = System.nanoTime();
+        assertEquals("ok", get(client, "/busy"));
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertTrue(elapsedMillis >= 950, "took " + elapsedMillis + " ms");
+        assertEquals(2, hits.get());
+        // Скорость упала вдвое и после одного успеха вернула только 5%
+        assertEquals(55.0, limiter.stats().getFirst().rate(), 0.001);
+    }
+
+    @Test
+    void otherHostsAreNotLimited() {
+        UpstreamRateLimiter limiter = new UpstreamRateLimiter(List.of("api.mojang.com"), 1, 1, 0, Duration.ZERO);
+        RestClient client = RestClient.builder().requestInterceptor(limiter).build();
+
+        for (int i = 0; i < 5; i++) get(client, "/ok");
+        assertEquals(5, hits.get());
+        assertEquals(-1, limiter.permits("127.0.0.1"));
+    }
+}
@@ -0,0 +1,28 @@
+package net.tokishu.cubatar.module.stub.util;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+/**
+ * Тестовые вариации скинов из {@link ProceduralSkins} - для тестов, которые
+ * сверяют быстрые пути рендера с эталонными.
+ */
+public final class TestSkins {
+
+    private TestSkins() {
+    }
+
+    /** Каждый третий видимый тексель - полупрозрачный, чтобы был второй проход смешивания. */
+    public static BufferedImage translucent(BufferedImage source, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int argb = source.getRGB(x, y);
+                if (argb >>> 24 != 0 && random.nextInt(3) == 0) argb = (argb & 0xFFFFFF) | random.nextInt(1, 255) << 24;
+                result.setRGB(x, y, argb);
+            }
+        }
+        return result;
+    }
+}